@@ -1,19 +1,30 @@
 package tintor.devel.concurrent_recursion;
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import tintor.devel.work_stealing_deque.Recursion;
+import tintor.devel.work_stealing_deque.TaskPool;
 
 public class ConcurrentRecursion {
 	public static void main(final String[] args) throws Exception {
-		final Node a = create(10);
-		System.out.println(count(a));
-		System.out.println(count2(a));
-		pool.shutdown();
+		final int depth = args.length > 0 ? Integer.parseInt(args[0]) : 22;
+		final Node a = create(depth);
+		final int expected = count(a);
+
+		long time = System.nanoTime();
+		count(a);
+		final long sequential = System.nanoTime() - time;
+		System.out.printf("sequential %.1fms\n", sequential / 1e6);
+
+		for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+			final TaskPool pool = new TaskPool(threads);
+			long best = Long.MAX_VALUE;
+			for (int i = 0; i < 5; i++) {
+				time = System.nanoTime();
+				if (count2(pool, a) != expected) throw new RuntimeException();
+				best = Math.min(best, System.nanoTime() - time);
+			}
+			System.out.printf("threads=%d %.1fms speedup=%.2f\n", threads, best / 1e6, (double) sequential / best);
+			pool.shutdown();
+		}
 	}
 
 	static Node create(final int depth) {
@@ -24,31 +35,28 @@ public class ConcurrentRecursion {
 		return a;
 	}
 
-	static final AtomicInteger counter = new AtomicInteger(0);
-
-	static final ExecutorService pool = new ThreadPoolExecutor(4, 4, 0, TimeUnit.SECONDS,
-			new SynchronousQueue<Runnable>(), new ThreadPoolExecutor.CallerRunsPolicy());
+	static int count2(final TaskPool pool, final Node a) {
+		return new Recursion<Node, Integer>(pool) {
+			@Override protected Integer sequential(final Node a) {
+				return count(a);
+			}
 
-	static int count2(final Node a) throws Exception {
-		if (a == null) return 0;
+			@Override protected boolean small(final Node a) {
+				return a == null;
+			}
 
-		final Future<Integer> l = pool.submit(new Callable<Integer>() {
-			@Override
-			public Integer call() throws Exception {
-				return count2(a.left);
+			@Override protected Node left(final Node a) {
+				return a.left;
 			}
-		});
 
-		final Future<Integer> r = pool.submit(new Callable<Integer>() {
-			@Override
-			public Integer call() throws Exception {
-				return count2(a.right);
+			@Override protected Node right(final Node a) {
+				return a.right;
 			}
-		});
 
-		final int result = 1 + l.get() + r.get();
-		System.out.println(counter.incrementAndGet() / 1024.0);
-		return result;
+			@Override protected Integer combine(final Node a, final Integer left, final Integer right) {
+				return 1 + left + right;
+			}
+		}.compute(a);
 	}
 
 	static int count(final Node a) {
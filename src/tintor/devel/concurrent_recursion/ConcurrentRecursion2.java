@@ -1,15 +1,36 @@
 package tintor.devel.concurrent_recursion;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import tintor.devel.work_stealing_deque.Recursion;
+import tintor.devel.work_stealing_deque.TaskPool;
 
+/**
+ * Visits 2^depth tree doing some work per node, sequentially and with Recursion for 1 to availableProcessors
+ * threads, and prints speedup. Work per node keeps it CPU bound, unlike ConcurrentRecursion which mostly measures
+ * memory bandwidth.
+ * Usage: ConcurrentRecursion2 [depth [work]]
+ */
 public class ConcurrentRecursion2 {
 	public static void main(final String[] args) throws Exception {
-		final Node a = create(1, 3);
-		// visit(a);
-		visit2(a);
+		final int depth = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		final int work = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		final Node a = create(1, depth);
+
+		long time = System.nanoTime();
+		final long expected = visit(a, work);
+		final long sequential = System.nanoTime() - time;
+		System.out.printf("sequential %.1fms\n", sequential / 1e6);
+
+		for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+			final TaskPool pool = new TaskPool(threads);
+			long best = Long.MAX_VALUE;
+			for (int i = 0; i < 3; i++) {
+				time = System.nanoTime();
+				if (visit2(pool, a, work) != expected) throw new RuntimeException();
+				best = Math.min(best, System.nanoTime() - time);
+			}
+			System.out.printf("threads=%d %.1fms speedup=%.2f\n", threads, best / 1e6, (double) sequential / best);
+			pool.shutdown();
+		}
 	}
 
 	static Node create(final int name, final int depth) {
@@ -21,33 +42,44 @@ public class ConcurrentRecursion2 {
 		return a;
 	}
 
-	static final ExecutorService pool = new ThreadPoolExecutor(0, 4, 1, TimeUnit.SECONDS,
-			new SynchronousQueue<Runnable>(), new ThreadPoolExecutor.CallerRunsPolicy());
+	static long visit2(final TaskPool pool, final Node a, final int work) {
+		return new Recursion<Node, Long>(pool) {
+			@Override protected Long sequential(final Node a) {
+				return visit(a, work);
+			}
 
-	static void visit2(final Node a) {
-		if (a == null) return;
-		System.out.println(a.name);
+			@Override protected boolean small(final Node a) {
+				return a == null;
+			}
 
-		pool.execute(new Runnable() {
-			@Override
-			public void run() {
-				visit2(a.left);
+			@Override protected Node left(final Node a) {
+				return a.left;
 			}
-		});
 
-		pool.execute(new Runnable() {
-			@Override
-			public void run() {
-				visit2(a.right);
+			@Override protected Node right(final Node a) {
+				return a.right;
 			}
-		});
+
+			@Override protected Long combine(final Node a, final Long left, final Long right) {
+				return hash(a.name, work) + left + right;
+			}
+		}.compute(a);
+	}
+
+	static long visit(final Node a, final int work) {
+		if (a == null) return 0;
+		return hash(a.name, work) + visit(a.left, work) + visit(a.right, work);
 	}
 
-	static void visit(final Node a) {
-		if (a == null) return;
-		System.out.println(a.name);
-		visit(a.left);
-		visit(a.right);
+	// xorshift rounds, stands in for real work done at node
+	static long hash(final int name, final int rounds) {
+		long x = name + 0x9E3779B97F4A7C15L;
+		for (int i = 0; i < rounds; i++) {
+			x ^= x << 13;
+			x ^= x >>> 7;
+			x ^= x << 17;
+		}
+		return x;
 	}
 
 	static class Node {
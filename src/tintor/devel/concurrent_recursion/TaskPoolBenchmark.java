@@ -0,0 +1,82 @@
+package tintor.devel.concurrent_recursion;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import tintor.devel.concurrent_recursion.ConcurrentRecursion.Node;
+import tintor.devel.work_stealing_deque.Task;
+import tintor.devel.work_stealing_deque.TaskPool;
+
+/**
+ * Counts nodes of ConcurrentRecursion tree with one task per node, so the time is mostly spawn, steal and join.
+ * Compares TaskPool with ForkJoinPool for 1 to availableProcessors threads.
+ * Usage: TaskPoolBenchmark [depth [maxThreads]]
+ */
+public class TaskPoolBenchmark {
+	public static void main(final String[] args) {
+		final int depth = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		final int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime()
+				.availableProcessors();
+		final int rounds = 5;
+		final Node tree = ConcurrentRecursion.create(depth);
+		final int expected = ConcurrentRecursion.count(tree);
+
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			final TaskPool pool = new TaskPool(threads);
+			final ForkJoinPool fjPool = new ForkJoinPool(threads);
+
+			long best = Long.MAX_VALUE, fjBest = Long.MAX_VALUE;
+			for (int i = 0; i < rounds; i++) {
+				long time = System.nanoTime();
+				check(expected, pool.invoke(new Count(tree)));
+				best = Math.min(best, System.nanoTime() - time);
+
+				time = System.nanoTime();
+				check(expected, fjPool.invoke(new FjCount(tree)));
+				fjBest = Math.min(fjBest, System.nanoTime() - time);
+			}
+			System.out.printf("threads=%d TaskPool=%.1fms (%d steals) ForkJoinPool=%.1fms (%d steals)\n", threads,
+					best / 1e6, pool.steals(), fjBest / 1e6, fjPool.getStealCount());
+
+			pool.shutdown();
+			fjPool.shutdown();
+		}
+	}
+
+	private static void check(final int expected, final int actual) {
+		if (actual != expected) throw new RuntimeException(actual + " != " + expected);
+	}
+
+	static class Count extends Task<Integer> {
+		final Node node;
+
+		Count(final Node node) {
+			this.node = node;
+		}
+
+		@Override protected Integer compute() {
+			if (node == null) return 0;
+			final Count left = new Count(node.left);
+			left.fork();
+			final int right = new Count(node.right).invoke();
+			return 1 + right + left.join();
+		}
+	}
+
+	static class FjCount extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		final Node node;
+
+		FjCount(final Node node) {
+			this.node = node;
+		}
+
+		@Override protected Integer compute() {
+			if (node == null) return 0;
+			final FjCount left = new FjCount(node.left);
+			left.fork();
+			final int right = new FjCount(node.right).compute();
+			return 1 + right + left.join();
+		}
+	}
+}
\ No newline at end of file
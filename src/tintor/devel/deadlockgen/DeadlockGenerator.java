@@ -3,26 +3,66 @@ package tintor.devel.deadlockgen;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.StringWriter;
 import java.io.Writer;
-import java.util.Arrays;
 import java.util.Locale;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import tintor.util.Metrics;
+
+/**
+ * Usage: DeadlockGenerator [-size 3x4] [-workers 3] [-unit 1000] [-start 0] [-port p]
+ * or: DeadlockGenerator -connect host:port [-workers 3]
+ *
+ * Progress is checkpointed to WxH.checkpoint and a restarted run resumes from it.
+ * With -port other processes can join with -connect and take work units from this one.
+ */
 public class DeadlockGenerator {
+	private static final int[][] PatternSizes = { { 2, 2 }, { 2, 3 }, { 3, 3 }, { 2, 5 }, { 3, 4 }, { 3, 5 }, { 4, 4 } };
+
 	public static void main(final String[] args) throws Exception {
-		final int width = 3, height = 4;
-		final long start = 0;
-		final long workUnit = 1000;
+		int width = 3, height = 4;
+		long start = 0;
+		long workUnit = 1000;
 		final boolean writeAll = false;
-		final boolean append = false;
-		final int workers = 3;
+		int workers = 3;
+		int port = -1;
+		String connect = null;
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			final String value = args[i + 1];
+			if (args[i].equals("-size")) {
+				width = Integer.parseInt(value.substring(0, value.indexOf('x')));
+				height = Integer.parseInt(value.substring(value.indexOf('x') + 1));
+			}
+			else if (args[i].equals("-workers"))
+				workers = Integer.parseInt(value);
+			else if (args[i].equals("-unit"))
+				workUnit = Long.parseLong(value);
+			else if (args[i].equals("-start"))
+				start = Long.parseLong(value);
+			else if (args[i].equals("-port"))
+				port = Integer.parseInt(value);
+			else if (args[i].equals("-connect"))
+				connect = value;
+			else
+				throw new IllegalArgumentException(args[i]);
+		}
 
 		Locale.setDefault(Locale.US);
 
-		final Writer out = new BufferedWriter(new FileWriter("+" + width + "x" + height + "_.txt", append));
+		if (connect != null) {
+			final int colon = connect.lastIndexOf(':');
+			WorkServer.connect(connect.substring(0, colon), Integer.parseInt(connect.substring(colon + 1)), workers);
+			return;
+		}
+
+		final File checkpoint = new File(width + "x" + height + ".checkpoint");
+		final boolean append = checkpoint.exists();
 
 		final Writer outAll;
 		final DataOutputStream outB;
@@ -34,47 +74,58 @@ public class DeadlockGenerator {
 					+ ".bin")));
 		}
 
-		final Patterns patterns = new Patterns();
-		patterns.load(2, 2);
-		patterns.load(2, 3);
-		patterns.load(3, 3);
-		patterns.load(2, 5);
-		patterns.load(3, 4);
-		//patterns.load(3, 5);
-		//patterns.load(4, 4);
-
-		final Scheduler scheduler = new Scheduler(start, workUnit);
+		final Patterns patterns = patterns(width, height);
+
+		final long total = new Map(width, height).total;
+		final Scheduler scheduler = new Scheduler(start, total, workUnit, checkpoint, new File("+" + width + "x" + height
+				+ "_.txt"));
 		final CountDownLatch done = new CountDownLatch(workers);
 
+		final int w = width, h = height;
+		// first error of a local worker, its unit is given back to scheduler
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
 		final Runnable worker = new Runnable() {
 			@Override
 			public void run() {
-				final Map map = new Map(width, height);
-				while (true) {
-					final long task = scheduler.begin();
-					if (task >= map.total) break;
-
-					map.load(task);
-					do
-						if (map.boxes >= 2 && !map.freeEdge() && map.unique()
-								&& !patterns.matches(map) && map.isDeadlock()
-								&& map.isMinimal()) map.print(out);
-					while (map.next() && map.order < task + workUnit);
-
-					scheduler.end(task);
+				long task = -1;
+				try {
+					final Map map = new Map(w, h);
+					while (true) {
+						task = scheduler.begin();
+						if (task >= map.total) break;
+
+						final StringWriter result = new StringWriter();
+						search(map, patterns, task, scheduler.delta(), result);
+						scheduler.end(task, result.toString());
+						task = -1;
+					}
+				}
+				catch (final Throwable e) {
+					if (task >= 0 && task < total) scheduler.abandon(task);
+					failure.compareAndSet(null, e);
+					e.printStackTrace();
+				}
+				finally {
+					done.countDown();
 				}
-				done.countDown();
 			}
 		};
 
-		final ProgressMonitor monitor = new ProgressMonitor(width, height, start, scheduler, append);
+		final ProgressMonitor monitor = new ProgressMonitor(width, height, scheduler.tail(), scheduler, append);
+		if (port >= 0) new WorkServer(port, width, height, scheduler);
 		for (int i = 0; i < workers; i++)
 			new Thread(worker, "worker" + i).start();
 		done.await();
+		// without other processes nobody is left to redo units of failed workers, run resumes from checkpoint
+		if (failure.get() != null && port < 0 && scheduler.tail() < total) {
+			monitor.stop();
+			throw new RuntimeException(failure.get());
+		}
+		// units taken by other processes
+		scheduler.await();
 		monitor.stop();
 
-		out.write("done\n");
-		out.close();
+		scheduler.close("done\n");
 
 		if (writeAll) {
 			outAll.write("done\n");
@@ -83,51 +134,38 @@ public class DeadlockGenerator {
 			outB.close();
 		}
 	}
-}
-
-class Scheduler {
-	private long[] finished = new long[16];
-	private int size;
 
-	private final AtomicLong head = new AtomicLong();
-	private long tail;
-	private final long delta;
-
-	public Scheduler(final long init, final long delta) {
-		this.head.set(init);
-		this.delta = delta;
-		if (delta < 1) throw new IllegalArgumentException();
-	}
-
-	public long head() {
-		return head.get();
-	}
-
-	public synchronized long tail() {
-		return tail;
-	}
-
-	public long begin() {
-		return head.incrementAndGet();
+	/** Deadlock patterns of smaller sizes which fit (in either orientation) into width x height map. */
+	static Patterns patterns(final int width, final int height) {
+		final Patterns patterns = new Patterns();
+		for (final int[] size : PatternSizes) {
+			final int w = size[0], h = size[1];
+			if (w <= width && h <= height || h <= width && w <= height) patterns.load(w, h);
+		}
+		return patterns;
 	}
 
-	public synchronized void end(final long task) {
-		if (task == tail) {
-			tail += delta;
-			if (size > 0) {
-				Arrays.sort(finished, 0, size);
-				int i = 0;
-				while (i < size && finished[i] == tail) {
-					tail += delta;
-					i++;
+	/** Prints all minimal deadlocks in work unit [task, task + workUnit). */
+	static void search(final Map map, final Patterns patterns, final long task, final long workUnit, final Writer out) {
+		final Metrics.Cell maps = ProgressMonitor.maps.local(), tests = ProgressMonitor.deadlockTests.local();
+		final Metrics.Cell found = ProgressMonitor.deadlocks.local();
+
+		map.load(task);
+		final long end = Math.min(task + workUnit, map.total);
+		while (map.order < end) {
+			if (!map.unique()) {
+				map.skip();
+				continue;
+			}
+			maps.increment();
+			if (map.boxes >= 2 && !map.freeEdge() && !patterns.matches(map)) {
+				tests.increment();
+				if (map.isDeadlock() && map.isMinimal()) {
+					found.increment();
+					map.print(out);
 				}
-				if (i > 0) System.arraycopy(finished, i, finished, 0, i);
-				size -= i;
 			}
-		}
-		else {
-			if (size == finished.length) finished = Arrays.copyOf(finished, finished.length * 2);
-			finished[size++] = task;
+			map.next();
 		}
 	}
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package tintor.devel.deadlockgen;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.Writer;
+import java.util.Arrays;
 
 import tintor.devel.deadlockgen.sokoban.Cell;
 import tintor.devel.deadlockgen.sokoban.CellGroup;
@@ -12,8 +13,9 @@ import tintor.devel.deadlockgen.sokoban.Deadlock;
 import tintor.devel.deadlockgen.sokoban.Dir;
 import tintor.devel.deadlockgen.sokoban.Key;
 import tintor.devel.deadlockgen.sokoban.KeySet;
-import tintor.devel.deadlockgen.util.IntHashSet;
+import tintor.devel.deadlockgen.util.PatternIndex;
 import tintor.devel.deadlockgen.util.Statistics;
+import tintor.util.Metrics;
 
 public final class Map implements Serializable {
 	final int width, height;
@@ -24,7 +26,22 @@ public final class Map implements Serializable {
 	long order;
 	final long total;
 
-	private final int[] transH, transV, transHV, transT, transHT, transVT, transHVT;
+	// Orders of symmetric maps and codes of pattern windows are kept up to date incrementally: cells change like an
+	// odometer, so sync() only looks at cells below dirty and applies difference of each changed digit.
+	private final byte[] digits;
+	private int dirty;
+
+	private final int[][] trans;
+	// weight[t][i] is 3^k where trans[t][k] == i, low[t][k] is min(k, trans[t][k..])
+	private final long[][] weight;
+	private final int[][] low;
+	private final long[] orders;
+	private int violated;
+
+	private Windows[] windows = new Windows[0];
+
+	// cell of thread which constructed this map, as map is used by one worker
+	private final transient Metrics.Buckets keysOpenedCell = ProgressMonitor.keysOpened.local();
 
 	Map(final int width, final int height) {
 		this.width = width;
@@ -35,13 +52,26 @@ public final class Map implements Serializable {
 		for (int i = 0; i < cells.length; i++)
 			cells[i] = Code.Space;
 
-		transH = transform(true, false, false);
-		transV = transform(false, true, false);
-		transHV = transform(true, true, false);
-		transT = transform(false, false, true);
-		transHT = transform(true, false, true);
-		transVT = transform(false, true, true);
-		transHVT = transform(true, true, true);
+		digits = new byte[cells.length];
+		if (width == height)
+			trans = new int[][] { transform(true, false, false), transform(false, true, false),
+					transform(true, true, false), transform(false, false, true), transform(true, false, true),
+					transform(false, true, true), transform(true, true, true) };
+		else
+			trans = new int[][] { transform(true, false, false), transform(false, true, false),
+					transform(true, true, false) };
+
+		weight = new long[trans.length][cells.length];
+		low = new int[trans.length][cells.length];
+		for (int t = 0; t < trans.length; t++) {
+			int min = cells.length;
+			for (int k = cells.length - 1; k >= 0; k--) {
+				weight[t][trans[t][k]] = power3[k];
+				min = Math.min(min, Math.min(k, trans[t][k]));
+				low[t][k] = min;
+			}
+		}
+		orders = new long[trans.length];
 	}
 
 	void load(final String map) {
@@ -53,6 +83,7 @@ public final class Map implements Serializable {
 		boxes = 0;
 		for (final char c : cells)
 			if (c == Code.Box) boxes++;
+		dirty = cells.length;
 	}
 
 	void load(final long map) {
@@ -76,6 +107,7 @@ public final class Map implements Serializable {
 			}
 			m /= 3;
 		}
+		dirty = cells.length;
 	}
 
 	boolean next() {
@@ -85,52 +117,139 @@ public final class Map implements Serializable {
 			case Code.Space:
 				cells[i] = Code.Box;
 				boxes++;
+				if (dirty <= i) dirty = i + 1;
 				return true;
 			case Code.Box:
 				cells[i] = Code.Wall;
 				boxes--;
+				if (dirty <= i) dirty = i + 1;
 				return true;
 			case Code.Wall:
 				cells[i] = Code.Space;
 				break;
 			}
+		dirty = cells.length;
 		return false;
 	}
 
 	boolean unique() {
 		// remove symmetric duplicates
-		if (order > order(transH)) return false;
-		if (order > order(transV)) return false;
-		if (order > order(transHV)) return false;
-		if (width == height) {
-			if (order > order(transT)) return false;
-			if (order > order(transHT)) return false;
-			if (order > order(transVT)) return false;
-			if (order > order(transHVT)) return false;
-		}
+		sync();
+		for (int t = 0; t < orders.length; t++)
+			if (order > orders[t]) {
+				violated = t;
+				return false;
+			}
 		return true;
 	}
 
-	boolean containsPattern(final int w, final int h, final IntHashSet patterns) {
-		for (int y = 0; y < height - h + 1; y++)
-			for (int x = 0; x < width - w + 1; x++) {
-				int a = 0;
-				for (int sy = h - 1; sy >= 0; sy--)
-					for (int sx = w - 1; sx >= 0; sx--)
-						a = a * 3 + code(cells[x + sx + (y + sy) * width]);
-				if (patterns.contains(a)) return true;
-			}
+	/**
+	 * Called after unique() returned false. Highest digit in which map differs from its smaller symmetric map
+	 * decides the comparison, and it depends only on digits at or above low[t][i]. All maps which share these
+	 * digits are not unique either, so enumeration continues from the next value of digit low[t][i].
+	 */
+	boolean skip() {
+		final int[] t = trans[violated];
+		int i = cells.length - 1;
+		while (cells[i] == cells[t[i]])
+			i--;
+		final int k = low[violated][i];
+
+		order += power3[k] - 1 - order % power3[k];
+		for (int j = 0; j < k; j++) {
+			if (cells[j] == Code.Box) boxes--;
+			cells[j] = Code.Wall;
+		}
+		if (dirty < k) dirty = k;
+		return next();
+	}
 
-		if (w != h && h <= width) for (int y = 0; y < height - w + 1; y++)
-			for (int x = 0; x < width - h + 1; x++) {
-				int a = 0;
-				for (int sx = h - 1; sx >= 0; sx--)
-					for (int sy = w - 1; sy >= 0; sy--)
-						a = a * 3 + code(cells[x + sx + (y + sy) * width]);
-				if (patterns.contains(a)) return true;
+	boolean containsPattern(final int w, final int h, final PatternIndex patterns) {
+		sync();
+		for (final int a : windows(w, h).codes)
+			if (patterns.contains(a)) return true;
+		return false;
+	}
+
+	// Codes of all w x h windows, and of h x w windows if pattern is not square.
+	private static final class Windows implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final int w, h;
+		int[] codes;
+		// windows containing cell i are window[i][k] with weight[i][k]
+		final int[][] window, weight;
+
+		Windows(final Map map, final int w, final int h) {
+			this.w = w;
+			this.h = h;
+
+			final int n = map.cells.length;
+			final int[] count = new int[n];
+			codes = new int[0];
+			window = new int[n][2 * w * h];
+			weight = new int[n][2 * w * h];
+
+			for (int y = 0; y < map.height - h + 1; y++)
+				for (int x = 0; x < map.width - w + 1; x++) {
+					final int c = add();
+					for (int sy = 0; sy < h; sy++)
+						for (int sx = 0; sx < w; sx++)
+							link(count, x + sx + (y + sy) * map.width, c, (int) power3[sx + sy * w]);
+				}
+
+			if (w != h && h <= map.width) for (int y = 0; y < map.height - w + 1; y++)
+				for (int x = 0; x < map.width - h + 1; x++) {
+					final int c = add();
+					for (int sx = 0; sx < h; sx++)
+						for (int sy = 0; sy < w; sy++)
+							link(count, x + sx + (y + sy) * map.width, c, (int) power3[sy + sx * w]);
+				}
+
+			for (int i = 0; i < n; i++) {
+				window[i] = Arrays.copyOf(window[i], count[i]);
+				weight[i] = Arrays.copyOf(weight[i], count[i]);
+				for (int k = 0; k < count[i]; k++)
+					codes[window[i][k]] += map.digits[i] * weight[i][k];
 			}
+		}
 
-		return false;
+		private int add() {
+			codes = Arrays.copyOf(codes, codes.length + 1);
+			return codes.length - 1;
+		}
+
+		private void link(final int[] count, final int cell, final int c, final int w) {
+			window[cell][count[cell]] = c;
+			weight[cell][count[cell]++] = w;
+		}
+
+		void update(final int cell, final int delta) {
+			final int[] a = window[cell], b = weight[cell];
+			for (int k = 0; k < a.length; k++)
+				codes[a[k]] += delta * b[k];
+		}
+	}
+
+	private Windows windows(final int w, final int h) {
+		for (final Windows e : windows)
+			if (e.w == w && e.h == h) return e;
+		final Windows e = new Windows(this, w, h);
+		windows = Arrays.copyOf(windows, windows.length + 1);
+		windows[windows.length - 1] = e;
+		return e;
+	}
+
+	private void sync() {
+		for (int i = 0; i < dirty; i++) {
+			final int delta = code(cells[i]) - digits[i];
+			if (delta == 0) continue;
+			digits[i] += delta;
+			for (int t = 0; t < orders.length; t++)
+				orders[t] += delta * weight[t][i];
+			for (final Windows e : windows)
+				e.update(i, delta);
+		}
+		dirty = 0;
 	}
 
 	static int code(final char c) {
@@ -206,6 +325,8 @@ public final class Map implements Serializable {
 								if (!set.add(b)) continue;
 
 								stack.push(b);
+								// pushes of a are not needed any more
+								edgeStack.size = 0;
 								continue loop;
 							}
 
@@ -231,6 +352,7 @@ public final class Map implements Serializable {
 		}
 		finally {
 			keysOpenedStats.add(keysOpened);
+			keysOpenedCell.add(keysOpened);
 			stackCapacityStats.add(stack.array.length);
 			setSizeStats.add(set.size());
 		}
@@ -352,26 +474,6 @@ public final class Map implements Serializable {
 		return p;
 	}
 
-	private long order(final int[] transform) {
-		long p = 0, m = 1;
-
-		final char[] c = cells;
-		for (int i = 0; i < c.length; i++) {
-			switch (c[transform[i]]) {
-			case Code.Box:
-				p += m;
-				break;
-
-			case Code.Wall:
-				p += m << 1;
-				break;
-
-			}
-			m *= 3;
-		}
-		return p;
-	}
-
 	private int[] transform(final boolean flipHor, final boolean flipVer, final boolean transpose) {
 		final int[] transform = new int[cells.length];
 		for (int i = 0; i < cells.length; i++) {
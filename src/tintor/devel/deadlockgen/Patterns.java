@@ -1,41 +1,35 @@
 package tintor.devel.deadlockgen;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
-import java.io.EOFException;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import tintor.devel.deadlockgen.util.IntHashSet;
+import tintor.devel.deadlockgen.util.PatternIndex;
 
 class Patterns {
 	static class Entry {
 		int width, height;
-		IntHashSet patterns;
+		PatternIndex patterns;
 	}
 
 	private final List<Entry> list = new ArrayList<Entry>();
 
+	// index WxH.idx is built from WxH.bin on first load, size with neither file is skipped
 	void load(final int width, final int height) {
+		final File codes = new File(width + "x" + height + ".bin"), index = new File(width + "x" + height + ".idx");
+		if (!codes.exists() && !index.exists()) return;
+
 		final Entry e = new Entry();
 		e.width = width;
 		e.height = height;
-		e.patterns = new IntHashSet(128);
-		list.add(e);
-
 		try {
-			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(
-					width + "x" + height + ".bin")));
-			while (true)
-				e.patterns.add(in.readInt());
-		}
-		catch (final EOFException ee) {
+			e.patterns = PatternIndex.load(codes, Map.power3[width * height], index);
 		}
 		catch (final IOException ee) {
 			throw new RuntimeException(ee);
 		}
+		list.add(e);
 	}
 
 	boolean matches(final Map map) {
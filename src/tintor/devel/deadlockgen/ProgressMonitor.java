@@ -1,5 +1,6 @@
 package tintor.devel.deadlockgen;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -7,8 +8,16 @@ import java.util.Date;
 
 import tintor.devel.deadlockgen.util.Statistics;
 import tintor.devel.deadlockgen.util.Timer;
+import tintor.util.Metrics;
 
+/** Writes progress to WxH.log every second, and snapshot of metrics to WxH.csv every 10 seconds. */
 class ProgressMonitor implements Runnable {
+	static final Metrics metrics = new Metrics();
+	// unique maps, maps passed to isDeadlock(), minimal deadlocks
+	static final Metrics.Counter maps = metrics.counter("maps"), deadlockTests = metrics.counter("deadlockTests"),
+			deadlocks = metrics.counter("deadlocks");
+	static final Metrics.Histogram keysOpened = metrics.histogram("keysOpened");
+
 	private final long start;
 	private final Map map; // TODO remove
 
@@ -19,6 +28,8 @@ class ProgressMonitor implements Runnable {
 	private final Thread thread;
 	private final Timer timer = new Timer();
 	private PrintWriter log;
+	private final Metrics.Writer writer;
+	private long lastMaps;
 
 	ProgressMonitor(final int width, final int height, final long start, final Scheduler scheduler,
 			final boolean append) {
@@ -28,6 +39,8 @@ class ProgressMonitor implements Runnable {
 		this.scheduler = scheduler;
 		this.append = append;
 
+		writer = metrics.start(new File(width + "x" + height + ".csv"), 10000);
+
 		thread = new Thread(this);
 		thread.setName("progress monitor");
 		thread.setDaemon(true);
@@ -48,7 +61,10 @@ class ProgressMonitor implements Runnable {
 		while (true)
 			try {
 				Thread.sleep(1000);
-				timer.restart();
+				final double seconds = Timer.seconds(timer.restart());
+				final long mapCount = maps.sum();
+				final double mapsPerSecond = (mapCount - lastMaps) / seconds;
+				lastMaps = mapCount;
 
 				final Date now = new Date();
 
@@ -57,8 +73,8 @@ class ProgressMonitor implements Runnable {
 
 				final double absH = head * 100.0 / map.total;
 				final double absT = tail * 100.0 / map.total;
-				final double rel = (tail + head) * 0.5 / (map.total - start);
-				map.load(tail);
+				final double rel = ((tail + head) * 0.5 - start) / (map.total - start);
+				map.load(Math.min(tail, map.total - 1));
 
 				final String timeElapsed = timer.toString();
 				final String timeLeft = Timer.format((long) (timer.time * (1 - rel) / rel));
@@ -66,9 +82,9 @@ class ProgressMonitor implements Runnable {
 				final String cells = new String(map.cells).replace(' ', '.');
 
 				synchronized (log) {
-					log.printf("time=%tH:%tM:%tS.%tL cells=%s "
-							+ "progress=[%.4f %.4f] time=%s+%s\n", now, cells, absT, absH,
-							timeElapsed, timeLeft);
+					log.printf("time=%1$tH:%1$tM:%1$tS.%1$tL cells=%2$s "
+							+ "progress=[%3$.4f %4$.4f] time=%5$s+%6$s maps/s=%7$.0f\n", now, cells, absT, absH,
+							timeElapsed, timeLeft, mapsPerSecond);
 					Statistics.dump(log);
 					log.println();
 				}
@@ -84,6 +100,7 @@ class ProgressMonitor implements Runnable {
 	void stop() {
 		timer.stop();
 		thread.interrupt();
+		writer.finish();
 		System.out.println("time " + timer);
 	}
 }
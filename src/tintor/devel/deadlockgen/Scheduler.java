@@ -0,0 +1,198 @@
+package tintor.devel.deadlockgen;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Hands out work units [task, task + delta) below end and tracks which of them are finished.
+ *
+ * Finished prefix (tail) and units finished out of order are saved to checkpoint file (written to temp file
+ * and renamed over the old one), and loaded back by constructor, so a restarted run continues where the crashed
+ * one stopped. Units which were started but not finished are done again.
+ *
+ * Results of a unit are appended to output by end(), in the same step that marks it finished. Checkpoint first
+ * syncs output and saves its length, and restarted run truncates output to that length, so output holds results
+ * of exactly the units finished in checkpoint, each once.
+ */
+class Scheduler {
+	private static final long CheckpointInterval = 1000; // ms
+
+	private long[] finished = new long[16];
+	private int size;
+
+	// units given back by workers which failed
+	private final ArrayDeque<Long> retry = new ArrayDeque<Long>();
+
+	private volatile long head;
+	private long tail;
+	private final long end, delta;
+
+	private final File file;
+	private long saved = System.currentTimeMillis();
+
+	private final FileOutputStream stream;
+	private final Writer output;
+	// length of output in checkpoint
+	private long length;
+
+	public Scheduler(final long init, final long end, final long delta, final File file, final File output)
+			throws IOException {
+		if (delta < 1) throw new IllegalArgumentException();
+		this.end = end;
+		this.delta = delta;
+		this.file = file;
+
+		tail = init;
+		final boolean resume = file != null && file.exists();
+		if (resume) load();
+		head = tail;
+
+		stream = new FileOutputStream(output, resume);
+		// drop results of units not finished in checkpoint
+		if (resume) stream.getChannel().truncate(length);
+		this.output = new OutputStreamWriter(stream, Charset.forName("UTF-8"));
+	}
+
+	public long head() {
+		return head;
+	}
+
+	public synchronized long tail() {
+		return tail;
+	}
+
+	public long delta() {
+		return delta;
+	}
+
+	/**
+	 * Returns next unit, or end once all units are finished.
+	 * Waits while all units are given out but some of them are not finished.
+	 */
+	public synchronized long begin() throws InterruptedException {
+		while (true) {
+			if (!retry.isEmpty()) return retry.poll();
+			while (head < end) {
+				final long task = head;
+				head += delta;
+				if (!isFinished(task)) return task;
+			}
+			if (tail >= end) return end;
+			wait();
+		}
+	}
+
+	/** Gives back unit which won't be finished by its worker. */
+	public synchronized void abandon(final long task) {
+		retry.add(task);
+		notifyAll();
+	}
+
+	/** Appends result of unit to output and marks unit as finished. */
+	public synchronized void end(final long task, final String result) {
+		try {
+			output.write(result);
+		}
+		catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (task == tail) {
+			tail += delta;
+			if (size > 0) {
+				Arrays.sort(finished, 0, size);
+				int i = 0;
+				while (i < size && finished[i] == tail) {
+					tail += delta;
+					i++;
+				}
+				if (i > 0) System.arraycopy(finished, i, finished, 0, size - i);
+				size -= i;
+			}
+		}
+		else {
+			if (size == finished.length) finished = Arrays.copyOf(finished, finished.length * 2);
+			finished[size++] = task;
+		}
+
+		if (tail >= end || System.currentTimeMillis() - saved >= CheckpointInterval) checkpoint();
+		notifyAll();
+	}
+
+	/** Waits until all units are finished. */
+	public synchronized void await() throws InterruptedException {
+		while (tail < end)
+			wait();
+	}
+
+	/** Writes trailer to output after all units are finished, and closes it. */
+	public synchronized void close(final String trailer) throws IOException {
+		output.write(trailer);
+		output.close();
+	}
+
+	private boolean isFinished(final long task) {
+		for (int i = 0; i < size; i++)
+			if (finished[i] == task) return true;
+		return false;
+	}
+
+	// === Checkpoint
+
+	public synchronized void checkpoint() {
+		if (file == null) return;
+		final File temp = new File(file.getPath() + ".tmp");
+		try {
+			// results of finished units must be on disk before checkpoint says they are finished
+			output.flush();
+			stream.getFD().sync();
+			length = stream.getChannel().size();
+
+			final FileOutputStream tempStream = new FileOutputStream(temp);
+			final DataOutputStream out = new DataOutputStream(tempStream);
+			out.writeLong(delta);
+			out.writeLong(tail);
+			out.writeInt(size);
+			for (int i = 0; i < size; i++)
+				out.writeLong(finished[i]);
+			out.writeLong(length);
+			out.flush();
+			tempStream.getFD().sync();
+			out.close();
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+		saved = System.currentTimeMillis();
+	}
+
+	private void load() throws IOException {
+		final DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			final long d = in.readLong();
+			if (d != delta) throw new IllegalStateException("checkpoint " + file + " has work unit " + d);
+			tail = in.readLong();
+			size = in.readInt();
+			finished = new long[Math.max(16, Integer.highestOneBit(size) * 2)];
+			for (int i = 0; i < size; i++)
+				finished[i] = in.readLong();
+			length = in.readLong();
+		}
+		finally {
+			in.close();
+		}
+	}
+}
\ No newline at end of file
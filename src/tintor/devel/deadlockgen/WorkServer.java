@@ -0,0 +1,154 @@
+package tintor.devel.deadlockgen;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+ * Farms work units of Scheduler to worker processes over TCP, one unit per connection at a time.
+ *
+ * Protocol: server sends width, height (int) and work unit (long), then for every unit: server sends task (long),
+ * client replies with length (int) and UTF-8 text of deadlocks found in it. Task >= total means there is no more
+ * work. Unit of a connection which breaks or stalls is given back to scheduler.
+ */
+class WorkServer implements Runnable {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** Milliseconds to wait for result of unit, after which client is taken as stalled and loses its unit. */
+	private static final int Timeout = 30 * 60 * 1000;
+
+	private final ServerSocket server;
+	private final Scheduler scheduler;
+	private final int width, height;
+	private final long total;
+
+	WorkServer(final int port, final int width, final int height, final Scheduler scheduler) throws IOException {
+		server = new ServerSocket(port);
+		this.scheduler = scheduler;
+		this.width = width;
+		this.height = height;
+		total = new Map(width, height).total;
+
+		final Thread thread = new Thread(this, "work server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+			}
+			catch (final IOException e) {
+				// failed connection attempt, keep serving others
+				System.err.println(e);
+				continue;
+			}
+			try {
+				final Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				}, "connection " + socket.getRemoteSocketAddress());
+				thread.setDaemon(true);
+				thread.start();
+			}
+			catch (final Throwable e) {
+				System.err.println(e);
+				close(socket);
+			}
+		}
+	}
+
+	private void serve(final Socket socket) {
+		long task = -1;
+		try {
+			socket.setSoTimeout(Timeout);
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			os.writeInt(width);
+			os.writeInt(height);
+			os.writeLong(scheduler.delta());
+			while (true) {
+				task = scheduler.begin();
+				os.writeLong(task);
+				os.flush();
+				if (task >= total) break;
+
+				final byte[] result = new byte[in.readInt()];
+				in.readFully(result);
+				scheduler.end(task, new String(result, UTF8));
+				task = -1;
+			}
+		}
+		catch (final Throwable e) {
+			if (task >= 0 && task < total) scheduler.abandon(task);
+			System.err.println(socket.getRemoteSocketAddress() + ": " + e);
+		}
+		finally {
+			close(socket);
+		}
+	}
+
+	private static void close(final Socket socket) {
+		try {
+			socket.close();
+		}
+		catch (final IOException e) {
+			System.err.println(e);
+		}
+	}
+
+	/** Runs workers threads in this process for server at host:port, returns when there is no more work. */
+	static void connect(final String host, final int port, final int workers) throws InterruptedException {
+		final Thread[] threads = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			threads[i] = new Thread("worker" + i) {
+				@Override
+				public void run() {
+					try {
+						work(host, port);
+					}
+					catch (final IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (final Thread t : threads)
+			t.join();
+	}
+
+	private static void work(final String host, final int port) throws IOException {
+		final Socket socket = new Socket(host, port);
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+		final int width = in.readInt(), height = in.readInt();
+		final Map map = new Map(width, height);
+		final long workUnit = in.readLong();
+		final Patterns patterns = DeadlockGenerator.patterns(width, height);
+
+		while (true) {
+			final long task = in.readLong();
+			if (task >= map.total) break;
+
+			final StringWriter result = new StringWriter();
+			DeadlockGenerator.search(map, patterns, task, workUnit, result);
+			final byte[] bytes = result.toString().getBytes(UTF8);
+			os.writeInt(bytes.length);
+			os.write(bytes);
+			os.flush();
+		}
+		socket.close();
+	}
+}
\ No newline at end of file
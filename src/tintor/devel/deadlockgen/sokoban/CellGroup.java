@@ -6,6 +6,10 @@ public final class CellGroup {
 	public final Key start;
 
 	final CellSearch cellSearch;
+	private final Cell[] cells;
+
+	// scratch box bitset for Deadlock
+	final long[] boxes;
 
 	public CellGroup(final int width, final int height, final char[] map) {
 		final Cell[] cmap = new Cell[width * height];
@@ -13,9 +17,25 @@ public final class CellGroup {
 		size = createCells(width, height, map, cmap, this);
 		zero = createHoles(width, height, cmap, this);
 		markDeadCells(cmap);
+		cellSearch = new CellSearch(this);
+
+		// holes and cells are all connected through the ring of holes
+		cells = new Cell[size];
+		cellSearch.reset(zero);
+		for (final Cell a : cellSearch) {
+			cells[a.id] = a;
+			for (Cell.Edge e = a.edges(); e != null; e = e.next)
+				cellSearch.add(e.cell);
+		}
+		for (final Cell c : cmap)
+			if (c != null) cells[c.id] = c;
 
+		boxes = new long[size + 63 >>> 6];
 		start = new Key(zero, collectBoxes(map, cmap));
-		cellSearch = new CellSearch(this);
+	}
+
+	public Cell cell(final int id) {
+		return cells[id];
 	}
 
 	private static int createCells(final int width, final int height, final char[] map, final Cell[] cmap,
@@ -1,42 +1,47 @@
 package tintor.devel.deadlockgen.sokoban;
 
+import java.util.Arrays;
 import java.util.Iterator;
 
 /** Class for visiting Cells in BFS order */
 public class CellSearch implements Iterable<Cell>, Iterator<Cell> {
 	private int head, tail;
 	private final Cell[] queue;
-	private final boolean[] reached;
+	// cell is reached if its stamp is current, so reset() doesn't clear
+	private final int[] reached;
+	private int stamp = 1;
 
 	public CellSearch(final CellGroup group) {
 		queue = new Cell[group.size];
-		reached = new boolean[group.size];
+		reached = new int[group.size];
 	}
 
 	public CellSearch(final Cell a) {
 		this(a.group);
-		reached[a.id] = true;
+		reached[a.id] = stamp;
 		queue[0] = a;
 		tail = 1;
 	}
 
 	public void reset(final Cell a) {
-		for (int i = 0; i < reached.length; i++)
-			reached[i] = false;
+		if (++stamp == 0) {
+			Arrays.fill(reached, 0);
+			stamp = 1;
+		}
 
-		reached[a.id] = true;
+		reached[a.id] = stamp;
 		queue[0] = a;
 		head = 0;
 		tail = 1;
 	}
 
 	public void reached(final Cell a) {
-		reached[a.id] = true;
+		reached[a.id] = stamp;
 	}
 
 	public final boolean add(final Cell a) {
-		if (reached[a.id]) return false;
-		reached[a.id] = true;
+		if (reached[a.id] == stamp) return false;
+		reached[a.id] = stamp;
 		queue[tail++] = a;
 		return true;
 	}
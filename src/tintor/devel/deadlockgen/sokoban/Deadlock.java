@@ -1,24 +1,32 @@
 package tintor.devel.deadlockgen.sokoban;
 
+import java.util.Arrays;
+
 // TODO test for free goals, blocked by frozen boxes on goals
+/**
+ * Tests read box bitset of key directly and use scratch words of the group, so no test allocates.
+ *
+ * partialTest() only looks around moved box, as key before push had no deadlock: moved box is deadlocked if it is
+ * frozen, and only boxes it is blocked by are followed to find that out. fullTest() removes boxes which can still be
+ * pushed from the whole level.
+ */
 public class Deadlock {
 	public final static boolean fastBlock = true;
 	public final static boolean frozenBoxes = true;
+	public final static boolean frozenBox = true;
 
-	public static boolean fullTest(@SuppressWarnings("unused") final Key key) {
-		if (frozenBoxes(key, key.boxTable(), key.boxes())) return true;
+	public static boolean fullTest(final Key key) {
+		if (frozenBoxes(key)) return true;
 		return false;
 	}
 
 	public static boolean partialTest(final Key key, final Cell movedBox) {
-		final boolean[] boxes = key.boxTable();
-
-		if (fastBlock(boxes, movedBox)) return true;
-		if (frozenBoxes(key, boxes, key.boxes())) return true;
+		if (fastBlock(key.boxes, movedBox)) return true;
+		if (frozenBox(key, movedBox)) return true;
 		return false;
 	}
 
-	private static boolean fastBlock(final boolean[] boxes, final Cell movedBox) {
+	private static boolean fastBlock(final long[] boxes, final Cell movedBox) {
 		if (!fastBlock) return false;
 
 		// east
@@ -46,31 +54,63 @@ public class Deadlock {
 	}
 
 	// if a is wall or box (not on goal)?
-	private static boolean frozen(final boolean[] boxes, final Cell a) {
+	private static boolean frozen(final long[] boxes, final Cell a) {
 		if (a == null) return true;
-		return !a.hole && boxes[a.id];
+		return !a.hole && has(boxes, a.id);
+	}
+
+	private static boolean has(final long[] boxes, final int id) {
+		return (boxes[id >>> 6] >>> id & 1) != 0;
+	}
+
+	// Moved box frozen test
+	private static boolean frozenBox(final Key key, final Cell movedBox) {
+		if (!frozenBox) return false;
+		if (movedBox.hole) return false;
+
+		// boxes being tested, taken as walls so that cycles of boxes blocking each other end
+		final long[] walls = key.agent.group.boxes;
+		Arrays.fill(walls, 0);
+		return frozen(key.boxes, walls, movedBox);
+	}
+
+	// box is frozen if it can't move along either axis
+	private static boolean frozen(final long[] boxes, final long[] walls, final Cell box) {
+		walls[box.id >>> 6] |= 1L << box.id;
+		final boolean frozen = blocked(boxes, walls, box, Dir.North) && blocked(boxes, walls, box, Dir.East);
+		walls[box.id >>> 6] &= ~(1L << box.id);
+		return frozen;
+	}
+
+	// by wall or box being tested on either side, by dead cells on both sides, or by frozen box on either side
+	private static boolean blocked(final long[] boxes, final long[] walls, final Cell box, final Dir dir) {
+		final Cell a = box.get(dir), b = box.get(dir.opposite());
+		if (a == null || b == null || has(walls, a.id) || has(walls, b.id)) return true;
+		if (a.dead() && b.dead()) return true;
+		return has(boxes, a.id) && frozen(boxes, walls, a) || has(boxes, b.id) && frozen(boxes, walls, b);
 	}
 
 	// Whole level frozen boxes test
-	private static boolean frozenBoxes(final Key key, final boolean[] boxes, final int boxCount) {
+	private static boolean frozenBoxes(final Key key) {
 		if (!frozenBoxes) return false;
 
 		// remove alive boxes
-		int boxesLeft = boxCount;
+		final long[] boxes = key.agent.group.boxes;
+		System.arraycopy(key.boxes, 0, boxes, 0, boxes.length);
+		int boxesLeft = key.boxes();
 
 		final CellSearch search = key.agent.group.cellSearch;
 		search.reset(key.agent);
 
 		for (final Cell a : search)
 			for (Cell.Edge e = a.edges(); e != null; e = e.next)
-				if (boxes[e.cell.id]) {
+				if (has(boxes, e.cell.id)) {
 					final Cell dest = e.cell.get(e.dir);
-					if (dest != null && !dest.dead() && !boxes[dest.id])
-						if (true || dest.hole || !fastBlock(boxes, dest)) {
-							boxes[e.cell.id] = false;
-							if (--boxesLeft == 0) return false;
-							search.add(e.cell);
-						}
+					if (dest != null && !dest.dead() && !has(boxes, dest.id)) {
+						boxes[e.cell.id >>> 6] &= ~(1L << e.cell.id);
+						if (--boxesLeft == 0) return false;
+						search.add(e.cell);
+					}
 				}
 				else
 					search.add(e.cell);
@@ -1,54 +1,85 @@
 package tintor.devel.deadlockgen.sokoban;
 
+import java.util.Arrays;
+
+/** Position of agent and boxes. Boxes are bitset over cell ids of group, so hashing and equality work on words. */
 public final class Key {
 	public final Cell agent;
-	private final Cell[] boxes;
+	final long[] boxes;
 
 	Key setNext;
 
 	public int boxes() {
-		return boxes.length;
+		int count = 0;
+		for (final long w : boxes)
+			count += Long.bitCount(w);
+		return count;
 	}
 
-	public Cell box(final int i) {
-		return boxes[i];
+	/** Box with i-th smallest cell id. */
+	public Cell box(int i) {
+		for (int w = 0; w < boxes.length; w++) {
+			long word = boxes[w];
+			final int count = Long.bitCount(word);
+			if (i >= count) {
+				i -= count;
+				continue;
+			}
+			for (; i > 0; i--)
+				word &= word - 1;
+			return agent.group.cell(w << 6 | Long.numberOfTrailingZeros(word));
+		}
+		throw new IndexOutOfBoundsException();
+	}
+
+	/** Smallest id >= id of cell with box, or -1. */
+	public int nextBox(final int id) {
+		int w = id >>> 6;
+		if (w >= boxes.length) return -1;
+		long word = boxes[w] & -1L << id;
+		while (word == 0) {
+			if (++w == boxes.length) return -1;
+			word = boxes[w];
+		}
+		return w << 6 | Long.numberOfTrailingZeros(word);
 	}
 
 	public Key(final Cell agent, final Cell[] boxes) {
+		this.agent = agent;
+		this.boxes = new long[agent.group.size + 63 >>> 6];
+		for (final Cell b : boxes)
+			this.boxes[b.id >>> 6] |= 1L << b.id;
+	}
+
+	private Key(final Cell agent, final long[] boxes) {
 		this.agent = agent;
 		this.boxes = boxes;
 	}
 
 	public Key removeBox(final Cell box) {
-		final Cell[] nboxes = new Cell[boxes.length - 1];
-		for (int i = 0; i < boxes.length; i++)
-			if (boxes[i] == box) {
-				System.arraycopy(boxes, 0, nboxes, 0, i);
-				System.arraycopy(boxes, i + 1, nboxes, i, nboxes.length - i);
-				return new Key(agent, nboxes);
-			}
-		throw new RuntimeException();
+		if (!hasBox(box)) throw new RuntimeException();
+		final long[] nboxes = boxes.clone();
+		nboxes[box.id >>> 6] &= ~(1L << box.id);
+		return new Key(agent, nboxes);
 	}
 
 	public Key pushBox(final Cell box, final Cell dest) {
-		final Cell[] nboxes = new Cell[boxes.length];
-		System.arraycopy(boxes, 0, nboxes, 0, boxes.length);
-		for (int i = 0; i < boxes.length; i++)
-			if (boxes[i] == box) {
-				nboxes[i] = dest;
-				return new Key(normalizeAgent(box, nboxes), nboxes);
-			}
-		throw new RuntimeException();
+		if (!hasBox(box)) throw new RuntimeException();
+		final long[] nboxes = boxes.clone();
+		nboxes[box.id >>> 6] &= ~(1L << box.id);
+		nboxes[dest.id >>> 6] |= 1L << dest.id;
+		return new Key(normalizeAgent(box, nboxes), nboxes);
 	}
 
-	private static Cell normalizeAgent(final Cell agent, final Cell[] boxes) {
+	private static Cell normalizeAgent(final Cell agent, final long[] boxes) {
 		if (agent.outer) return agent.group.zero;
 
 		final CellSearch search = agent.group.cellSearch;
 		search.reset(agent);
 
-		for (final Cell b : boxes)
-			search.reached(b);
+		for (int w = 0; w < boxes.length; w++)
+			for (long word = boxes[w]; word != 0; word &= word - 1)
+				search.reached(agent.group.cell(w << 6 | Long.numberOfTrailingZeros(word)));
 
 		Cell result = agent;
 		for (final Cell a : search) {
@@ -60,31 +91,25 @@ public final class Key {
 	}
 
 	public boolean hasBox(final Cell a) {
-		for (final Cell box : boxes)
-			if (box == a) return true;
-		return false;
+		return (boxes[a.id >>> 6] >>> a.id & 1) != 0;
 	}
 
 	public boolean[] boxTable() {
 		final boolean[] table = new boolean[agent.group.size];
-		for (final Cell box : boxes)
-			table[box.id] = true;
+		for (int id = nextBox(0); id >= 0; id = nextBox(id + 1))
+			table[id] = true;
 		return table;
 	}
 
 	public boolean equals(final Key key) {
-		if (agent != key.agent || boxes.length != key.boxes.length) return false;
-		for (int i = 0; i < boxes.length; i++)
-			if (boxes[i] != key.boxes[i]) return false;
-		return true;
+		return agent == key.agent && Arrays.equals(boxes, key.boxes);
 	}
 
 	@Override
 	public int hashCode() {
-		int h = agent.id;
-		for (final Cell box : boxes)
-			h = h * 953 + box.id;
-		h ^= h >>> 20 ^ h >>> 12;
-		return h ^ h >>> 7 ^ h >>> 4;
+		long h = agent.id;
+		for (final long w : boxes)
+			h = (h ^ w) * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ h >>> 32);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+package tintor.devel.deadlockgen.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Read-only set of pattern codes below universe, stored in a file and mapped into memory.
+ * Probes only read the mapped buffer, so they don't allocate and can be done from many threads.
+ *
+ * Dense sets are stored as bitmap (universe bits). Sparse sets are stored as Elias-Fano sequence: low L bits of
+ * every code packed in array, high bits as unary gaps in upper bit vector, and position of every 256th zero of
+ * upper vector sampled, so that the bucket of a code is found with a short scan. Builder picks the smaller one.
+ */
+public abstract class PatternIndex {
+	private static final long Bitmap = 1, EliasFano = 2;
+	private static final int SampleBits = 8;
+
+	public abstract boolean contains(int code);
+
+	public abstract long size();
+
+	/** Writes index of sorted distinct codes to file. */
+	public static void build(final int[] codes, final long universe, final File file) throws IOException {
+		final int n = codes.length;
+		final int low = Math.max(0, 63 - Long.numberOfLeadingZeros(universe / Math.max(n, 1)));
+		final long upperBits = n + (universe >>> low) + 1;
+		final long efBits = (long) n * low + upperBits + (upperBits >>> SampleBits) * 64;
+
+		final FileOutputStream stream = new FileOutputStream(file);
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		if (universe <= efBits) {
+			final long[] words = new long[(int) ((universe + 63) >>> 6)];
+			for (final int c : codes)
+				words[c >>> 6] |= 1L << c;
+			out.writeLong(Bitmap);
+			out.writeLong(n);
+			out.writeLong(universe);
+			write(out, words);
+		}
+		else {
+			final long[] lower = new long[(int) (((long) n * low + 63) >>> 6)];
+			final long[] upper = new long[(int) ((upperBits + 63) >>> 6)];
+			for (int i = 0; i < n; i++) {
+				final long bit = (long) i * low;
+				final long value = codes[i] & (1L << low) - 1;
+				if (low > 0) {
+					lower[(int) (bit >>> 6)] |= value << bit;
+					if ((bit & 63) + low > 64) lower[(int) (bit >>> 6) + 1] |= value >>> 64 - (bit & 63);
+				}
+				final long u = ((long) codes[i] >>> low) + i;
+				upper[(int) (u >>> 6)] |= 1L << u;
+			}
+
+			// samples[j] is position of zero number j << SampleBits in upper
+			final long[] samples = new long[(int) ((universe >>> low) + 1 >>> SampleBits) + 1];
+			long zeros = 0;
+			for (long p = 0; p < upperBits; p++)
+				if ((upper[(int) (p >>> 6)] >>> p & 1) == 0) {
+					if ((zeros & (1 << SampleBits) - 1) == 0) samples[(int) (zeros >>> SampleBits)] = p;
+					zeros += 1;
+				}
+
+			out.writeLong(EliasFano);
+			out.writeLong(n);
+			out.writeLong(universe);
+			out.writeLong(low);
+			out.writeLong(lower.length);
+			out.writeLong(upper.length);
+			out.writeLong(samples.length);
+			write(out, lower);
+			write(out, upper);
+			write(out, samples);
+		}
+		out.flush();
+		stream.getFD().sync();
+		out.close();
+	}
+
+	private static void write(final DataOutputStream out, final long[] words) throws IOException {
+		for (final long w : words)
+			out.writeLong(w);
+	}
+
+	/** Maps index written by build(). */
+	public static PatternIndex map(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final LongBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+					.asLongBuffer();
+			final long type = buffer.get(0);
+			if (type == Bitmap) return new BitmapIndex(buffer);
+			if (type == EliasFano) return new EliasFanoIndex(buffer);
+			throw new IOException("bad pattern index " + file);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Builds index file from WxH.bin style file of codes (if it is missing or older) and maps it.
+	 * Index is written to a temp file and renamed, so other processes never map a partly written one.
+	 */
+	public static PatternIndex load(final File codes, final long universe, final File index) throws IOException {
+		if (!index.exists() || index.lastModified() < codes.lastModified()) {
+			final RandomAccessFile raf = new RandomAccessFile(codes, "r");
+			final int[] a;
+			try {
+				if (raf.length() / 4 > Integer.MAX_VALUE) throw new IOException("too many patterns in " + codes);
+				a = new int[(int) (raf.length() / 4)];
+				final IntBuffer in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, a.length * 4L)
+						.asIntBuffer();
+				in.get(a);
+			}
+			finally {
+				raf.close();
+			}
+			Arrays.sort(a);
+			int n = 0;
+			for (int i = 0; i < a.length; i++) {
+				if (a[i] < 0 || a[i] >= universe)
+					throw new IOException("pattern " + a[i] + " out of range in " + codes);
+				if (n == 0 || a[i] != a[n - 1]) a[n++] = a[i];
+			}
+			final File temp = File.createTempFile(index.getName(), ".tmp", index.getAbsoluteFile().getParentFile());
+			try {
+				build(Arrays.copyOf(a, n), universe, temp);
+				Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+			finally {
+				temp.delete();
+			}
+		}
+		return map(index);
+	}
+
+	private static final class BitmapIndex extends PatternIndex {
+		private final LongBuffer words;
+		private final long size, universe;
+
+		BitmapIndex(final LongBuffer buffer) {
+			size = buffer.get(1);
+			universe = buffer.get(2);
+			buffer.position(3);
+			words = buffer.slice();
+		}
+
+		@Override
+		public boolean contains(final int code) {
+			if (code < 0 || code >= universe) return false;
+			return (words.get(code >>> 6) >>> code & 1) != 0;
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+	}
+
+	private static final class EliasFanoIndex extends PatternIndex {
+		private final LongBuffer lower, upper, samples;
+		private final long size, universe;
+		private final int low;
+
+		EliasFanoIndex(final LongBuffer buffer) {
+			size = buffer.get(1);
+			universe = buffer.get(2);
+			low = (int) buffer.get(3);
+			final int lowerWords = (int) buffer.get(4), upperWords = (int) buffer.get(5);
+			final int sampleWords = (int) buffer.get(6);
+
+			lower = slice(buffer, 7, lowerWords);
+			upper = slice(buffer, 7 + lowerWords, upperWords);
+			samples = slice(buffer, 7 + lowerWords + upperWords, sampleWords);
+		}
+
+		private static LongBuffer slice(final LongBuffer buffer, final int position, final int length) {
+			final LongBuffer b = buffer.duplicate();
+			b.position(position);
+			b.limit(position + length);
+			return b.slice();
+		}
+
+		@Override
+		public boolean contains(final int code) {
+			if (code < 0 || code >= universe) return false;
+			final long high = (long) code >>> low;
+			final long value = code & (1L << low) - 1;
+
+			// bucket of high starts after zero number high - 1
+			long p = high == 0 ? 0 : select0(high - 1) + 1;
+			long i = p - high;
+			while (true) {
+				if ((upper.get((int) (p >>> 6)) >>> p & 1) == 0) return false;
+				final long v = lowBits(i);
+				if (v == value) return true;
+				if (v > value) return false;
+				p += 1;
+				i += 1;
+			}
+		}
+
+		// position of zero number k in upper
+		private long select0(long k) {
+			long p = samples.get((int) (k >>> SampleBits));
+			k &= (1 << SampleBits) - 1;
+
+			int w = (int) (p >>> 6);
+			long word = ~upper.get(w) & -1L << p;
+			while (true) {
+				final int c = Long.bitCount(word);
+				if (k < c) break;
+				k -= c;
+				word = ~upper.get(++w);
+			}
+			for (; k > 0; k--)
+				word &= word - 1;
+			return (long) w << 6 | Long.numberOfTrailingZeros(word);
+		}
+
+		private long lowBits(final long i) {
+			if (low == 0) return 0;
+			final long bit = i * low;
+			final int w = (int) (bit >>> 6), s = (int) (bit & 63);
+			long v = lower.get(w) >>> s;
+			if (s + low > 64) v |= lower.get(w + 1) << 64 - s;
+			return v & (1L << low) - 1;
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+	}
+}
\ No newline at end of file
@@ -3,6 +3,9 @@ package tintor.devel.heap;
 import java.util.AbstractQueue;
 import java.util.Iterator;
 
+/**
+ * Pairing heap of elements wrapped in nodes. offerX() returns node which is handle for decreaseKey() and remove().
+ */
 public class AuxTwoPassPairingHeap<T extends Comparable<T>> extends AbstractQueue<T> {
 	@Override public Iterator<T> iterator() {
 		throw new UnsupportedOperationException();
@@ -34,54 +37,49 @@ public class AuxTwoPassPairingHeap<T extends Comparable<T>> extends AbstractQueu
 	@Override public T poll() {
 		if (size == 0) return null;
 
-		final T m = min.element;
+		final Node<T> m = min;
 		size--;
 		compressAux();
 		min = root = twopass(root.child);
-		return m;
+		m.child = null;
+		return m.element;
 	}
 
-	public void delete(final Node<T> a) {
+	/** Removes a, which must be in this heap. */
+	public void remove(final Node<T> a) {
 		if (min == a) {
 			poll();
 			return;
 		}
 
+		// a in aux list
+		if (a.prev == null && a != root) compressAux();
 		if (root == a)
 			root = twopass(root.child);
 		else {
-			if (a.prev.child == a)
-				a.prev.child = a.next;
-			else
-				a.prev.next = a.next;
-			if (a.next != null) {
-				a.next.prev = a.prev;
-				a.next = null;
-			}
+			cut(a);
 			root = link(root, twopass(a.child));
-			a.prev = a.child = null;
 		}
+		a.child = null;
 		size--;
 	}
 
-	public void decrease(final Node<T> a) {
-		if (min == a || root == a) return;
+	/** Replaces element of a (which is in this heap) with one that is not greater. */
+	public void decreaseKey(final Node<T> a, final T e) {
+		if (e.compareTo(a.element) > 0) throw new IllegalArgumentException();
+		a.element = e;
 
-		if (a.prev.child == a)
-			a.prev.child = a.next;
-		else
-			a.prev.next = a.next;
-		if (a.next != null) {
-			a.next.prev = a.prev;
-			a.next = null;
+		// root and aux nodes have no parent to be out of order with
+		if (a.prev != null) {
+			cut(a);
+			aux = cons(a, aux);
 		}
-		a.prev = null;
-
-		aux = cons(a, aux);
-		if (min == null || a.element.compareTo(min.element) < 0) min = a;
+		if (e.compareTo(min.element) < 0) min = a;
 	}
 
-	public void merge(final AuxTwoPassPairingHeap<T> heap) {
+	/** Moves all elements of heap to this one. */
+	public void meld(final AuxTwoPassPairingHeap<T> heap) {
+		if (heap == this) return;
 		heap.compressAux();
 		if (heap.root == null) return;
 
@@ -94,14 +92,20 @@ public class AuxTwoPassPairingHeap<T extends Comparable<T>> extends AbstractQueu
 		heap.min = null;
 	}
 
+	/** Handle of element in heap. */
 	public static class Node<T> {
-		public final T element;
+		T element;
 		Node<T> child, prev, next; // prev can point to parent
 
 		Node(final T element) {
 			this.element = element;
 		}
+
+		public T element() {
+			return element;
+		}
 	}
+
 	private int size;
 	private Node<T> min;
 	private Node<T> root;
@@ -120,6 +124,7 @@ public class AuxTwoPassPairingHeap<T extends Comparable<T>> extends AbstractQueu
 		if (a.element.compareTo(b.element) < 0) {
 			a.prev = a.next = null;
 			b.next = a.child;
+			if (a.child != null) a.child.prev = b;
 			b.prev = a;
 			a.child = b;
 			return a;
@@ -127,11 +132,22 @@ public class AuxTwoPassPairingHeap<T extends Comparable<T>> extends AbstractQueu
 
 		b.prev = b.next = null;
 		a.next = b.child;
+		if (b.child != null) b.child.prev = a;
 		a.prev = b;
 		b.child = a;
 		return b;
 	}
 
+	// detaches a (with its subtree) from its parent
+	private static <T> void cut(final Node<T> a) {
+		if (a.prev.child == a)
+			a.prev.child = a.next;
+		else
+			a.prev.next = a.next;
+		if (a.next != null) a.next.prev = a.prev;
+		a.prev = a.next = null;
+	}
+
 	private static <T> Node<T> cons(final Node<T> a, final Node<T> tail) {
 		a.next = tail;
 		return a;
@@ -154,7 +170,10 @@ public class AuxTwoPassPairingHeap<T extends Comparable<T>> extends AbstractQueu
 			listA = b.next;
 			listB = cons(link(a, b), listB);
 		}
-		if (listA != null) listB = cons(listA, listB);
+		if (listA != null) {
+			listA.prev = null;
+			listB = cons(listA, listB);
+		}
 
 		// right to left
 		while (listB.next != null) {
@@ -0,0 +1,134 @@
+package tintor.devel.heap;
+
+import java.util.Arrays;
+
+import tintor.Timer;
+
+/**
+ * Priority queue for small non-negative int priorities, like f-cost in A*: one bucket per priority, and within it one
+ * stack per tie-break value (h), lower first. Elements with equal priority and tie-break come out newest first.
+ *
+ * offer() is O(1). poll() is O(1) amortized when priorities come out in non-decreasing order, as with consistent
+ * heuristic: cursors only move forward, and move back only when smaller priority is offered. Memory is proportional to
+ * largest priority and tie-break seen, plus peak number of elements in any one stack.
+ *
+ * Timer is only kept (two System.nanoTime calls per operation) if queue is constructed with timed = true.
+ */
+public final class BucketQueue<E> {
+	private Level[] _levels = new Level[64];
+	private int _minPriority = Integer.MAX_VALUE;
+	private int _size, _capacity;
+
+	public final Timer timer;
+
+	// elements of one priority, by tie-break
+	private static final class Level {
+		Object[][] stacks = new Object[16][];
+		int[] sizes = new int[16];
+		int minTie = Integer.MAX_VALUE;
+		int size;
+	}
+
+	public BucketQueue() {
+		this(false);
+	}
+
+	public BucketQueue(final boolean timed) {
+		timer = timed ? new Timer() : null;
+	}
+
+	public void offer(final E e, final int priority, final int tie) {
+		if (e == null) throw new NullPointerException();
+		if (priority < 0 || tie < 0) throw new IllegalArgumentException();
+		if (timer != null) timer.restart();
+
+		if (priority >= _levels.length) _levels = Arrays.copyOf(_levels, Math.max(priority + 1, _levels.length * 2));
+		Level level = _levels[priority];
+		if (level == null) level = _levels[priority] = new Level();
+
+		if (tie >= level.stacks.length) {
+			final int length = Math.max(tie + 1, level.stacks.length * 2);
+			level.stacks = Arrays.copyOf(level.stacks, length);
+			level.sizes = Arrays.copyOf(level.sizes, length);
+		}
+		Object[] stack = level.stacks[tie];
+		final int n = level.sizes[tie];
+		if (stack == null || n == stack.length) {
+			final int length = stack == null ? 16 : stack.length * 2;
+			_capacity += stack == null ? length : length - stack.length;
+			stack = level.stacks[tie] = stack == null ? new Object[length] : Arrays.copyOf(stack, length);
+		}
+		stack[n] = e;
+		level.sizes[tie] = n + 1;
+
+		if (tie < level.minTie) level.minTie = tie;
+		if (priority < _minPriority) _minPriority = priority;
+		level.size++;
+		_size++;
+		if (timer != null) timer.stop();
+	}
+
+	@SuppressWarnings("unchecked") public E peek() {
+		if (_size == 0) return null;
+		final Level level = first();
+		return (E) level.stacks[level.minTie][level.sizes[level.minTie] - 1];
+	}
+
+	@SuppressWarnings("unchecked") public E poll() {
+		if (_size == 0) return null;
+		if (timer != null) timer.restart();
+
+		final Level level = first();
+		final int tie = level.minTie, n = level.sizes[tie] - 1;
+		final Object[] stack = level.stacks[tie];
+		final E e = (E) stack[n];
+		stack[n] = null;
+		level.sizes[tie] = n;
+
+		if (--level.size == 0) level.minTie = Integer.MAX_VALUE;
+		if (--_size == 0) _minPriority = Integer.MAX_VALUE;
+		if (timer != null) timer.stop();
+		return e;
+	}
+
+	/** Priority of element that poll() would return, or Integer.MAX_VALUE if empty. */
+	public int minPriority() {
+		if (_size == 0) return Integer.MAX_VALUE;
+		first();
+		return _minPriority;
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	/** Number of allocated element slots. */
+	public int capacity() {
+		return _capacity;
+	}
+
+	public void clear() {
+		for (final Level level : _levels)
+			if (level != null && level.size > 0) {
+				for (int t = level.minTie; t < level.stacks.length; t++)
+					if (level.sizes[t] > 0) {
+						Arrays.fill(level.stacks[t], 0, level.sizes[t], null);
+						level.sizes[t] = 0;
+					}
+				level.size = 0;
+				level.minTie = Integer.MAX_VALUE;
+			}
+		_size = 0;
+		_minPriority = Integer.MAX_VALUE;
+	}
+
+	// advances cursors to first non empty stack, queue must not be empty
+	private Level first() {
+		Level level = _levels[_minPriority];
+		while (level == null || level.size == 0)
+			level = _levels[++_minPriority];
+		while (level.sizes[level.minTie] == 0)
+			level.minTie++;
+		return level;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,50 @@
+package tintor.devel.heap;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BucketQueueTest {
+	@Test public void order() {
+		final BucketQueue<String> queue = new BucketQueue<String>();
+		Assert.assertNull(queue.poll());
+		queue.offer("c", 5, 1);
+		queue.offer("a", 3, 2);
+		queue.offer("b", 3, 7);
+		queue.offer("d", 5, 1);
+		queue.offer("z", 100, 100);
+		Assert.assertEquals(3, queue.minPriority());
+		Assert.assertEquals("a", queue.poll());
+		Assert.assertEquals("b", queue.poll());
+		// equal priority and tie, newest first
+		Assert.assertEquals("d", queue.poll());
+		queue.offer("e", 4, 0);
+		Assert.assertEquals("e", queue.poll());
+		Assert.assertEquals("c", queue.poll());
+		Assert.assertEquals("z", queue.peek());
+		Assert.assertEquals(1, queue.size());
+		queue.clear();
+		Assert.assertEquals(0, queue.size());
+		Assert.assertNull(queue.poll());
+	}
+
+	// same (priority, tie) sequence as PriorityQueue under random mix of offers and polls
+	@Test public void random() {
+		final Random rand = new Random(1);
+		final BucketQueue<long[]> queue = new BucketQueue<long[]>(true);
+		final PriorityQueue<Long> expected = new PriorityQueue<Long>();
+		for (int i = 0; i < 1000000; i++)
+			if (rand.nextInt(3) > 0 || expected.isEmpty()) {
+				final int priority = rand.nextInt(300), tie = rand.nextInt(40);
+				queue.offer(new long[] { priority, tie }, priority, tie);
+				expected.add((long) priority << 32 | tie);
+			} else {
+				final long[] a = queue.poll();
+				Assert.assertEquals(expected.poll().longValue(), a[0] << 32 | a[1]);
+			}
+		Assert.assertEquals(expected.size(), queue.size());
+		Assert.assertTrue(queue.timer.time > 0);
+	}
+}
\ No newline at end of file
@@ -4,6 +4,11 @@ import java.util.AbstractQueue;
 import java.util.Iterator;
 import java.util.Queue;
 
+/**
+ * Intrusive pairing heap with auxiliary list: offer() and decreaseKey() only add to aux list, which is multipass
+ * linked into the tree on next poll(). decreaseKey(), remove() and meld() take O(log n) amortized, so a search can
+ * update priority of a queued state in place instead of queuing it again.
+ */
 public final class PairingHeap<T extends PairingHeap.Node<T>> extends AbstractQueue<T> {
 	public static void main(final String[] args) {
 		final Queue<Adapter<Integer>> heap = new PairingHeap<Adapter<Integer>>();
@@ -23,17 +28,46 @@ public final class PairingHeap<T extends PairingHeap.Node<T>> extends AbstractQu
 	}
 
 	@Override public T poll() {
-		if (aux != null)
-			root = root == null ? auxMultipass() : link(auxMultipass(), root);
-		else if (root == null) return null;
+		compressAux();
+		if (root == null) return null;
 		final T m = root;
 		root = twopass(root.child);
-		m.next = m.child = null;
+		m.child = null;
 		return m;
 	}
 
+	/** Restores heap order after key of a (which is in this heap) was decreased. */
+	public void decreaseKey(final T a) {
+		// root and aux nodes have no parent to be out of order with
+		if (a.prev == null) return;
+		cut(a);
+		aux = cons(a, aux);
+	}
+
+	/** Removes a, which must be in this heap. */
+	public void remove(final T a) {
+		if (a.prev == null && a != root) compressAux();
+		if (a == root)
+			root = twopass(a.child);
+		else {
+			cut(a);
+			final T b = twopass(a.child);
+			if (b != null) root = link(root, b);
+		}
+		a.child = null;
+	}
+
+	/** Moves all elements of heap to this one. */
+	public void meld(final PairingHeap<T> heap) {
+		if (heap == this) return;
+		heap.compressAux();
+		if (heap.root == null) return;
+		aux = cons(heap.root, aux);
+		heap.root = null;
+	}
+
 	public static abstract class Node<T> implements Comparable<T> {
-		T child, next;
+		T child, next, prev; // prev is parent for leftmost child
 	}
 
 	public static class Adapter<T extends Comparable<T>> extends Node<Adapter<T>> {
@@ -50,20 +84,38 @@ public final class PairingHeap<T extends PairingHeap.Node<T>> extends AbstractQu
 
 	private T root, aux;
 
+	private void compressAux() {
+		if (aux != null) root = root == null ? auxMultipass() : link(auxMultipass(), root);
+	}
+
 	private static <T extends Node<T>> T link(final T a, final T b) {
 		if (a.compareTo(b) < 0) {
-			a.next = null;
+			a.next = a.prev = null;
 			b.next = a.child;
+			if (a.child != null) a.child.prev = b;
+			b.prev = a;
 			a.child = b;
 			return a;
 		}
 
-		b.next = null;
+		b.next = b.prev = null;
 		a.next = b.child;
+		if (b.child != null) b.child.prev = a;
+		a.prev = b;
 		b.child = a;
 		return b;
 	}
 
+	// detaches a (with its subtree) from its parent
+	private static <T extends Node<T>> void cut(final T a) {
+		if (a.prev.child == a)
+			a.prev.child = a.next;
+		else
+			a.prev.next = a.next;
+		if (a.next != null) a.next.prev = a.prev;
+		a.prev = a.next = null;
+	}
+
 	private static <T extends Node<T>> T cons(final T a, final T tail) {
 		a.next = tail;
 		return a;
@@ -71,6 +123,7 @@ public final class PairingHeap<T extends PairingHeap.Node<T>> extends AbstractQu
 
 	@SuppressWarnings("null") private static <T extends Node<T>> T twopass(T listA) {
 		if (listA == null) return null;
+		listA.prev = null;
 		T listB = null;
 
 		// left to right
@@ -79,7 +132,10 @@ public final class PairingHeap<T extends PairingHeap.Node<T>> extends AbstractQu
 			listA = b.next;
 			listB = cons(link(a, b), listB);
 		}
-		if (listA != null) listB = cons(listA, listB);
+		if (listA != null) {
+			listA.prev = null;
+			listB = cons(listA, listB);
+		}
 
 		// right to left
 		while (listB.next != null) {
@@ -0,0 +1,325 @@
+package tintor.devel.heap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Random offer / poll / decreaseKey / remove / meld on each pairing heap, checked against a plain list. */
+public class PairingHeapTest {
+	interface Ops<N> {
+		N offer(int key);
+
+		N poll();
+
+		int key(N n);
+
+		void decreaseKey(N n, int key);
+
+		void remove(N n);
+
+		// moves nodes of a new heap with given keys into this one
+		List<N> meld(int[] keys);
+	}
+
+	static <N> void check(final Ops<N> heap) {
+		final Random rand = new Random(1);
+		final List<N> nodes = new ArrayList<N>();
+		final List<Integer> keys = new ArrayList<Integer>();
+
+		for (int step = 0; step < 200000; step++) {
+			final int op = rand.nextInt(10);
+			if (op < 4 || nodes.isEmpty()) {
+				final int key = rand.nextInt(1000000);
+				nodes.add(heap.offer(key));
+				keys.add(key);
+			} else if (op < 6) {
+				int min = Integer.MAX_VALUE;
+				for (final int k : keys)
+					min = Math.min(min, k);
+				final N n = heap.poll();
+				Assert.assertEquals(min, heap.key(n));
+				final int i = nodes.indexOf(n);
+				nodes.remove(i);
+				keys.remove(i);
+			} else if (op < 8) {
+				final int i = rand.nextInt(nodes.size());
+				final int key = keys.get(i) - rand.nextInt(1000);
+				heap.decreaseKey(nodes.get(i), key);
+				keys.set(i, key);
+			} else if (op < 9) {
+				final int i = rand.nextInt(nodes.size());
+				heap.remove(nodes.remove(i));
+				keys.remove(i);
+			} else {
+				final int[] k = new int[rand.nextInt(20)];
+				for (int i = 0; i < k.length; i++) {
+					k[i] = rand.nextInt(1000000);
+					keys.add(k[i]);
+				}
+				nodes.addAll(heap.meld(k));
+			}
+		}
+	}
+
+	static class P extends PairingHeap.Node<P> {
+		int key;
+
+		@Override public int compareTo(final P a) {
+			return key < a.key ? -1 : key > a.key ? 1 : 0;
+		}
+	}
+
+	@Test public void pairingHeap() {
+		final PairingHeap<P> heap = new PairingHeap<P>();
+		check(new Ops<P>() {
+			public P offer(final int key) {
+				final P a = new P();
+				a.key = key;
+				heap.offer(a);
+				return a;
+			}
+
+			public P poll() {
+				return heap.poll();
+			}
+
+			public int key(final P n) {
+				return n.key;
+			}
+
+			public void decreaseKey(final P n, final int key) {
+				n.key = key;
+				heap.decreaseKey(n);
+			}
+
+			public void remove(final P n) {
+				heap.remove(n);
+			}
+
+			public List<P> meld(final int[] keys) {
+				final PairingHeap<P> h = new PairingHeap<P>();
+				final List<P> list = new ArrayList<P>();
+				for (final int k : keys) {
+					final P a = new P();
+					a.key = k;
+					h.offer(a);
+					list.add(a);
+				}
+				heap.meld(h);
+				return list;
+			}
+		});
+	}
+
+	static class L extends XLitePairingHeap.Node<L> {
+		int key;
+
+		@Override public int compareTo(final L a) {
+			return key < a.key ? -1 : key > a.key ? 1 : 0;
+		}
+	}
+
+	@Test public void xLitePairingHeap() {
+		for (final XLitePairingHeap.Pass pass : XLitePairingHeap.Pass.values()) {
+			final XLitePairingHeap<L> heap = new XLitePairingHeap<L>(pass);
+			check(new Ops<L>() {
+				public L offer(final int key) {
+					final L a = new L();
+					a.key = key;
+					heap.offer(a);
+					return a;
+				}
+
+				public L poll() {
+					return heap.poll();
+				}
+
+				public int key(final L n) {
+					return n.key;
+				}
+
+				public void decreaseKey(final L n, final int key) {
+					n.key = key;
+					heap.decreaseKey(n);
+				}
+
+				public void remove(final L n) {
+					heap.remove(n);
+				}
+
+				public List<L> meld(final int[] keys) {
+					final XLitePairingHeap<L> h = new XLitePairingHeap<L>(pass);
+					final List<L> list = new ArrayList<L>();
+					for (final int k : keys) {
+						final L a = new L();
+						a.key = k;
+						h.offer(a);
+						list.add(a);
+					}
+					heap.meld(h);
+					return list;
+				}
+			});
+		}
+	}
+
+	static class X extends XAuxTwoPassPairingHeap.Node<X> {
+		int key;
+
+		@Override public int compareTo(final X a) {
+			return key < a.key ? -1 : key > a.key ? 1 : 0;
+		}
+	}
+
+	@Test public void xAuxTwoPassPairingHeap() {
+		final XAuxTwoPassPairingHeap<X> heap = new XAuxTwoPassPairingHeap<X>();
+		check(new Ops<X>() {
+			public X offer(final int key) {
+				final X a = new X();
+				a.key = key;
+				heap.offer(a);
+				return a;
+			}
+
+			public X poll() {
+				final int size = heap.size();
+				final X a = heap.poll();
+				Assert.assertEquals(size - 1, heap.size());
+				return a;
+			}
+
+			public int key(final X n) {
+				return n.key;
+			}
+
+			public void decreaseKey(final X n, final int key) {
+				n.key = key;
+				heap.decreaseKey(n);
+			}
+
+			public void remove(final X n) {
+				heap.remove(n);
+			}
+
+			public List<X> meld(final int[] keys) {
+				final XAuxTwoPassPairingHeap<X> h = new XAuxTwoPassPairingHeap<X>();
+				final List<X> list = new ArrayList<X>();
+				for (final int k : keys) {
+					final X a = new X();
+					a.key = k;
+					h.offer(a);
+					list.add(a);
+				}
+				heap.meld(h);
+				Assert.assertTrue(h.isEmpty());
+				return list;
+			}
+		});
+	}
+
+	static class XL extends XLiteAuxTwoPassPairingHeap.Node<XL> {
+		int key;
+
+		@Override public int compareTo(final XL a) {
+			return key < a.key ? -1 : key > a.key ? 1 : 0;
+		}
+	}
+
+	@Test public void xLiteAuxTwoPassPairingHeap() {
+		final XLiteAuxTwoPassPairingHeap<XL> heap = new XLiteAuxTwoPassPairingHeap<XL>();
+		check(new Ops<XL>() {
+			public XL offer(final int key) {
+				final XL a = new XL();
+				a.key = key;
+				heap.offer(a);
+				return a;
+			}
+
+			public XL poll() {
+				return heap.poll();
+			}
+
+			public int key(final XL n) {
+				return n.key;
+			}
+
+			public void decreaseKey(final XL n, final int key) {
+				n.key = key;
+				heap.decreaseKey(n);
+			}
+
+			public void remove(final XL n) {
+				heap.remove(n);
+			}
+
+			public List<XL> meld(final int[] keys) {
+				final XLiteAuxTwoPassPairingHeap<XL> h = new XLiteAuxTwoPassPairingHeap<XL>();
+				final List<XL> list = new ArrayList<XL>();
+				for (final int k : keys) {
+					final XL a = new XL();
+					a.key = k;
+					h.offer(a);
+					list.add(a);
+				}
+				heap.meld(h);
+				return list;
+			}
+		});
+	}
+
+	// distinct elements with equal keys, so that test knows which node came out
+	static class E implements Comparable<E> {
+		final int key;
+		AuxTwoPassPairingHeap.Node<E> node;
+
+		E(final int key) {
+			this.key = key;
+		}
+
+		@Override public int compareTo(final E a) {
+			return key < a.key ? -1 : key > a.key ? 1 : 0;
+		}
+	}
+
+	@Test public void auxTwoPassPairingHeap() {
+		final AuxTwoPassPairingHeap<E> heap = new AuxTwoPassPairingHeap<E>();
+		check(new Ops<AuxTwoPassPairingHeap.Node<E>>() {
+			public AuxTwoPassPairingHeap.Node<E> offer(final int key) {
+				final E e = new E(key);
+				return e.node = heap.offerX(e);
+			}
+
+			public AuxTwoPassPairingHeap.Node<E> poll() {
+				return heap.poll().node;
+			}
+
+			public int key(final AuxTwoPassPairingHeap.Node<E> n) {
+				return n.element().key;
+			}
+
+			public void decreaseKey(final AuxTwoPassPairingHeap.Node<E> n, final int key) {
+				final E e = new E(key);
+				e.node = n;
+				heap.decreaseKey(n, e);
+			}
+
+			public void remove(final AuxTwoPassPairingHeap.Node<E> n) {
+				heap.remove(n);
+			}
+
+			public List<AuxTwoPassPairingHeap.Node<E>> meld(final int[] keys) {
+				final AuxTwoPassPairingHeap<E> h = new AuxTwoPassPairingHeap<E>();
+				final List<AuxTwoPassPairingHeap.Node<E>> list = new ArrayList<AuxTwoPassPairingHeap.Node<E>>();
+				for (final int k : keys) {
+					final E e = new E(k);
+					list.add(e.node = h.offerX(e));
+				}
+				heap.meld(h);
+				return list;
+			}
+		});
+	}
+}
\ No newline at end of file
@@ -30,12 +30,14 @@ public class XAuxTwoPassPairingHeap<T extends XAuxTwoPassPairingHeap.Node<T>> ex
 
 		final T m = min;
 		size--;
-		if (aux != null) root = link(auxMultipass(), root);
+		compressAux();
 		min = root = twopass(root.child);
+		m.child = null;
 		return m;
 	}
 
-	public void delete(final T a) {
+	/** Removes a, which must be in this heap. */
+	public void remove(final T a) {
 		if (a == null) throw new IllegalArgumentException();
 
 		if (min == a) {
@@ -43,43 +45,32 @@ public class XAuxTwoPassPairingHeap<T extends XAuxTwoPassPairingHeap.Node<T>> ex
 			return;
 		}
 
+		// a in aux list
+		if (a.prev == null && a != root) compressAux();
 		if (root == a)
 			root = twopass(root.child);
 		else {
-			if (a.prev.child == a)
-				a.prev.child = a.next;
-			else
-				a.prev.next = a.next;
-			if (a.next != null) {
-				a.next.prev = a.prev;
-				a.next = null;
-			}
+			cut(a);
 			root = link(root, twopass(a.child));
-			a.prev = a.child = null;
 		}
+		a.child = null;
 		size--;
 	}
 
-	public void decrease(final T a) {
-		if (min == a || root == a) return;
-
-		if (a.prev.child == a)
-			a.prev.child = a.next;
-		else
-			a.prev.next = a.next;
-		if (a.next != null) {
-			a.next.prev = a.prev;
-			a.next = null;
+	/** Restores heap order after key of a (which is in this heap) was decreased. */
+	public void decreaseKey(final T a) {
+		// root and aux nodes have no parent to be out of order with
+		if (a.prev != null) {
+			cut(a);
+			aux = cons(a, aux);
 		}
-		a.prev = null;
-
-		aux = cons(a, aux);
-		if (min == null || a.compareTo(min) < 0) min = a;
+		if (a.compareTo(min) < 0) min = a;
 	}
 
-	public void merge(final XAuxTwoPassPairingHeap<T> heap) {
-		if (heap.aux != null) heap.root = link(heap.auxMultipass(), heap.root);
-
+	/** Moves all elements of heap to this one. */
+	public void meld(final XAuxTwoPassPairingHeap<T> heap) {
+		if (heap == this) return;
+		heap.compressAux();
 		if (heap.root == null) return;
 
 		aux = cons(heap.root, aux);
@@ -111,6 +102,7 @@ public class XAuxTwoPassPairingHeap<T extends XAuxTwoPassPairingHeap.Node<T>> ex
 		if (a.compareTo(b) < 0) {
 			a.prev = a.next = null;
 			b.next = a.child;
+			if (a.child != null) a.child.prev = b;
 			b.prev = a;
 			a.child = b;
 			return a;
@@ -118,11 +110,26 @@ public class XAuxTwoPassPairingHeap<T extends XAuxTwoPassPairingHeap.Node<T>> ex
 
 		b.prev = b.next = null;
 		a.next = b.child;
+		if (b.child != null) b.child.prev = a;
 		a.prev = b;
 		b.child = a;
 		return b;
 	}
 
+	// detaches a (with its subtree) from its parent
+	private static <T extends Node<T>> void cut(final T a) {
+		if (a.prev.child == a)
+			a.prev.child = a.next;
+		else
+			a.prev.next = a.next;
+		if (a.next != null) a.next.prev = a.prev;
+		a.prev = a.next = null;
+	}
+
+	private void compressAux() {
+		if (aux != null) root = link(auxMultipass(), root);
+	}
+
 	private static <T extends Node<T>> T cons(final T a, final T tail) {
 		a.next = tail;
 		return a;
@@ -139,7 +146,10 @@ public class XAuxTwoPassPairingHeap<T extends XAuxTwoPassPairingHeap.Node<T>> ex
 			listA = b.next;
 			listB = cons(link(a, b), listB);
 		}
-		if (listA != null) listB = cons(listA, listB);
+		if (listA != null) {
+			listA.prev = null;
+			listB = cons(listA, listB);
+		}
 
 		// right to left
 		while (listB.next != null) {
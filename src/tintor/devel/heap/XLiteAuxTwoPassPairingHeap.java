@@ -17,7 +17,7 @@ public final class XLiteAuxTwoPassPairingHeap<T extends XLiteAuxTwoPassPairingHe
 	}
 
 	@Override public boolean offer(final T a) {
-		assert a != null && a.next == null && a.child == null;
+		assert a != null && a.next == null && a.child == null && a.prev == null;
 		aux = cons(a, aux);
 		if (min == null || a.compareTo(min) < 0) min = a;
 		return true;
@@ -33,10 +33,42 @@ public final class XLiteAuxTwoPassPairingHeap<T extends XLiteAuxTwoPassPairingHe
 		final T m = min;
 		compressAux();
 		min = root = twopass(root.child);
+		m.child = null;
 		return m;
 	}
 
-	public void merge(final XLiteAuxTwoPassPairingHeap<T> heap) {
+	/** Removes a, which must be in this heap. */
+	public void remove(final T a) {
+		if (min == a) {
+			poll();
+			return;
+		}
+
+		// a in aux list
+		if (a.prev == null && a != root) compressAux();
+		if (root == a)
+			root = twopass(root.child);
+		else {
+			cut(a);
+			final T b = twopass(a.child);
+			if (b != null) root = link(root, b);
+		}
+		a.child = null;
+	}
+
+	/** Restores heap order after key of a (which is in this heap) was decreased. */
+	public void decreaseKey(final T a) {
+		// root and aux nodes have no parent to be out of order with
+		if (a.prev != null) {
+			cut(a);
+			aux = cons(a, aux);
+		}
+		if (a.compareTo(min) < 0) min = a;
+	}
+
+	/** Moves all elements of heap to this one. */
+	public void meld(final XLiteAuxTwoPassPairingHeap<T> heap) {
+		if (heap == this) return;
 		heap.compressAux();
 		if (heap.root == null) return;
 
@@ -48,7 +80,7 @@ public final class XLiteAuxTwoPassPairingHeap<T extends XLiteAuxTwoPassPairingHe
 	}
 
 	public static abstract class Node<T> implements Comparable<T> {
-		T child, next;
+		T child, next, prev; // prev is parent for leftmost child
 	}
 
 	private T min, root, aux;
@@ -59,18 +91,32 @@ public final class XLiteAuxTwoPassPairingHeap<T extends XLiteAuxTwoPassPairingHe
 
 	private static <T extends Node<T>> T link(final T a, final T b) {
 		if (a.compareTo(b) < 0) {
-			a.next = null;
+			a.next = a.prev = null;
 			b.next = a.child;
+			if (a.child != null) a.child.prev = b;
+			b.prev = a;
 			a.child = b;
 			return a;
 		}
 
-		b.next = null;
+		b.next = b.prev = null;
 		a.next = b.child;
+		if (b.child != null) b.child.prev = a;
+		a.prev = b;
 		b.child = a;
 		return b;
 	}
 
+	// detaches a (with its subtree) from its parent
+	private static <T extends Node<T>> void cut(final T a) {
+		if (a.prev.child == a)
+			a.prev.child = a.next;
+		else
+			a.prev.next = a.next;
+		if (a.next != null) a.next.prev = a.prev;
+		a.prev = a.next = null;
+	}
+
 	private static <T extends Node<T>> T cons(final T a, final T tail) {
 		a.next = tail;
 		return a;
@@ -78,6 +124,7 @@ public final class XLiteAuxTwoPassPairingHeap<T extends XLiteAuxTwoPassPairingHe
 
 	@SuppressWarnings("null") private static <T extends Node<T>> T twopass(T listA) {
 		if (listA == null) return null;
+		listA.prev = null;
 		T listB = null;
 
 		// left to right
@@ -86,7 +133,10 @@ public final class XLiteAuxTwoPassPairingHeap<T extends XLiteAuxTwoPassPairingHe
 			listA = b.next;
 			listB = cons(link(a, b), listB);
 		}
-		if (listA != null) listB = cons(listA, listB);
+		if (listA != null) {
+			listA.prev = null;
+			listB = cons(listA, listB);
+		}
 
 		// right to left
 		while (listB.next != null) {
@@ -84,17 +84,38 @@ public class XLitePairingHeap<T extends XLitePairingHeap.Node<T>> extends Abstra
 		if (root == null) return null;
 		final T m = root;
 		root = pass.run(root.child);
+		m.child = null;
 		return m;
 	}
 
-	public void merge(final XLitePairingHeap<T> heap) {
-		if (heap.root == null) return;
+	/** Restores heap order after key of a (which is in this heap) was decreased. */
+	public void decreaseKey(final T a) {
+		if (a == root) return;
+		cut(a);
+		root = link(a, root);
+	}
+
+	/** Removes a, which must be in this heap. */
+	public void remove(final T a) {
+		if (a == root) {
+			poll();
+			return;
+		}
+		cut(a);
+		final T b = pass.run(a.child);
+		if (b != null) root = link(root, b);
+		a.child = null;
+	}
+
+	/** Moves all elements of heap to this one. */
+	public void meld(final XLitePairingHeap<T> heap) {
+		if (heap == this || heap.root == null) return;
 		root = root == null ? heap.root : link(heap.root, root);
 		heap.root = null;
 	}
 
 	public static abstract class Node<T> implements Comparable<T> {
-		T child, next;
+		T child, next, prev; // prev is parent for leftmost child
 	}
 
 	private T root;
@@ -106,18 +127,32 @@ public class XLitePairingHeap<T extends XLitePairingHeap.Node<T>> extends Abstra
 
 	static <T extends Node<T>> T link(final T a, final T b) {
 		if (a.compareTo(b) < 0) {
-			a.next = null;
+			a.next = a.prev = null;
 			b.next = a.child;
+			if (a.child != null) a.child.prev = b;
+			b.prev = a;
 			a.child = b;
 			return a;
 		}
 
-		b.next = null;
+		b.next = b.prev = null;
 		a.next = b.child;
+		if (b.child != null) b.child.prev = a;
+		a.prev = b;
 		b.child = a;
 		return b;
 	}
 
+	// detaches a (with its subtree) from its parent
+	static <T extends Node<T>> void cut(final T a) {
+		if (a.prev.child == a)
+			a.prev.child = a.next;
+		else
+			a.prev.next = a.next;
+		if (a.next != null) a.next.prev = a.prev;
+		a.prev = a.next = null;
+	}
+
 	static <T extends Node<T>> T cons(final T a, final T tail) {
 		a.next = tail;
 		return a;
@@ -127,6 +162,7 @@ public class XLitePairingHeap<T extends XLitePairingHeap.Node<T>> extends Abstra
 		Twopass {
 			@Override @SuppressWarnings("null") public <T extends Node<T>> T run(T listA) {
 				if (listA == null) return null;
+				listA.prev = null;
 				T listB = null;
 
 				while (listA != null && listA.next != null) {
@@ -134,7 +170,10 @@ public class XLitePairingHeap<T extends XLitePairingHeap.Node<T>> extends Abstra
 					listA = b.next;
 					listB = cons(link(a, b), listB);
 				}
-				if (listA != null) listB = cons(listA, listB);
+				if (listA != null) {
+					listA.prev = null;
+					listB = cons(listA, listB);
+				}
 
 				while (listB.next != null) {
 					final T a = listB, b = a.next;
@@ -148,6 +187,7 @@ public class XLitePairingHeap<T extends XLitePairingHeap.Node<T>> extends Abstra
 		Multipass {
 			@Override public <T extends Node<T>> T run(T list) {
 				if (list == null) return null;
+				list.prev = null;
 				if (list.next == null) return list;
 
 				T last = list;
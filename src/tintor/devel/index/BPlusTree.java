@@ -7,6 +7,12 @@ public interface BPlusTree {
 
 	BPlusTreeIterator get(final int key);
 
+	/** Iterator over entries with lo <= key <= hi, in key order. */
+	BPlusTreeIterator range(final int lo, final int hi);
+
+	/** Sets out[i] = get(keys[i], def). Keys are probed in sorted order, in one pass down the tree. */
+	void getAll(final int[] keys, final int[] out, final int def);
+
 	BPlusTreeIterator iterator();
 
 	void close();
@@ -20,4 +26,43 @@ interface BPlusTreeIterator {
 	int key();
 
 	int value();
+}
+
+/** Iterator over parallel arrays of sorted keys and values, usable as bulk load input. */
+final class BPlusTreeArrayIterator implements BPlusTreeIterator {
+	private final int[] _keys, _values;
+	private final int _end;
+	private int _index;
+
+	BPlusTreeArrayIterator(final int[] keys, final int[] values) {
+		this(keys, values, 0, keys.length);
+	}
+
+	BPlusTreeArrayIterator(final int[] keys, final int[] values, final int begin, final int end) {
+		if (keys.length != values.length || begin < 0 || end > keys.length) throw new IllegalArgumentException();
+		_keys = keys;
+		_values = values;
+		_index = begin;
+		_end = end;
+	}
+
+	@Override
+	public boolean valid() {
+		return _index < _end;
+	}
+
+	@Override
+	public void next() {
+		_index += 1;
+	}
+
+	@Override
+	public int key() {
+		return _keys[_index];
+	}
+
+	@Override
+	public int value() {
+		return _values[_index];
+	}
 }
\ No newline at end of file
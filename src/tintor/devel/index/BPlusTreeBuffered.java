@@ -2,6 +2,7 @@ package tintor.devel.index;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public final class BPlusTreeBuffered implements BPlusTree {
 	private static class Node {
@@ -11,11 +12,18 @@ public final class BPlusTreeBuffered implements BPlusTree {
 		int keyCount;
 		int[] keys, branches;
 
-		Node(final Node n, final int order) {
-			assert order >= 3;
+		Node(final Node n, final int capacity) {
+			assert capacity >= 2;
 			next = n;
-			keys = new int[order - 1];
-			branches = new int[order];
+			keys = new int[capacity];
+			branches = new int[capacity + 1];
+		}
+
+		// grows arrays of node which is about to read a packed leaf
+		void reserve(final int capacity) {
+			if (keys.length >= capacity) return;
+			keys = new int[capacity];
+			branches = new int[capacity + 1];
 		}
 
 		void write(final ByteBuffer bb) {
@@ -34,10 +42,101 @@ public final class BPlusTreeBuffered implements BPlusTree {
 				branches[i] = bb.getInt();
 		}
 
+		// Packed leaf: count, next, first key, varint gaps between keys,
+		// and values as offsets from min value, packed in bits each.
+		void writePacked(final ByteBuffer bb) {
+			bb.putShort((short) keyCount);
+			bb.putInt(branches[0]);
+			if (keyCount == 0) return;
+
+			bb.putInt(keys[0]);
+			for (int i = 1; i < keyCount; i++) {
+				int gap = keys[i] - keys[i - 1] - 1;
+				while ((gap & ~0x7F) != 0) {
+					bb.put((byte) (gap | 0x80));
+					gap >>>= 7;
+				}
+				bb.put((byte) gap);
+			}
+
+			final int min = minValue();
+			final int bits = valueBits(min);
+			bb.putInt(min);
+			bb.put((byte) bits);
+			long acc = 0;
+			int n = 0;
+			for (int i = 1; i <= keyCount; i++) {
+				acc |= ((long) branches[i] - min) << n;
+				for (n += bits; n >= 8; n -= 8) {
+					bb.put((byte) acc);
+					acc >>>= 8;
+				}
+			}
+			if (n > 0) bb.put((byte) acc);
+		}
+
+		void readPacked(final ByteBuffer bb) {
+			keyCount = bb.getShort();
+			branches[0] = bb.getInt();
+			if (keyCount == 0) return;
+
+			keys[0] = bb.getInt();
+			for (int i = 1; i < keyCount; i++) {
+				int gap = 0;
+				for (int shift = 0;; shift += 7) {
+					final byte b = bb.get();
+					gap |= (b & 0x7F) << shift;
+					if (b >= 0) break;
+				}
+				keys[i] = keys[i - 1] + gap + 1;
+			}
+
+			final long min = bb.getInt();
+			final int bits = bb.get();
+			final long mask = (1L << bits) - 1;
+			long acc = 0;
+			int n = 0;
+			for (int i = 1; i <= keyCount; i++) {
+				for (; n < bits; n += 8)
+					acc |= (bb.get() & 0xFFL) << n;
+				branches[i] = (int) (min + (acc & mask));
+				acc >>>= bits;
+				n -= bits;
+			}
+		}
+
+		int packedSize() {
+			if (keyCount == 0) return 6;
+			int size = 15;
+			for (int i = 1; i < keyCount; i++)
+				size += varintSize(keys[i] - keys[i - 1] - 1);
+			return size + (keyCount * valueBits(minValue()) + 7) / 8;
+		}
+
+		private int minValue() {
+			int min = branches[1];
+			for (int i = 2; i <= keyCount; i++)
+				min = Math.min(min, branches[i]);
+			return min;
+		}
+
+		private int valueBits(final int min) {
+			long max = 0;
+			for (int i = 1; i <= keyCount; i++)
+				max = Math.max(max, (long) branches[i] - min);
+			return 64 - Long.numberOfLeadingZeros(max);
+		}
+
 		int find(final int key) {
-			for (int i = 0; i < keyCount; i++)
-				if (key < keys[i]) return i;
-			return keyCount;
+			int l = 0, r = keyCount;
+			while (l < r) {
+				final int i = (l + r) >>> 1;
+				if (key < keys[i])
+					r = i;
+				else
+					l = i + 1;
+			}
+			return l;
 		}
 
 		void set(final int b, final int key, final int branch) {
@@ -46,20 +145,57 @@ public final class BPlusTreeBuffered implements BPlusTree {
 		}
 	}
 
-	private static final int None = -1, HeaderSize = 16;
+	static int varintSize(final int a) {
+		return (38 - Integer.numberOfLeadingZeros(a | 1)) / 7;
+	}
+
+	private static final int None = -1, HeaderSize = 16, MinLoggedPool = 16, Compressed = 1 << 30;
 
 	private final Storage _storage;
 	private int _alloc, _height;
 	int _order, _blockSize;
+	// packed leaves hold up to _capacity keys, as many as fit in a block, inner nodes hold up to _order - 1
+	private boolean _compressed;
+	private int _capacity;
+	// entries which didn't fit in packed leaves after split, inserted again by put
+	private int[] _pending = new int[16];
+	private int _pendingCount;
 	private int _insertKey, _insertBranch;
 	private Node _root;
+	private BufferPool _pool;
+	private WriteAheadLog _log;
+	private long _checkpointBytes = 64 << 20;
 
 	private BPlusTreeBuffered(final File file) {
 		_storage = new Storage(file, "rw");
 	}
 
 	public static BPlusTreeBuffered create(final File file, final int order) {
+		return create(file, order, 0);
+	}
+
+	/** Creates tree with nodes cached in a buffer pool of poolPages pages (0 for no pool). */
+	public static BPlusTreeBuffered create(final File file, final int order, final int poolPages) {
+		return create(file, order, poolPages, null, false);
+	}
+
+	/**
+	 * Creates tree whose puts are logged to logFile. Tree file is written only by checkpoints,
+	 * so pool must be large enough to hold all nodes dirtied between two checkpoints of a single put.
+	 */
+	public static BPlusTreeBuffered create(final File file, final int order, final int poolPages, final File logFile) {
+		return create(file, order, poolPages, logFile, false);
+	}
+
+	/**
+	 * Creates tree with optional log (null for none) and optionally compressed leaves.
+	 * Compressed leaves store keys as varint gaps and values as frame-of-reference packed bits, so a block of
+	 * dense keys holds many more than order - 1 entries.
+	 */
+	public static BPlusTreeBuffered create(final File file, final int order, final int poolPages, final File logFile,
+			final boolean compressedLeaves) {
 		if (order < 3) throw new IllegalArgumentException("order");
+		if (logFile != null && poolPages < MinLoggedPool) throw new IllegalArgumentException("poolPages");
 
 		final BPlusTreeBuffered tree = new BPlusTreeBuffered(file);
 		tree._storage.truncate(0);
@@ -68,18 +204,36 @@ public final class BPlusTreeBuffered implements BPlusTree {
 		tree._alloc = 1;
 		tree._order = order;
 		tree._blockSize = tree._order * 8;
+		tree.compressed(compressedLeaves);
 		tree._storage.allocBuffer(tree._blockSize);
+		if (poolPages > 0) tree._pool = new BufferPool(tree._storage, HeaderSize, tree._blockSize, poolPages);
 
-		tree._root = new Node(null, tree._order);
+		tree._root = tree.node(null, true);
 		tree._root.id = 0;
 		tree._root.branches[0] = None;
-		tree.write(tree._root);
+		tree.write(tree._root, true);
 
 		tree.writeHeader();
+		if (logFile != null) {
+			tree._log = new WriteAheadLog(logFile);
+			tree._log.truncate();
+			tree._pool.steal(false);
+			tree.checkpoint();
+		}
 		return tree;
 	}
 
+	private void compressed(final boolean compressed) {
+		_compressed = compressed;
+		_capacity = compressed ? Math.min(Math.max(_order - 1, _blockSize), Short.MAX_VALUE) : _order - 1;
+	}
+
 	public static BPlusTreeBuffered open(final File file) {
+		return open(file, 0);
+	}
+
+	/** Opens tree with nodes cached in a buffer pool of poolPages pages (0 for no pool). */
+	public static BPlusTreeBuffered open(final File file, final int poolPages) {
 		final BPlusTreeBuffered tree = new BPlusTreeBuffered(file);
 
 		tree._storage.allocBuffer(HeaderSize);
@@ -87,44 +241,296 @@ public final class BPlusTreeBuffered implements BPlusTree {
 		final int root = tree._storage.buffer.getInt();
 		tree._height = tree._storage.buffer.getInt();
 		tree._alloc = tree._storage.buffer.getInt();
-		tree._order = tree._storage.buffer.getInt();
+		final int order = tree._storage.buffer.getInt();
+		tree._order = order & ~Compressed;
 		if (tree._order < 3) throw new IllegalArgumentException("order");
 		tree._blockSize = tree._order * 8;
+		tree.compressed((order & Compressed) != 0);
 		tree._storage.allocBuffer(tree._blockSize);
+		if (poolPages > 0) tree._pool = new BufferPool(tree._storage, HeaderSize, tree._blockSize, poolPages);
 
-		tree._root = new Node(null, tree._order);
-		tree.read(tree._root, root);
+		tree._root = tree.node(null, tree._height == 1);
+		tree.read(tree._root, root, tree._height == 1);
 		return tree;
 	}
 
+	/**
+	 * Opens logged tree and recovers it: repairs pages from interrupted checkpoint, or replays puts committed since
+	 * last checkpoint.
+	 */
+	public static BPlusTreeBuffered open(final File file, final int poolPages, final File logFile) {
+		if (poolPages < MinLoggedPool) throw new IllegalArgumentException("poolPages");
+
+		final WriteAheadLog log = new WriteAheadLog(logFile);
+		final Storage storage = new Storage(file, "rw");
+		final int[][] puts = { new int[64] };
+		final int[] putCount = { 0 };
+		try {
+			final boolean checkpoint = log.replay(new WriteAheadLog.Replay() {
+				@Override
+				public void put(final int key, final int value) {
+					if (putCount[0] + 2 > puts[0].length) puts[0] = Arrays.copyOf(puts[0], puts[0].length * 2);
+					puts[0][putCount[0]++] = key;
+					puts[0][putCount[0]++] = value;
+				}
+
+				@Override
+				public void page(final long position, final ByteBuffer page) {
+					storage.write(page, position);
+				}
+			});
+			if (checkpoint) {
+				storage.sync();
+				log.truncate();
+			}
+		}
+		finally {
+			storage.close();
+		}
+
+		final BPlusTreeBuffered tree = open(file, poolPages);
+		tree._log = log;
+		tree._pool.steal(false);
+		for (int i = 0; i < putCount[0]; i += 2)
+			tree.put(puts[0][i], puts[0][i + 1]);
+		if (putCount[0] > 0) tree.checkpoint();
+		return tree;
+	}
+
+	/**
+	 * Builds new tree bottom-up from strictly increasing keys in one sequential pass.
+	 * Nodes are filled to fill * (order - 1) keys.
+	 */
+	public static BPlusTreeBuffered load(final File file, final int order, final BPlusTreeIterator sorted,
+			final double fill) {
+		return load(file, order, sorted, fill, false);
+	}
+
+	/** Bulk load into tree with compressed leaves, which are filled to fill * block size bytes. */
+	public static BPlusTreeBuffered load(final File file, final int order, final BPlusTreeIterator sorted,
+			final double fill, final boolean compressedLeaves) {
+		if (!(fill > 0 && fill <= 1)) throw new IllegalArgumentException("fill");
+
+		final BPlusTreeBuffered tree = create(file, order, 0, null, compressedLeaves);
+		if (sorted.valid()) {
+			final BulkLoader loader = tree.new BulkLoader(Math.max(1, (int) (fill * (order - 1))),
+					(int) (fill * tree._blockSize));
+			int last = sorted.key();
+			loader.add(0, last, sorted.value());
+			for (sorted.next(); sorted.valid(); sorted.next()) {
+				final int key = sorted.key();
+				if (key <= last) throw new IllegalArgumentException("unsorted key " + key);
+				loader.add(0, key, sorted.value());
+				last = key;
+			}
+			loader.finish();
+		}
+		return tree;
+	}
+
+	private class BulkLoader {
+		private final int _nodeKeys, _leafBytes;
+		private Node[] _open = new Node[4];
+		private int[] _count = new int[4];
+		private int _levels;
+		// size of open packed leaf without values, and range of its values
+		private int _gapBytes;
+		private long _min, _max;
+
+		BulkLoader(final int nodeKeys, final int leafBytes) {
+			_nodeKeys = nodeKeys;
+			_leafBytes = leafBytes;
+			_alloc = 0;
+		}
+
+		private boolean fits(final Node node, final int key, final int branch) {
+			if (node.keyCount == _capacity) return false;
+			final int gapBytes = _gapBytes + varintSize(key - node.keys[node.keyCount - 1] - 1);
+			final long min = Math.min(_min, branch), max = Math.max(_max, branch);
+			final int bits = 64 - Long.numberOfLeadingZeros(max - min);
+			if (gapBytes + ((node.keyCount + 1) * bits + 7) / 8 > _leafBytes) return false;
+			_gapBytes = gapBytes;
+			_min = min;
+			_max = max;
+			return true;
+		}
+
+		// appends key/branch to the last node of level (0 is leaf level)
+		void add(final int level, final int key, final int branch) {
+			if (level == _levels) {
+				if (_levels == _open.length) {
+					_open = Arrays.copyOf(_open, _levels * 2);
+					_count = Arrays.copyOf(_count, _levels * 2);
+				}
+				_open[level] = node(null, level == 0);
+				_levels += 1;
+				start(level, key, branch, _alloc++);
+				return;
+			}
+
+			final Node node = _open[level];
+			if (level == 0 && _compressed ? fits(node, key, branch) : node.keyCount < _nodeKeys) {
+				node.set(node.keyCount++, key, branch);
+				return;
+			}
+
+			// node is full
+			final int id = _alloc++;
+			if (level == 0) node.branches[0] = id;
+			write(node, level == 0);
+			if (_count[level] == 1) add(level + 1, key, node.id);
+			add(level + 1, key, id);
+			start(level, key, branch, id);
+		}
+
+		private void start(final int level, final int key, final int branch, final int id) {
+			final Node node = _open[level];
+			node.id = id;
+			_count[level] += 1;
+			if (level == 0) {
+				node.branches[0] = None;
+				node.set(0, key, branch);
+				node.keyCount = 1;
+				_gapBytes = 15;
+				_min = _max = branch;
+			}
+			else {
+				node.branches[0] = branch;
+				node.keyCount = 0;
+			}
+		}
+
+		void finish() {
+			for (int level = 0; level < _levels; level++)
+				write(_open[level], level == 0);
+			_root = _open[_levels - 1];
+			_height = _levels;
+			writeHeader();
+		}
+	}
+
+	// logged tree writes header only in checkpoint
 	private void writeHeader() {
+		if (_log != null) return;
+		fillHeader();
+		_storage.write(0);
+	}
+
+	private void fillHeader() {
 		_storage.buffer.clear();
 		_storage.buffer.putInt(_root.id);
 		_storage.buffer.putInt(_height);
 		_storage.buffer.putInt(_alloc);
-		_storage.buffer.putInt(_order);
-		_storage.write(0);
+		_storage.buffer.putInt(_compressed ? _order | Compressed : _order);
 	}
 
 	@Override
 	public void close() {
+		flush();
+		if (_log != null) _log.close();
 		_storage.close();
 	}
 
-	private void read(final Node node, final int id) {
+	/** Writes dirty cached nodes to file (by checkpoint if tree is logged). */
+	public void flush() {
+		if (_log != null)
+			checkpoint();
+		else if (_pool != null) _pool.flush();
+	}
+
+	/** Makes all puts so far durable with one log fsync. Does nothing if tree is not logged. */
+	public void commit() {
+		if (_log != null) _log.commit();
+	}
+
+	/**
+	 * Writes images of dirty nodes and header to log, commits it, writes them in place, syncs tree file and
+	 * truncates log. Tree file is never torn: crash before commit leaves previous checkpoint, crash after it is
+	 * repaired from page images.
+	 */
+	public void checkpoint() {
+		if (_log == null) {
+			flush();
+			_storage.sync();
+			return;
+		}
+
+		_pool.log(_log);
+		fillHeader();
+		final ByteBuffer header = _storage.buffer.duplicate();
+		header.flip();
+		_log.page(0, header);
+		_log.checkpoint();
+		_log.commit();
+
+		_pool.flush();
+		_storage.write(0);
+		_storage.sync();
+		_log.truncate();
+
+		// pending entries may come from committed puts, but are no longer in tree file
+		if (_pendingCount > 0) {
+			for (int i = 0; i < _pendingCount; i += 2)
+				_log.put(_pending[i], _pending[i + 1]);
+			_log.commit();
+		}
+	}
+
+	/** Logged tree checkpoints before log grows beyond bytes. */
+	public void checkpointBytes(final long bytes) {
+		_checkpointBytes = bytes;
+	}
+
+	/** Log statistics, or null if tree is not logged. */
+	public WriteAheadLog log() {
+		return _log;
+	}
+
+	/** Buffer pool statistics, or null if tree has no pool. */
+	public BufferPool pool() {
+		return _pool;
+	}
+
+	// inner nodes are sized by order, only leaves of compressed tree need room for packed keys
+	private Node node(final Node next, final boolean leaf) {
+		return new Node(next, leaf ? _capacity : _order - 1);
+	}
+
+	// inner nodes are pinned in buffer pool, node read along a path grows when it reaches a packed leaf
+	private void read(final Node node, final int id, final boolean leaf) {
 		node.id = id;
-		_storage.read(HeaderSize + node.id * _blockSize, _blockSize);
-		node.read(_storage.buffer);
+		if (leaf) node.reserve(_capacity);
+		final ByteBuffer bb;
+		if (_pool != null)
+			bb = _pool.read(id, !leaf);
+		else {
+			_storage.read(HeaderSize + (long) node.id * _blockSize, _blockSize);
+			bb = _storage.buffer;
+		}
+		if (leaf && _compressed)
+			node.readPacked(bb);
+		else
+			node.read(bb);
 	}
 
-	private void write(final Node node) {
-		_storage.buffer.clear();
-		node.write(_storage.buffer);
-		_storage.write(HeaderSize + node.id * _blockSize);
+	private void write(final Node node, final boolean leaf) {
+		final ByteBuffer bb;
+		if (_pool != null)
+			bb = _pool.write(node.id, !leaf);
+		else {
+			bb = _storage.buffer;
+			bb.clear();
+		}
+		if (leaf && _compressed)
+			node.writePacked(bb);
+		else
+			node.write(bb);
+		if (_pool == null) _storage.write(HeaderSize + (long) node.id * _blockSize);
 	}
 
+	// splits inner node, or leaf of uncompressed tree, which both hold up to order - 1 keys
 	private Node split(final Node nodeA, final int b) {
-		final Node nodeB = new Node(null, _order);
+		final Node nodeB = node(null, false);
 		nodeB.id = _alloc++;
 		writeHeader();
 
@@ -151,20 +557,63 @@ public final class BPlusTreeBuffered implements BPlusTree {
 		return nodeB;
 	}
 
+	// splits packed leaf which already contains inserted key
+	private Node splitPacked(final Node nodeA) {
+		final Node nodeB = node(null, true);
+		nodeB.id = _alloc++;
+		writeHeader();
+
+		final int sizeB = nodeA.keyCount / 2;
+		final int sizeA = nodeA.keyCount - sizeB;
+		for (int i = 0; i < sizeB; i++)
+			nodeB.set(i, nodeA.keys[sizeA + i], nodeA.branches[sizeA + i + 1]);
+		nodeA.keyCount = sizeA;
+		nodeB.keyCount = sizeB;
+
+		// halves can still overflow if a new value widened frame of reference
+		trim(nodeA);
+		trim(nodeB);
+		return nodeB;
+	}
+
+	// moves last entries of packed leaf to pending until it fits in block
+	private void trim(final Node leaf) {
+		while (leaf.packedSize() > _blockSize) {
+			leaf.keyCount -= 1;
+			if (_pendingCount == _pending.length) _pending = Arrays.copyOf(_pending, _pendingCount * 2);
+			_pending[_pendingCount++] = leaf.keys[leaf.keyCount];
+			_pending[_pendingCount++] = leaf.branches[leaf.keyCount + 1];
+		}
+	}
+
 	private boolean nodeInsert(final Node node, final int b, final boolean leaf) {
-		// if (no overflow) do (insert key/branch)
-		if (node.keyCount < node.keys.length) {
+		final Node nodeB;
+		if (leaf && _compressed) {
 			for (int i = node.keyCount - 1; i >= b; i--)
 				node.set(i + 1, node.keys[i], node.branches[i + 1]);
 			node.set(b, _insertKey, _insertBranch);
 			node.keyCount += 1;
-			write(node);
-			return false;
+			if (node.keyCount < _capacity && node.packedSize() <= _blockSize) {
+				write(node, leaf);
+				return false;
+			}
+			nodeB = splitPacked(node);
 		}
-		// else (overflow) do (split internal node)
+		else {
+			// if (no overflow) do (insert key/branch)
+			if (node.keyCount < _order - 1) {
+				for (int i = node.keyCount - 1; i >= b; i--)
+					node.set(i + 1, node.keys[i], node.branches[i + 1]);
+				node.set(b, _insertKey, _insertBranch);
+				node.keyCount += 1;
+				write(node, leaf);
+				return false;
+			}
+			// else (overflow) do (split internal node)
 
-		// add and split node
-		final Node nodeB = split(node, b);
+			// add and split node
+			nodeB = split(node, b);
+		}
 
 		if (leaf) { // insert new leaf node in linked list
 			nodeB.branches[0] = node.branches[0];
@@ -176,8 +625,8 @@ public final class BPlusTreeBuffered implements BPlusTree {
 		}
 
 		// save nodes
-		write(node);
-		write(nodeB);
+		write(node, leaf);
+		write(nodeB, leaf);
 
 		// return split info
 		_insertKey = leaf ? nodeB.keys[0] : node.keys[node.keyCount];
@@ -188,6 +637,25 @@ public final class BPlusTreeBuffered implements BPlusTree {
 	@Override
 	public void put(final int key, final int value) {
 		// System.out.println("put " + key);
+		if (_log != null) {
+			reserve();
+			_log.put(key, value);
+		}
+		insert(key, value);
+
+		while (_pendingCount > 0) {
+			if (_log != null) reserve();
+			_pendingCount -= 2;
+			insert(_pending[_pendingCount], _pending[_pendingCount + 1]);
+		}
+	}
+
+	// insert dirties at most 2 * height + 1 nodes, and dirty nodes can't be evicted before checkpoint
+	private void reserve() {
+		if (_pool.unavailable() + 2 * _height + 3 > _pool.capacity() || _log.size() > _checkpointBytes) checkpoint();
+	}
+
+	private void insert(final int key, final int value) {
 		_insertKey = key;
 		_insertBranch = value;
 
@@ -198,20 +666,21 @@ public final class BPlusTreeBuffered implements BPlusTree {
 			int next_id = _root.branches[_root.find(_insertKey)];
 
 			for (int height = 2; height < _height; height++) {
-				node = new Node(node, _order);
-				read(node, next_id);
+				node = node(node, false);
+				read(node, next_id, false);
 				next_id = node.branches[node.find(_insertKey)];
 			}
 
 			// PROCESS LEAF
-			node = new Node(node, _order);
-			read(node, next_id);
+			node = node(node, true);
+			read(node, next_id, true);
 		}
 		final int b = node.find(_insertKey);
 		if (b > 0 && _insertKey == node.keys[b - 1]) {
 			// if (leaf node with key) do (update value)
 			node.branches[b] = _insertBranch;
-			write(node);
+			if (_compressed) trim(node);
+			write(node, true);
 			return;
 		}
 		// else (leaf node with no key)
@@ -222,13 +691,13 @@ public final class BPlusTreeBuffered implements BPlusTree {
 			if (!nodeInsert(node, node.find(_insertKey), false)) return;
 
 		// SPLIT ROOT
-		node = new Node(null, _order);
+		node = node(null, false);
 		node.id = _alloc++;
 		node.keyCount = 1;
 		node.branches[0] = _root.id;
 		node.keys[0] = _insertKey;
 		node.branches[1] = _insertBranch;
-		write(node);
+		write(node, false);
 
 		_root = node;
 		_height += 1;
@@ -241,9 +710,9 @@ public final class BPlusTreeBuffered implements BPlusTree {
 		int id = _root.branches[b];
 		if (_height == 1) return b == 0 || key != _root.keys[b - 1] ? def : id;
 
-		final Node node = new Node(null, _order);
+		final Node node = node(null, false);
 		for (int h = 2; h <= _height; h++) {
-			read(node, id);
+			read(node, id, h == _height);
 			b = node.find(key);
 			id = node.branches[b];
 		}
@@ -253,28 +722,37 @@ public final class BPlusTreeBuffered implements BPlusTree {
 	private class Iterator implements BPlusTreeIterator {
 		private Node _node;
 		private int _index;
+		private final int _hi;
 
 		Iterator(final Node node, final int index) {
+			this(node, index, Integer.MAX_VALUE);
+		}
+
+		Iterator(final Node node, final int index, final int hi) {
 			_node = node;
 			_index = index;
+			_hi = hi;
+			if (_index == _node.keyCount) nextLeaf();
 		}
 
 		@Override
 		public boolean valid() {
-			return _index < _node.keyCount;
+			return _index < _node.keyCount && _node.keys[_index] <= _hi;
 		}
 
 		@Override
 		public void next() {
 			_index += 1;
-			if (_index == _node.keyCount) {
-				final int next = _node.branches[0];
-				if (next == None) return;
+			if (_index == _node.keyCount) nextLeaf();
+		}
 
-				_node = new Node(null, _order);
-				read(_node, next);
-				_index = 0;
-			}
+		private void nextLeaf() {
+			final int next = _node.branches[0];
+			if (next == None) return;
+
+			_node = node(null, true);
+			read(_node, next, true);
+			_index = 0;
 		}
 
 		@Override
@@ -294,23 +772,74 @@ public final class BPlusTreeBuffered implements BPlusTree {
 		int id = _root.branches[b];
 		if (_height == 1) return b == 0 || key != _root.keys[b - 1] ? null : new Iterator(_root, b - 1);
 
-		final Node node = new Node(null, _order);
+		final Node node = node(null, false);
 		for (int h = 2; h <= _height; h++) {
-			read(node, id);
+			read(node, id, h == _height);
 			b = node.find(key);
 			id = node.branches[b];
 		}
 		return b == 0 || key != node.keys[b - 1] ? null : new Iterator(node, b - 1);
 	}
 
+	@Override
+	public BPlusTreeIterator range(final int lo, final int hi) {
+		Node node = _root;
+		int b = node.find(lo);
+		if (_height > 1) {
+			int id = node.branches[b];
+			node = node(null, false);
+			for (int h = 2; h <= _height; h++) {
+				read(node, id, h == _height);
+				b = node.find(lo);
+				id = node.branches[b];
+			}
+		}
+		return new Iterator(node, b > 0 && lo == node.keys[b - 1] ? b - 1 : b, hi);
+	}
+
+	@Override
+	public void getAll(final int[] keys, final int[] out, final int def) {
+		if (out.length < keys.length) throw new IllegalArgumentException();
+
+		final long[] probes = new long[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			probes[i] = (long) keys[i] << 32 | i;
+		Arrays.sort(probes);
+
+		// path[d] is node at depth d, keys below it are less than bound[d]
+		final Node[] path = new Node[_height];
+		final long[] bound = new long[_height];
+		path[0] = _root;
+		bound[0] = Long.MAX_VALUE;
+		for (int d = 1; d < _height; d++)
+			path[d] = node(null, false);
+
+		int depth = 0;
+		for (final long probe : probes) {
+			final int key = (int) (probe >> 32);
+			while (key >= bound[depth])
+				depth -= 1;
+			for (; depth < _height - 1; depth++) {
+				final Node node = path[depth];
+				final int b = node.find(key);
+				bound[depth + 1] = b < node.keyCount ? node.keys[b] : bound[depth];
+				read(path[depth + 1], node.branches[b], depth + 2 == _height);
+			}
+
+			final Node leaf = path[depth];
+			final int b = leaf.find(key);
+			out[(int) probe] = b == 0 || key != leaf.keys[b - 1] ? def : leaf.branches[b];
+		}
+	}
+
 	@Override
 	public BPlusTreeIterator iterator() {
 		if (_height == 1) return new Iterator(_root, 0);
 
-		final Node node = new Node(null, _order);
-		read(node, _root.branches[0]);
+		final Node node = node(null, false);
+		read(node, _root.branches[0], _height == 2);
 		for (int h = 3; h <= _height; h++)
-			read(node, node.branches[0]);
+			read(node, node.branches[0], h == _height);
 		return new Iterator(node, 0);
 	}
 
@@ -322,8 +851,8 @@ public final class BPlusTreeBuffered implements BPlusTree {
 			System.out.println();
 
 			for (int i = 0; i <= node.keyCount; i++) {
-				final Node n = new Node(null, _order);
-				read(n, node.branches[i]);
+				final Node n = node(null, height + 1 == _height);
+				read(n, node.branches[i], height + 1 == _height);
 				debugPrint(n, height + 1);
 			}
 		}
@@ -2,6 +2,8 @@ package tintor.devel.index;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Random;
@@ -32,6 +34,45 @@ public class BPlusTreeBuffered_Test {
 		}
 	}
 
+	@Test
+	public void range() {
+		final BPlusTree tree = BPlusTreeBuffered.create(file, 3);
+		try {
+			for (int i = 0; i < 100; i++)
+				tree.put(i * 2, i);
+
+			int i = 5;
+			for (final BPlusTreeIterator it = tree.range(9, 40); it.valid(); it.next()) {
+				Assert.assertEquals(i * 2, it.key());
+				Assert.assertEquals(i, it.value());
+				i += 1;
+			}
+			Assert.assertEquals(21, i);
+			Assert.assertFalse(tree.range(199, 1000).valid());
+			Assert.assertEquals(0, tree.range(Integer.MIN_VALUE, 0).key());
+		}
+		finally {
+			tree.close();
+		}
+	}
+
+	@Test
+	public void getAll() {
+		final BPlusTree tree = BPlusTreeBuffered.create(file, 3);
+		try {
+			for (int i = 0; i < 100; i++)
+				tree.put(i * 2, i);
+
+			final int[] keys = { 50, 3, 198, 0, 50, -1, 200, 7, 100 };
+			final int[] out = new int[keys.length];
+			tree.getAll(keys, out, -1);
+			Assert.assertArrayEquals(new int[] { 25, -1, 99, 0, 25, -1, -1, -1, 50 }, out);
+		}
+		finally {
+			tree.close();
+		}
+	}
+
 	@Test
 	public void listZero() {
 		testList();
@@ -96,6 +137,129 @@ public class BPlusTreeBuffered_Test {
 		testList(shuffled, sorted);
 	}
 
+	@Test
+	public void bufferPool() {
+		final Random rand = new Random(5);
+		final int[] values = new int[20000];
+
+		final BPlusTreeBuffered write = BPlusTreeBuffered.create(file, 5, 16);
+		try {
+			for (int i = 0; i < 100000; i++) {
+				final int key = rand.nextInt(values.length);
+				values[key] = i + 1;
+				write.put(key, i + 1);
+			}
+			Assert.assertTrue(write.pool().evictions > 0);
+		}
+		finally {
+			write.close();
+		}
+
+		final BPlusTreeBuffered read = BPlusTreeBuffered.open(file, 16);
+		try {
+			for (int key = 0; key < values.length; key++)
+				Assert.assertEquals(values[key], read.get(key, 0));
+			Assert.assertTrue(read.pool().hits > read.pool().misses);
+		}
+		finally {
+			read.close();
+		}
+	}
+
+	@Test
+	public void writeAheadLog() throws IOException {
+		final File logFile = new File(file.getPath() + ".log");
+		final Random rand = new Random(9);
+		final int[] values = new int[5000];
+		try {
+			// crash without close: uncommitted puts may be lost, committed ones must survive
+			final BPlusTreeBuffered crashed = BPlusTreeBuffered.create(file, 5, 1024, logFile);
+			crashed.checkpointBytes(4096);
+			final int[] committed = new int[values.length];
+			for (int i = 0; i < 20000; i++) {
+				final int key = rand.nextInt(values.length);
+				values[key] = i + 1;
+				crashed.put(key, i + 1);
+				if (i % 100 == 99) {
+					crashed.commit();
+					System.arraycopy(values, 0, committed, 0, values.length);
+				}
+			}
+			crashed.put(values.length, 1);
+			Assert.assertTrue(crashed.log().commits < 20000 / 50);
+
+			// torn tail
+			final RandomAccessFile log = new RandomAccessFile(logFile, "rw");
+			log.seek(log.length());
+			log.write(new byte[] { 1, 2, 3, 4, 5, 6 });
+			log.close();
+
+			BPlusTreeBuffered tree = BPlusTreeBuffered.open(file, 1024, logFile);
+			for (int key = 0; key < values.length; key++)
+				Assert.assertEquals(committed[key], tree.get(key, 0));
+			tree.close();
+			Assert.assertEquals(0, logFile.length());
+
+			// crash after checkpoint commit, with tree file torn: pages are restored from log
+			final byte[] image = new byte[(int) file.length()];
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.readFully(image);
+			final WriteAheadLog wal = new WriteAheadLog(logFile);
+			for (int p = 0; p < image.length; p += 40)
+				wal.page(p, ByteBuffer.wrap(image, p, Math.min(40, image.length - p)));
+			wal.checkpoint();
+			wal.close();
+			raf.seek(0);
+			raf.write(new byte[image.length / 2]);
+			raf.close();
+
+			tree = BPlusTreeBuffered.open(file, 1024, logFile);
+			for (int key = 0; key < values.length; key++)
+				Assert.assertEquals(committed[key], tree.get(key, 0));
+			tree.close();
+		}
+		finally {
+			logFile.delete();
+		}
+	}
+
+	@Test
+	public void compressedLeaves() {
+		final Random rand = new Random(3);
+		final int[] values = new int[20000];
+
+		final BPlusTreeBuffered write = BPlusTreeBuffered.create(file, 16, 32, null, true);
+		try {
+			for (int i = 0; i < 50000; i++) {
+				// mostly small values, with outliers which widen packed values
+				final int key = rand.nextInt(values.length);
+				values[key] = rand.nextInt(100) == 0 ? rand.nextInt() | 1 : rand.nextInt(8) + 1;
+				write.put(key, values[key]);
+			}
+		}
+		finally {
+			write.close();
+		}
+		Assert.assertTrue(file.length() < 20000 * 8);
+
+		final BPlusTreeBuffered read = BPlusTreeBuffered.open(file);
+		try {
+			int i = 0;
+			for (final BPlusTreeIterator it = read.iterator(); it.valid(); it.next()) {
+				while (values[i] == 0)
+					i += 1;
+				Assert.assertEquals(i, it.key());
+				Assert.assertEquals(values[i], it.value());
+				i += 1;
+			}
+			for (int key = 0; key < values.length; key++)
+				if (values[key] != 0) Assert.assertEquals(values[key], read.get(key, 0));
+		}
+		finally {
+			read.close();
+		}
+	}
+
 	private void testList(final int... list) {
 		final int[] output = Arrays.copyOf(list, list.length);
 		Arrays.sort(output);
@@ -127,6 +291,39 @@ public class BPlusTreeBuffered_Test {
 		}
 	}
 
+	@Test
+	public void bulkLoad() {
+		final int[] keys = new int[5000], values = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = i * 2;
+			values[i] = ~i;
+		}
+
+		final BPlusTree write = BPlusTreeBuffered.load(file, 5, new BPlusTreeArrayIterator(keys, values), 0.7);
+		try {
+			for (int i = 0; i < keys.length; i++)
+				write.put(i * 2 + 1, i);
+		}
+		finally {
+			write.close();
+		}
+
+		final BPlusTree read = BPlusTreeBuffered.open(file);
+		try {
+			int i = 0;
+			for (final BPlusTreeIterator it = read.iterator(); it.valid(); it.next()) {
+				Assert.assertEquals(i, it.key());
+				Assert.assertEquals(i % 2 == 0 ? ~(i / 2) : i / 2, it.value());
+				i += 1;
+			}
+			Assert.assertEquals(keys.length * 2, i);
+			Assert.assertEquals(~1234, read.get(2468, 0));
+		}
+		finally {
+			read.close();
+		}
+	}
+
 	@Before
 	public void setUp() {
 		try {
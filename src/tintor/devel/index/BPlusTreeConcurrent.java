@@ -0,0 +1,474 @@
+package tintor.devel.index;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Memory mapped B+ tree which allows lookups and iterators from many threads while one thread inserts.
+ * File format is the same as of BPlusTreeMemoryMapped.
+ *
+ * Readers use optimistic lock coupling: every node has a version which is odd while writer modifies the node.
+ * Reader validates parent version after reading child version and restarts if anything it read through changed.
+ * Writer locks all nodes that put will modify (leaf and chain of full ancestors) before modifying any of them.
+ * Like StampedLock.validate(), version is read again only after a load fence, so that plain reads of the node can't
+ * be reordered past the check.
+ */
+public final class BPlusTreeConcurrent implements BPlusTree {
+	// header offsets (page 0)
+	private final static int Root = 0, Height = 1, NodeCount = 2, Order = 3;
+	private final static int HeaderSize = 4;
+	private static final int AKeyCount = 0, AKey = 1;
+
+	private final MappedStorage _pages;
+	private final int _order, APointer;
+
+	// writer state
+	private int _root, _height;
+	private int[] _path = new int[8];
+
+	// published state: (height << 32 | root) and number of allocated nodes
+	private volatile long _top;
+	private volatile int _nodeCount;
+
+	// node versions in chunks, so readers never see a version array that writer abandoned
+	private static final int ChunkBits = 12, ChunkMask = (1 << ChunkBits) - 1;
+	private volatile AtomicIntegerArray[] _versions = new AtomicIntegerArray[16];
+
+	// Unsafe.loadFence() bound to Unsafe instance, looked up by name as sun.misc is not part of the Java 8 API
+	private static final MethodHandle LoadFence;
+	static {
+		try {
+			final Class<?> type = Class.forName("sun.misc.Unsafe");
+			final Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			LoadFence = MethodHandles.lookup().findVirtual(type, "loadFence", MethodType.methodType(void.class))
+					.bindTo(field.get(null));
+		}
+		catch (final Exception e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private BPlusTreeConcurrent(final MappedStorage pages, final int order) {
+		if (order < 3 || order * 2 < HeaderSize) throw new IllegalArgumentException();
+		_pages = pages;
+		_order = order;
+		APointer = order;
+	}
+
+	public static BPlusTreeConcurrent create(final File file, final int order) {
+		return create(file, order, MappedStorage.DefaultRegionBits);
+	}
+
+	public static BPlusTreeConcurrent create(final File file, final int order, final int regionBits) {
+		final BPlusTreeConcurrent tree = new BPlusTreeConcurrent(new MappedStorage(file, order * 8, regionBits), order);
+		tree._pages.truncate();
+
+		tree._nodeCount = 1; // page 0 is header
+		final Page root = tree.new Page().at(tree.allocate());
+		root.keyCount(0);
+		root.pointer(0, -1);
+		tree.publish(root.id, 1);
+		return tree;
+	}
+
+	public static BPlusTreeConcurrent open(final File file) {
+		return open(file, MappedStorage.DefaultRegionBits);
+	}
+
+	public static BPlusTreeConcurrent open(final File file, final int regionBits) {
+		final Storage storage = new Storage(file, "r");
+		final int order;
+		try {
+			if (storage.size() < HeaderSize * 4) throw new IllegalArgumentException("file");
+			storage.allocBuffer(HeaderSize * 4);
+			storage.read(0, HeaderSize * 4);
+			order = storage.buffer.getInt(Order * 4);
+		}
+		finally {
+			storage.close();
+		}
+		if (order < 3 || order * 2 < HeaderSize) throw new IllegalArgumentException("order");
+
+		final BPlusTreeConcurrent tree = new BPlusTreeConcurrent(new MappedStorage(file, order * 8, regionBits), order);
+		final ByteBuffer header = tree._pages.region(0);
+		final int nodeCount = header.getInt(NodeCount * 4);
+		for (int i = 0; i < nodeCount; i++)
+			tree.version(i, true);
+		tree._nodeCount = nodeCount;
+		tree.publish(header.getInt(Root * 4), header.getInt(Height * 4));
+		return tree;
+	}
+
+	@Override
+	public synchronized void close() {
+		_pages.close();
+	}
+
+	public synchronized void sync() {
+		_pages.sync();
+	}
+
+	// === Node access
+
+	private class Page {
+		int id;
+		ByteBuffer data;
+		int offset;
+
+		Page at(final int ID) {
+			id = ID;
+			data = _pages.region(ID);
+			offset = _pages.offset(ID);
+			return this;
+		}
+
+		int read(final int p) {
+			return data.getInt(offset + p * 4);
+		}
+
+		void write(final int p, final int v) {
+			data.putInt(offset + p * 4, v);
+		}
+
+		int keyCount() {
+			return read(AKeyCount);
+		}
+
+		void keyCount(final int v) {
+			write(AKeyCount, v);
+		}
+
+		int key(final int i) {
+			return read(AKey + i);
+		}
+
+		void key(final int i, final int v) {
+			write(AKey + i, v);
+		}
+
+		int pointer(final int i) {
+			return read(APointer + i);
+		}
+
+		void pointer(final int i, final int v) {
+			write(APointer + i, v);
+		}
+
+		void pair(final int i, final int k, final int p) {
+			key(i, k);
+			pointer(i + 1, p);
+		}
+
+		// returns -1 if node is being modified
+		int find(final int key) {
+			int r = keyCount();
+			if (r < 0 || r >= _order) return -1;
+			int l = 0;
+			while (l < r) {
+				final int i = (l + r) >>> 1;
+				if (key < key(i))
+					r = i;
+				else
+					l = i + 1;
+			}
+			return l;
+		}
+	}
+
+	// === Versions
+
+	private AtomicIntegerArray version(final int id, final boolean create) {
+		AtomicIntegerArray[] versions = _versions;
+		final int chunk = id >>> ChunkBits;
+		if (create) {
+			if (chunk >= versions.length) _versions = versions = Arrays.copyOf(versions, versions.length * 2);
+			if (versions[chunk] == null) versions[chunk] = new AtomicIntegerArray(1 << ChunkBits);
+		}
+		return versions[chunk];
+	}
+
+	private int version(final int id) {
+		return version(id, false).get(id & ChunkMask);
+	}
+
+	// version of node after reads of its page, to be compared with version read before them
+	private int versionAfterRead(final int id) {
+		try {
+			LoadFence.invokeExact();
+		}
+		catch (final Throwable e) {
+			throw new Error(e);
+		}
+		return version(id);
+	}
+
+	private int stableVersion(final int id) {
+		final AtomicIntegerArray chunk = version(id, false);
+		while (true) {
+			final int v = chunk.get(id & ChunkMask);
+			if ((v & 1) == 0) return v;
+			Thread.yield();
+		}
+	}
+
+	private void lock(final int id) {
+		version(id, false).incrementAndGet(id & ChunkMask);
+	}
+
+	private void unlock(final int id) {
+		version(id, false).incrementAndGet(id & ChunkMask);
+	}
+
+	// === Writer
+
+	private int allocate() {
+		final int id = _nodeCount;
+		_pages.region(id);
+		version(id, true);
+		_nodeCount = id + 1;
+		_pages.region(0).putInt(NodeCount * 4, id + 1);
+		return id;
+	}
+
+	private void publish(final int root, final int height) {
+		_root = root;
+		_height = height;
+		_top = (long) height << 32 | root;
+
+		final ByteBuffer header = _pages.region(0);
+		header.putInt(Root * 4, root);
+		header.putInt(Height * 4, height);
+		header.putInt(Order * 4, _order);
+	}
+
+	@Override
+	public synchronized void put(final int key, final int value) {
+		final int height = _height;
+		if (_path.length < height + 1) _path = new int[height * 2];
+
+		// descend
+		final Page page = new Page().at(_root);
+		for (int d = 0; d < height - 1; d++) {
+			_path[d] = page.id;
+			page.at(page.pointer(page.find(key)));
+		}
+		_path[height - 1] = page.id;
+
+		// if (key is in tree) do (update value)
+		final int p = page.find(key);
+		if (p > 0 && key == page.key(p - 1)) {
+			lock(page.id);
+			page.pointer(p, value);
+			unlock(page.id);
+			return;
+		}
+
+		// lock all nodes that will change
+		int top = height - 1;
+		while (top >= 0 && new Page().at(_path[top]).keyCount() == _order - 1)
+			top -= 1;
+		final int first = Math.max(top, 0);
+		for (int d = first; d < height; d++)
+			lock(_path[d]);
+
+		int insertKey = key, insertPointer = value;
+		for (int d = height - 1;; d--) {
+			final Page node = new Page().at(_path[d]);
+			final boolean leaf = d == height - 1;
+			final int b = leaf ? p : node.find(insertKey);
+			final int count = node.keyCount();
+
+			if (count < _order - 1) {
+				for (int i = count - 1; i >= b; i--)
+					node.pair(i + 1, node.key(i), node.pointer(i + 1));
+				node.pair(b, insertKey, insertPointer);
+				node.keyCount(count + 1);
+				break;
+			}
+
+			// add and split node (nodeB is not reachable until parent is updated)
+			final Page nodeB = new Page().at(allocate());
+			final int sizeB = (count + 1) / 2;
+			final int sizeA = count + 1 - sizeB;
+			for (int i = count - 1; i >= Math.min(b, sizeA); i--) {
+				final int j = b <= i ? i + 1 : i;
+				if (j >= sizeA)
+					nodeB.pair(j - sizeA, node.key(i), node.pointer(i + 1));
+				else
+					node.pair(j, node.key(i), node.pointer(i + 1));
+			}
+			if (b >= sizeA)
+				nodeB.pair(b - sizeA, insertKey, insertPointer);
+			else
+				node.pair(b, insertKey, insertPointer);
+			node.keyCount(sizeA);
+			nodeB.keyCount(sizeB);
+
+			if (leaf) { // insert new leaf node in linked list
+				nodeB.pointer(0, node.pointer(0));
+				node.pointer(0, nodeB.id);
+			}
+			else { // extract middle key from internal node
+				nodeB.pointer(0, node.pointer(sizeA));
+				node.keyCount(sizeA - 1);
+			}
+			insertKey = leaf ? nodeB.key(0) : node.key(sizeA - 1);
+			insertPointer = nodeB.id;
+
+			if (d == 0) { // split root
+				final Page root = new Page().at(allocate());
+				root.keyCount(1);
+				root.pointer(0, node.id);
+				root.key(0, insertKey);
+				root.pointer(1, insertPointer);
+				publish(root.id, height + 1);
+				break;
+			}
+		}
+
+		for (int d = first; d < height; d++)
+			unlock(_path[d]);
+	}
+
+	// === Readers
+
+	// Positions page at leaf that covers key. Returns (version << 32 | id) of leaf, which caller must validate.
+	private long findLeaf(final int key, final Page page) {
+		restart: while (true) {
+			final long top = _top;
+			int id = (int) top;
+			int v = stableVersion(id);
+			if (_top != top) continue;
+
+			for (int h = (int) (top >>> 32); h > 1; h--) {
+				page.at(id);
+				final int p = page.find(key);
+				if (p < 0) continue restart;
+				final int child = page.pointer(p);
+				if (child <= 0 || child >= _nodeCount) continue restart;
+				final int cv = stableVersion(child);
+				if (versionAfterRead(id) != v) continue restart;
+				id = child;
+				v = cv;
+			}
+			page.at(id);
+			return (long) v << 32 | id;
+		}
+	}
+
+	private boolean validate(final long leaf) {
+		return versionAfterRead((int) leaf) == (int) (leaf >>> 32);
+	}
+
+	@Override
+	public int get(final int key, final int def) {
+		final Page page = new Page();
+		while (true) {
+			final long leaf = findLeaf(key, page);
+			final int p = page.find(key);
+			if (p < 0) continue;
+			final int result = p == 0 || key != page.key(p - 1) ? def : page.pointer(p);
+			if (validate(leaf)) return result;
+		}
+	}
+
+	@Override
+	public void getAll(final int[] keys, final int[] out, final int def) {
+		if (out.length < keys.length) throw new IllegalArgumentException();
+
+		final long[] probes = new long[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			probes[i] = (long) keys[i] << 32 | i;
+		Arrays.sort(probes);
+
+		for (final long probe : probes)
+			out[(int) probe] = get((int) (probe >> 32), def);
+	}
+
+	/** Iterates over consistent copies of leaves, so it never blocks the writer. */
+	private class Iterator implements BPlusTreeIterator {
+		private final int[] _keys = new int[_order - 1], _values = new int[_order - 1];
+		private int _count, _index, _next;
+		private final int _hi;
+		private final Page _page = new Page();
+
+		Iterator(final int lo, final int hi) {
+			_hi = hi;
+			while (true) {
+				final long leaf = findLeaf(lo, _page);
+				if (copy() && validate(leaf)) break;
+			}
+			while (_index < _count && _keys[_index] < lo)
+				_index += 1;
+			if (_index == _count) nextLeaf();
+		}
+
+		private boolean copy() {
+			final int count = _page.keyCount();
+			if (count < 0 || count >= _order) return false;
+			for (int i = 0; i < count; i++) {
+				_keys[i] = _page.key(i);
+				_values[i] = _page.pointer(i + 1);
+			}
+			_count = count;
+			_next = _page.pointer(0);
+			return _next < _nodeCount;
+		}
+
+		private void nextLeaf() {
+			while (_index == _count && _next > 0) {
+				final int id = _next;
+				_page.at(id);
+				while (true) {
+					final int v = stableVersion(id);
+					if (copy() && versionAfterRead(id) == v) break;
+				}
+				_index = 0;
+			}
+		}
+
+		@Override
+		public boolean valid() {
+			return _index < _count && _keys[_index] <= _hi;
+		}
+
+		@Override
+		public void next() {
+			_index += 1;
+			if (_index == _count) nextLeaf();
+		}
+
+		@Override
+		public int key() {
+			return _keys[_index];
+		}
+
+		@Override
+		public int value() {
+			return _values[_index];
+		}
+	}
+
+	@Override
+	public BPlusTreeIterator get(final int key) {
+		final Iterator it = new Iterator(key, Integer.MAX_VALUE);
+		return it.valid() && it.key() == key ? it : null;
+	}
+
+	@Override
+	public BPlusTreeIterator range(final int lo, final int hi) {
+		return new Iterator(lo, hi);
+	}
+
+	@Override
+	public BPlusTreeIterator iterator() {
+		return new Iterator(Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+}
\ No newline at end of file
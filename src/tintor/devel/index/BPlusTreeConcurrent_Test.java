@@ -0,0 +1,137 @@
+package tintor.devel.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BPlusTreeConcurrent_Test {
+	private File file;
+
+	@Test
+	public void misc() {
+		final BPlusTree tree = BPlusTreeConcurrent.create(file, 3);
+		try {
+			for (int i = 1; i <= 5; i++)
+				tree.put(i * 2, i * 20);
+
+			Assert.assertEquals(-1, tree.get(0, -1));
+			Assert.assertEquals(20, tree.get(2, -1));
+			Assert.assertEquals(100, tree.get(10, -1));
+			Assert.assertEquals(-1, tree.get(12, -1));
+			Assert.assertEquals(-1, tree.get(7, -1));
+			Assert.assertNull(tree.get(7));
+			Assert.assertEquals(60, tree.get(6).value());
+		}
+		finally {
+			tree.close();
+		}
+
+		final BPlusTree read = BPlusTreeMemoryMapped.open(file);
+		try {
+			Assert.assertEquals(80, read.get(8, -1));
+		}
+		finally {
+			read.close();
+		}
+	}
+
+	@Test
+	public void readersDuringInserts() throws InterruptedException {
+		final int size = 100000;
+		final int[] shuffled = new int[size];
+		for (int i = 0; i < size; i++)
+			shuffled[i] = i;
+		final Random rand = new Random(11);
+		for (int i = 0; i < size; i++) {
+			final int j = rand.nextInt(size);
+			final int t = shuffled[i];
+			shuffled[i] = shuffled[j];
+			shuffled[j] = t;
+		}
+
+		final BPlusTreeConcurrent tree = BPlusTreeConcurrent.create(file, 5, 12);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final Thread[] readers = new Thread[3];
+		final boolean[] done = { false };
+		try {
+			for (int r = 0; r < readers.length; r++) {
+				final int seed = r;
+				readers[r] = new Thread() {
+					@Override
+					public void run() {
+						final Random random = new Random(seed);
+						try {
+							while (!isDone()) {
+								// every key is either missing or has its final value
+								final int key = random.nextInt(size);
+								final int value = tree.get(key, 0);
+								if (value != 0 && value != ~key) throw new AssertionError("get " + key);
+
+								// iterators see increasing keys with matching values
+								int prev = Integer.MIN_VALUE;
+								final int lo = random.nextInt(size);
+								for (final BPlusTreeIterator it = tree.range(lo, lo + 100); it.valid(); it.next()) {
+									if (it.key() <= prev || it.key() < lo || it.value() != ~it.key())
+										throw new AssertionError("range " + lo);
+									prev = it.key();
+								}
+							}
+						}
+						catch (final Throwable e) {
+							failure.compareAndSet(null, e);
+						}
+					}
+
+					private boolean isDone() {
+						synchronized (done) {
+							return done[0];
+						}
+					}
+				};
+				readers[r].start();
+			}
+
+			for (final int a : shuffled)
+				tree.put(a, ~a);
+
+			synchronized (done) {
+				done[0] = true;
+			}
+			for (final Thread t : readers)
+				t.join();
+			if (failure.get() != null) throw new AssertionError(failure.get());
+
+			int i = 0;
+			for (final BPlusTreeIterator it = tree.iterator(); it.valid(); it.next()) {
+				Assert.assertEquals(i, it.key());
+				Assert.assertEquals(~i, it.value());
+				i += 1;
+			}
+			Assert.assertEquals(size, i);
+		}
+		finally {
+			tree.close();
+		}
+	}
+
+	@Before
+	public void setUp() {
+		try {
+			file = File.createTempFile("junit_", ".bplus.tree");
+		}
+		catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+}
\ No newline at end of file
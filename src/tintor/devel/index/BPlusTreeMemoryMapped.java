@@ -1,54 +1,172 @@
 package tintor.devel.index;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.util.ArrayDeque;
+import java.util.Arrays;
 
 public final class BPlusTreeMemoryMapped implements BPlusTree {
-	// offsets
-	// private final static int Root = 0, Height = 1, NodeCount = 2, Order = 3;
+	// header offsets (page 0)
+	private final static int Root = 0, Height = 1, NodeCount = 2, Order = 3;
 	private final static int HeaderSize = 4;
 
-	// private final String _prefix;
-	// private final static int Bits = 26;
-	// final static int MaxFileSize = 1 << Bits + 2;
-	// private final static int Mask = (1 << Bits) - 1;
+	private final MappedStorage _pages;
 
-	// private final int maps = 0;
-	// private IntBuffer[] _data = new IntBuffer[2];
-	// private FileChannel[] _channel = new FileChannel[_data.length];
-
-	// private final long _map = 0;
-	// private ByteBuffer _data;
-	FileChannel _channel;
-
-	int _root = 0, _height = 1, _nodeCount = 0;
+	int _root, _height, _nodeCount;
 	final int _order, _nodeSize;
 
-	// Create new B+ Tree
-	public BPlusTreeMemoryMapped(final File file, final int order) {
+	private BPlusTreeMemoryMapped(final MappedStorage pages, final int order) {
 		if (order < 3 || order * 2 < HeaderSize) throw new IllegalArgumentException();
-		// _prefix = fileName + "_";
-		try {
-			_channel = new RandomAccessFile(file, "rw").getChannel();
-			// _data = _channel.map(FileChannel.MapMode.READ_WRITE, 0, MaxFileSize);
-		}
-		catch (final IOException e) {
-			throw new RuntimeException(e);
-		}
 
+		_pages = pages;
 		_order = order;
 		_nodeSize = order * 8;
 		APointer = order;
+	}
+
+	// Create new B+ Tree
+	public BPlusTreeMemoryMapped(final File file, final int order) {
+		this(file, order, MappedStorage.DefaultRegionBits);
+	}
+
+	public BPlusTreeMemoryMapped(final File file, final int order, final int regionBits) {
+		this(new MappedStorage(file, order * 8, regionBits), order);
+		_pages.truncate();
 
+		_nodeCount = 1; // page 0 is header
+		_height = 1;
 		final Node root = allocate();
 		root.keyCount(0);
 		root.pointer(0, -1);
-		root.update();
+		_root = root.id;
 		freeNode(root);
+		writeHeader();
+	}
+
+	// Open existing B+ Tree
+	public static BPlusTreeMemoryMapped open(final File file) {
+		return open(file, MappedStorage.DefaultRegionBits);
+	}
+
+	public static BPlusTreeMemoryMapped open(final File file, final int regionBits) {
+		final Storage storage = new Storage(file, "r");
+		final int order;
+		try {
+			if (storage.size() < HeaderSize * 4) throw new IllegalArgumentException("file");
+			storage.allocBuffer(HeaderSize * 4);
+			storage.read(0, HeaderSize * 4);
+			order = storage.buffer.getInt(Order * 4);
+		}
+		finally {
+			storage.close();
+		}
+		if (order < 3 || order * 2 < HeaderSize) throw new IllegalArgumentException("order");
+
+		final BPlusTreeMemoryMapped tree = new BPlusTreeMemoryMapped(new MappedStorage(file, order * 8, regionBits),
+				order);
+		final ByteBuffer header = tree._pages.region(0);
+		tree._root = header.getInt(Root * 4);
+		tree._height = header.getInt(Height * 4);
+		tree._nodeCount = header.getInt(NodeCount * 4);
+		return tree;
+	}
+
+	/**
+	 * Builds new tree bottom-up from strictly increasing keys in one sequential pass.
+	 * Nodes are filled to fill * (order - 1) keys.
+	 */
+	public static BPlusTreeMemoryMapped load(final File file, final int order, final BPlusTreeIterator sorted,
+			final double fill) {
+		return load(file, order, MappedStorage.DefaultRegionBits, sorted, fill);
+	}
+
+	public static BPlusTreeMemoryMapped load(final File file, final int order, final int regionBits,
+			final BPlusTreeIterator sorted, final double fill) {
+		if (!(fill > 0 && fill <= 1)) throw new IllegalArgumentException("fill");
+
+		final BPlusTreeMemoryMapped tree = new BPlusTreeMemoryMapped(file, order, regionBits);
+		if (sorted.valid()) {
+			final BulkLoader loader = tree.new BulkLoader(Math.max(1, (int) (fill * (order - 1))));
+			int last = sorted.key();
+			loader.add(0, last, sorted.value());
+			for (sorted.next(); sorted.valid(); sorted.next()) {
+				final int key = sorted.key();
+				if (key <= last) throw new IllegalArgumentException("unsorted key " + key);
+				loader.add(0, key, sorted.value());
+				last = key;
+			}
+			loader.finish();
+		}
+		return tree;
+	}
+
+	private class BulkLoader {
+		private final int _nodeKeys;
+		private Node[] _open = new Node[4];
+		private int[] _count = new int[4];
+		private int _levels;
+
+		BulkLoader(final int nodeKeys) {
+			_nodeKeys = nodeKeys;
+			_nodeCount = 1;
+		}
+
+		// appends key/pointer to the last node of level (0 is leaf level)
+		void add(final int level, final int key, final int pointer) {
+			if (level == _levels) {
+				if (_levels == _open.length) {
+					_open = Arrays.copyOf(_open, _levels * 2);
+					_count = Arrays.copyOf(_count, _levels * 2);
+				}
+				_open[level] = new Node();
+				_levels += 1;
+				start(level, key, pointer, _nodeCount++);
+				return;
+			}
+
+			final Node node = _open[level];
+			final int keyCount = node.keyCount();
+			if (keyCount < _nodeKeys) {
+				node.pair(keyCount, key, pointer);
+				node.keyCount(keyCount + 1);
+				return;
+			}
+
+			// node is full
+			final int id = _nodeCount++;
+			if (level == 0) node.pointer(0, id);
+			if (_count[level] == 1) add(level + 1, key, node.id);
+			add(level + 1, key, id);
+			start(level, key, pointer, id);
+		}
+
+		private void start(final int level, final int key, final int pointer, final int id) {
+			final Node node = _open[level];
+			node.id(id);
+			_count[level] += 1;
+			if (level == 0) {
+				node.pointer(0, -1);
+				node.pair(0, key, pointer);
+				node.keyCount(1);
+			}
+			else {
+				node.pointer(0, pointer);
+				node.keyCount(0);
+			}
+		}
+
+		void finish() {
+			_root = _open[_levels - 1].id;
+			_height = _levels;
+			writeHeader();
+		}
+	}
+
+	private void writeHeader() {
+		final ByteBuffer header = _pages.region(0);
+		header.putInt(Root * 4, _root);
+		header.putInt(Height * 4, _height);
+		header.putInt(NodeCount * 4, _nodeCount);
+		header.putInt(Order * 4, _order);
 	}
 
 	@Override
@@ -56,62 +174,23 @@ public final class BPlusTreeMemoryMapped implements BPlusTree {
 		close();
 	}
 
+	private boolean _closed;
+
 	@Override
 	public void close() {
-		try {
-			_channel.close();
-		}
-		catch (final IOException e) {
-			throw new RuntimeException(e);
-		}
+		if (_closed) return;
+		_closed = true;
+		_pages.close();
 	}
 
-	// void write(final long p, final int v) {
-	// // final int i = p >> Bits;
-	// // if (i == maps) try {
-	// // if (i == _channel.length) {
-	// // _channel = Arrays.copyOf(_channel, _channel.length * 2);
-	// // _data = Arrays.copyOf(_data, _data.length * 2);
-	// // }
-	// // _channel[i] = new RandomAccessFile(_prefix + i, "rw").getChannel();
-	// // _data[i] = _channel[i].map(FileChannel.MapMode.READ_WRITE, 0, MaxFileSize).asIntBuffer();
-	// // maps += 1;
-	// // } catch (final IOException e) {
-	// // throw new RuntimeException(e);
-	// // }
-	// // _data[i].put(p & Mask, v);
-	//
-	// // _data.put(p, v);
-	//
-	// load(p >> Bits);
-	// _data.putInt((int) p & Mask, v);
-	// }
-
-	// void load(final long map) {
-	// if (map != _map) {
-	// _data = null;
-	// System.gc();
-	//
-	// try {
-	// _data = _channel.map(FileChannel.MapMode.READ_WRITE, map * MaxFileSize, MaxFileSize);
-	// } catch (final IOException e) {
-	// throw new RuntimeException(e);
-	// }
-	// _map = map;
-	// }
-	// }
-
-	// int read(final long p) {
-	// //return _data[p >> Bits].get(p & Mask);
-	// //return _data.get(p);
-	//
-	// load(p >> Bits);
-	// return _data.get((int) p & Mask);
-	// }
+	public void sync() {
+		_pages.sync();
+	}
 
 	private Node allocate() {
 		final Node node = newNode(null, _nodeCount);
 		_nodeCount += 1;
+		writeHeader();
 		return node;
 	}
 
@@ -121,13 +200,11 @@ public final class BPlusTreeMemoryMapped implements BPlusTree {
 
 	// private static final int AKeyCount = 0, APointer = 1, AKey = 2, DKey = 2, DPointer = 2;
 
-	private final ArrayDeque<ByteBuffer> _buffers = new ArrayDeque<ByteBuffer>();
-
 	private class Node {
 		int id;
-		long offset;
+		ByteBuffer data;
+		int offset;
 		Node next;
-		ByteBuffer data = ByteBuffer.allocateDirect(_nodeSize);
 
 		Node() {
 
@@ -138,28 +215,11 @@ public final class BPlusTreeMemoryMapped implements BPlusTree {
 			id(ID);
 		}
 
-		void update() {
-			data.clear();
-			try {
-				_channel.write(data, offset);
-			}
-			catch (final IOException e) {
-				throw new RuntimeException(e);
-			}
-		}
-
 		void id(final int ID) {
-			assert ID >= 0;
+			assert ID > 0;
 			id = ID;
-			offset = (long) ID * _nodeSize;
-
-			data.clear();
-			try {
-				_channel.read(data, offset);
-			}
-			catch (final IOException e) {
-				throw new RuntimeException(e);
-			}
+			data = _pages.region(ID);
+			offset = _pages.offset(ID);
 		}
 
 		int find(final int key) {
@@ -189,20 +249,15 @@ public final class BPlusTreeMemoryMapped implements BPlusTree {
 			}
 			pair(p, key, pointer);
 			keyCount(c + 1);
-			update();
 			return true;
 		}
 
 		int read(final int p) {
-			// return BPlusTreeFast.this.read(offset + p);
-			// System.out.println("data[" + p + "] -> " + data.getInt(p * 4));
-			return data.getInt(p * 4);
+			return data.getInt(offset + p * 4);
 		}
 
 		void write(final int p, final int v) {
-			// BPlusTreeFast.this.write(offset + p, v);
-			// System.out.println(v + " -> data[" + p + "]");
-			data.putInt(p * 4, v);
+			data.putInt(offset + p * 4, v);
 		}
 
 		int keyCount() {
@@ -238,10 +293,7 @@ public final class BPlusTreeMemoryMapped implements BPlusTree {
 
 	private boolean nodeInsert(final Node nodeA, final int b, final boolean leaf) {
 		// if (there is space in node) do (insert)
-		if (nodeA.insert(b, _insertKey, _insertPointer)) {
-			freeNodes(nodeA);
-			return true;
-		}
+		if (nodeA.insert(b, _insertKey, _insertPointer)) return true;
 		// else (node full) do (split node)
 
 		// add and split node
@@ -282,10 +334,6 @@ public final class BPlusTreeMemoryMapped implements BPlusTree {
 		_insertKey = leaf ? nodeB.key(0) : nodeA.key(nodeA.keyCount());
 		_insertPointer = nodeB.id;
 
-		nodeA.update();
-		freeNodes(nodeA);
-
-		nodeB.update();
 		freeNode(nodeB);
 		return false;
 	}
@@ -338,16 +386,26 @@ public final class BPlusTreeMemoryMapped implements BPlusTree {
 		// if (key is in tree) do (update value)
 		if (p > 0 && key == node.key(p - 1)) {
 			node.pointer(p, value);
-			node.update();
 			freeNodes(node);
 			return;
 		}
-		if (nodeInsert(node, p, true)) return;
+		if (nodeInsert(node, p, true)) {
+			freeNodes(node);
+			return;
+		}
 
 		// PROCESS UP INTERNAL NODES
-		for (node = node.next; node != null; node = node.next) {
-			if (nodeInsert(node, node.find(_insertKey), false)) return;
+		while (true) {
+			final Node parent = node.next;
+			node.next = null;
 			freeNode(node);
+			node = parent;
+			if (node == null) break;
+
+			if (nodeInsert(node, node.find(_insertKey), false)) {
+				freeNodes(node);
+				return;
+			}
 		}
 
 		// SPLIT ROOT
@@ -356,17 +414,16 @@ public final class BPlusTreeMemoryMapped implements BPlusTree {
 		node.pointer(0, _root);
 		node.key(0, _insertKey);
 		node.pointer(1, _insertPointer);
-		node.update();
 		freeNode(node);
 
 		_root = node.id;
 		_height += 1;
+		writeHeader();
 	}
 
 	@Override
 	public int get(final int key, final int def) {
 		final Node node = new Node(null, _root);
-		node.id(_root);
 		int h = _height;
 		while (true) {
 			final int p = node.find(key);
@@ -379,21 +436,32 @@ public final class BPlusTreeMemoryMapped implements BPlusTree {
 	private class Iterator implements BPlusTreeIterator {
 		private final Node _node;
 		private int _index;
+		private final int _hi;
 
 		private Iterator(final Node node, final int index) {
+			this(node, index, Integer.MAX_VALUE);
+		}
+
+		private Iterator(final Node node, final int index, final int hi) {
 			_node = node;
 			_index = index;
+			_hi = hi;
+			if (_index == _node.keyCount()) nextLeaf();
 		}
 
 		@Override
 		public boolean valid() {
-			return _index < _node.keyCount();
+			return _index < _node.keyCount() && _node.key(_index) <= _hi;
 		}
 
 		@Override
 		public void next() {
 			_index += 1;
-			if (_index == _node.keyCount() && _node.pointer(0) >= 0) {
+			if (_index == _node.keyCount()) nextLeaf();
+		}
+
+		private void nextLeaf() {
+			if (_node.pointer(0) >= 0) {
 				_node.id(_node.pointer(0));
 				_index = 0;
 			}
@@ -422,6 +490,51 @@ public final class BPlusTreeMemoryMapped implements BPlusTree {
 		}
 	}
 
+	@Override
+	public BPlusTreeIterator range(final int lo, final int hi) {
+		final Node node = new Node(null, _root);
+		for (int h = 1; h < _height; h++)
+			node.id(node.pointer(node.find(lo)));
+
+		final int p = node.find(lo);
+		return new Iterator(node, p > 0 && lo == node.key(p - 1) ? p - 1 : p, hi);
+	}
+
+	@Override
+	public void getAll(final int[] keys, final int[] out, final int def) {
+		if (out.length < keys.length) throw new IllegalArgumentException();
+
+		final long[] probes = new long[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			probes[i] = (long) keys[i] << 32 | i;
+		Arrays.sort(probes);
+
+		// path[d] is node at depth d, keys below it are less than bound[d]
+		final Node[] path = new Node[_height];
+		final long[] bound = new long[_height];
+		path[0] = new Node(null, _root);
+		bound[0] = Long.MAX_VALUE;
+		for (int d = 1; d < _height; d++)
+			path[d] = new Node();
+
+		int depth = 0;
+		for (final long probe : probes) {
+			final int key = (int) (probe >> 32);
+			while (key >= bound[depth])
+				depth -= 1;
+			for (; depth < _height - 1; depth++) {
+				final Node node = path[depth];
+				final int p = node.find(key);
+				bound[depth + 1] = p < node.keyCount() ? node.key(p) : bound[depth];
+				path[depth + 1].id(node.pointer(p));
+			}
+
+			final Node leaf = path[depth];
+			final int p = leaf.find(key);
+			out[(int) probe] = p == 0 || key != leaf.key(p - 1) ? def : leaf.pointer(p);
+		}
+	}
+
 	@Override
 	public BPlusTreeIterator iterator() {
 		final Node node = new Node(null, _root);
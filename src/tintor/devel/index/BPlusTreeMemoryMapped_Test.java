@@ -0,0 +1,119 @@
+package tintor.devel.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BPlusTreeMemoryMapped_Test {
+	private File file;
+
+	@Test
+	public void misc() {
+		final BPlusTree tree = new BPlusTreeMemoryMapped(file, 3);
+		try {
+			for (int i = 1; i <= 5; i++)
+				tree.put(i * 2, i * 20);
+
+			Assert.assertEquals(-1, tree.get(0, -1));
+			Assert.assertEquals(20, tree.get(2, -1));
+			Assert.assertEquals(100, tree.get(10, -1));
+			Assert.assertEquals(-1, tree.get(12, -1));
+			Assert.assertEquals(-1, tree.get(7, -1));
+		}
+		finally {
+			tree.close();
+		}
+	}
+
+	@Test
+	public void manyRegions() {
+		// 4KB regions with order 3 force a new region every 170 nodes
+		final int[] shuffled = new int[20000];
+		for (int i = 0; i < shuffled.length; i++)
+			shuffled[i] = i;
+		final Random rand = new Random(7);
+		for (int i = 0; i < shuffled.length; i++) {
+			final int j = rand.nextInt(shuffled.length);
+			final int t = shuffled[i];
+			shuffled[i] = shuffled[j];
+			shuffled[j] = t;
+		}
+
+		final BPlusTree write = new BPlusTreeMemoryMapped(file, 3, 12);
+		try {
+			for (final int a : shuffled)
+				write.put(a, ~a);
+		}
+		finally {
+			write.close();
+		}
+
+		final BPlusTree read = BPlusTreeMemoryMapped.open(file, 12);
+		try {
+			int i = 0;
+			for (final BPlusTreeIterator it = read.iterator(); it.valid(); it.next()) {
+				Assert.assertEquals(i, it.key());
+				Assert.assertEquals(~i, it.value());
+				i += 1;
+			}
+			Assert.assertEquals(shuffled.length, i);
+			Assert.assertEquals(~1234, read.get(1234, 0));
+		}
+		finally {
+			read.close();
+		}
+	}
+
+	@Test
+	public void bulkLoad() {
+		final int[] keys = new int[5000], values = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = i * 2;
+			values[i] = ~i;
+		}
+
+		final BPlusTree write = BPlusTreeMemoryMapped.load(file, 5, 12, new BPlusTreeArrayIterator(keys, values), 0.7);
+		try {
+			for (int i = 0; i < keys.length; i++)
+				write.put(i * 2 + 1, i);
+		}
+		finally {
+			write.close();
+		}
+
+		final BPlusTree read = BPlusTreeMemoryMapped.open(file, 12);
+		try {
+			int i = 0;
+			for (final BPlusTreeIterator it = read.iterator(); it.valid(); it.next()) {
+				Assert.assertEquals(i, it.key());
+				Assert.assertEquals(i % 2 == 0 ? ~(i / 2) : i / 2, it.value());
+				i += 1;
+			}
+			Assert.assertEquals(keys.length * 2, i);
+			Assert.assertEquals(~1234, read.get(2468, 0));
+		}
+		finally {
+			read.close();
+		}
+	}
+
+	@Before
+	public void setUp() {
+		try {
+			file = File.createTempFile("junit_", ".bplus.tree");
+		}
+		catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,204 @@
+package tintor.devel.index;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bounded cache of fixed-size pages over Storage, keyed by page id.
+ * Victims are chosen by CLOCK. Pinned pages (inner nodes) are never evicted; at most half of the pool can be pinned.
+ * Dirty pages are written back on eviction or flush().
+ * In no-steal mode dirty pages are never evicted, so file changes only on flush().
+ */
+public final class BufferPool {
+	private static final int None = -1;
+
+	private final Storage _storage;
+	private final long _base;
+	private final int _pageSize, _capacity;
+
+	private final ByteBuffer[] _frames;
+	private final int[] _page;
+	private final boolean[] _dirty, _referenced, _pinned;
+	private int _hand, _pinnedCount, _dirtyCount;
+	private boolean _steal = true;
+
+	// page id -> frame
+	private int[] _frameOf = new int[0];
+
+	public long hits, misses, evictions, writebacks;
+
+	/** Page i is stored at file position base + i * pageSize. */
+	public BufferPool(final Storage storage, final long base, final int pageSize, final int capacity) {
+		if (capacity < 2 || pageSize <= 0) throw new IllegalArgumentException();
+		_storage = storage;
+		_base = base;
+		_pageSize = pageSize;
+		_capacity = capacity;
+
+		final ByteBuffer memory = ByteBuffer.allocateDirect(pageSize * capacity);
+		_frames = new ByteBuffer[capacity];
+		for (int i = 0; i < capacity; i++) {
+			memory.limit((i + 1) * pageSize);
+			memory.position(i * pageSize);
+			_frames[i] = memory.slice();
+		}
+
+		_page = new int[capacity];
+		Arrays.fill(_page, None);
+		_dirty = new boolean[capacity];
+		_referenced = new boolean[capacity];
+		_pinned = new boolean[capacity];
+	}
+
+	public int capacity() {
+		return _capacity;
+	}
+
+	/** Number of pages which can't be evicted (dirty or pinned), upper bound in steal mode. */
+	public int unavailable() {
+		return _steal ? _pinnedCount : _dirtyCount + _pinnedCount;
+	}
+
+	public void steal(final boolean steal) {
+		_steal = steal;
+	}
+
+	/** Returns buffer with page content, valid until next call to pool. */
+	public ByteBuffer read(final int page, final boolean pin) {
+		int f = frame(page);
+		if (f != None) {
+			hits += 1;
+			_referenced[f] = true;
+		}
+		else {
+			misses += 1;
+			f = load(page, pin);
+			_frames[f].clear();
+			_storage.read(_frames[f], position(page));
+		}
+		final ByteBuffer bb = _frames[f];
+		bb.position(0);
+		bb.limit(_pageSize);
+		return bb;
+	}
+
+	/** Returns cleared buffer to be filled with new page content. Page is written back lazily. */
+	public ByteBuffer write(final int page, final boolean pin) {
+		int f = frame(page);
+		if (f != None)
+			_referenced[f] = true;
+		else
+			f = load(page, pin);
+		if (!_dirty[f]) {
+			_dirty[f] = true;
+			_dirtyCount += 1;
+		}
+
+		final ByteBuffer bb = _frames[f];
+		bb.clear();
+		return bb;
+	}
+
+	/** Writes all dirty pages in page order. */
+	public void flush() {
+		final long[] dirty = dirty();
+		for (final long d : dirty)
+			writeback((int) d);
+	}
+
+	/** Appends images of all dirty pages to log in page order, without writing them. */
+	public void log(final WriteAheadLog log) {
+		for (final long d : dirty()) {
+			final ByteBuffer bb = _frames[(int) d].duplicate();
+			bb.position(0);
+			bb.limit(_pageSize);
+			log.page(position((int) (d >>> 32)), bb);
+		}
+	}
+
+	// (page << 32 | frame) of dirty pages, sorted
+	private long[] dirty() {
+		final long[] dirty = new long[_dirtyCount];
+		int count = 0;
+		for (int f = 0; f < _capacity; f++)
+			if (_dirty[f]) dirty[count++] = (long) _page[f] << 32 | f;
+		Arrays.sort(dirty);
+		return dirty;
+	}
+
+	/** Drops all pages without writing them. */
+	public void clear() {
+		for (int f = 0; f < _capacity; f++)
+			if (_page[f] != None) {
+				_frameOf[_page[f]] = None;
+				_page[f] = None;
+				_dirty[f] = _referenced[f] = _pinned[f] = false;
+			}
+		_pinnedCount = _dirtyCount = 0;
+	}
+
+	private int frame(final int page) {
+		return page < _frameOf.length ? _frameOf[page] : None;
+	}
+
+	private int load(final int page, final boolean pin) {
+		if (page >= _frameOf.length) {
+			final int length = _frameOf.length;
+			_frameOf = Arrays.copyOf(_frameOf, Math.max(page + 1, length * 2));
+			Arrays.fill(_frameOf, length, _frameOf.length, None);
+		}
+
+		final int f = victim();
+		_page[f] = page;
+		_frameOf[page] = f;
+		_referenced[f] = true;
+		if (pin && _pinnedCount < _capacity / 2) {
+			_pinned[f] = true;
+			_pinnedCount += 1;
+		}
+		return f;
+	}
+
+	private int victim() {
+		for (int i = 0;; i++) {
+			if (i == _capacity * 2 + 1) throw new IllegalStateException("no page to evict");
+			final int f = _hand;
+			_hand = f + 1 == _capacity ? 0 : f + 1;
+
+			if (_page[f] == None) return f;
+			if (_pinned[f] || (!_steal && _dirty[f])) continue;
+			if (_referenced[f]) {
+				_referenced[f] = false;
+				continue;
+			}
+
+			evictions += 1;
+			if (_dirty[f]) writeback(f);
+			_frameOf[_page[f]] = None;
+			_page[f] = None;
+			return f;
+		}
+	}
+
+	private void writeback(final int f) {
+		writebacks += 1;
+		final ByteBuffer bb = _frames[f];
+		bb.position(0);
+		bb.limit(_pageSize);
+		_storage.write(bb, position(_page[f]));
+		_dirty[f] = false;
+		_dirtyCount -= 1;
+	}
+
+	private long position(final int page) {
+		return _base + (long) page * _pageSize;
+	}
+
+	@Override
+	public String toString() {
+		final long total = hits + misses;
+		return String.format("hits=%d misses=%d (%.1f%%) evictions=%d writebacks=%d pinned=%d/%d dirty=%d", hits,
+				misses, total == 0 ? 0.0 : misses * 100.0 / total, evictions, writebacks, _pinnedCount, _capacity,
+				_dirtyCount);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+package tintor.devel.index;
+
+import java.io.File;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+
+/**
+ * File of fixed-size pages, mapped into memory in regions on demand.
+ * Pages never straddle regions, so a page is always addressed as (region buffer, int offset),
+ * while the file itself can grow well beyond 2GB.
+ *
+ * Region table is copied on write and published through a volatile field, so region() of pages mapped before can be
+ * called from reader threads while one thread grows the file.
+ */
+public final class MappedStorage {
+	public final static int DefaultRegionBits = 26;
+
+	private final Storage _storage;
+	private final int _pageSize, _pagesPerRegion;
+	private final long _regionSize;
+
+	private volatile MappedByteBuffer[] _regions = new MappedByteBuffer[0];
+
+	public MappedStorage(final File file, final int pageSize) {
+		this(file, pageSize, DefaultRegionBits);
+	}
+
+	public MappedStorage(final File file, final int pageSize, final int regionBits) {
+		if (pageSize <= 0 || regionBits < 12 || regionBits > 30 || pageSize > 1 << regionBits)
+			throw new IllegalArgumentException();
+		_storage = new Storage(file, "rw");
+		_pageSize = pageSize;
+		_pagesPerRegion = (1 << regionBits) / pageSize;
+		_regionSize = (long) _pagesPerRegion * pageSize;
+	}
+
+	public int pageSize() {
+		return _pageSize;
+	}
+
+	public int regions() {
+		return _regions.length;
+	}
+
+	/** Buffer of the region containing page, mapping (and growing the file) if needed. */
+	public MappedByteBuffer region(final int page) {
+		assert page >= 0;
+		final int r = page / _pagesPerRegion;
+		final MappedByteBuffer[] regions = _regions;
+		return r < regions.length ? regions[r] : map(r);
+	}
+
+	/** Byte offset of page inside its region buffer. */
+	public int offset(final int page) {
+		return page % _pagesPerRegion * _pageSize;
+	}
+
+	/** Byte offset of page inside the file. */
+	public long position(final int page) {
+		return page / _pagesPerRegion * _regionSize + offset(page);
+	}
+
+	private synchronized MappedByteBuffer map(final int region) {
+		MappedByteBuffer[] regions = _regions;
+		if (region >= regions.length) {
+			final int count = regions.length;
+			regions = Arrays.copyOf(regions, region + 1);
+			for (int i = count; i <= region; i++)
+				regions[i] = _storage.mapWrite(i * _regionSize, _regionSize);
+			_regions = regions;
+		}
+		return regions[region];
+	}
+
+	public synchronized void truncate() {
+		_regions = new MappedByteBuffer[0];
+		_storage.truncate(0);
+	}
+
+	public void sync() {
+		for (final MappedByteBuffer region : _regions)
+			region.force();
+	}
+
+	public synchronized void close() {
+		sync();
+		_regions = new MappedByteBuffer[0];
+		_storage.close();
+	}
+}
\ No newline at end of file
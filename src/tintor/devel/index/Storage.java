@@ -63,19 +63,33 @@ public final class Storage {
 	public void read(final long pos, final int size) {
 		buffer.position(0);
 		buffer.limit(size);
+		read(buffer, pos);
+	}
+
+	public void write(final long pos) {
+		buffer.flip();
+		write(buffer, pos);
+	}
+
+	/** Reads into dst until it is full or end of file is reached, and flips it. */
+	public void read(final ByteBuffer dst, final long pos) {
 		try {
-			_channel.read(buffer, pos);
-			buffer.flip();
+			final int start = dst.position();
+			while (dst.hasRemaining())
+				if (_channel.read(dst, pos + dst.position() - start) < 0) break;
+			dst.flip();
 		}
 		catch (final IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
-	public void write(final long pos) {
+	/** Writes all remaining bytes of src, as channel may write only some of them in one call. */
+	public void write(final ByteBuffer src, final long pos) {
 		try {
-			buffer.flip();
-			_channel.write(buffer, pos);
+			final int start = src.position();
+			while (src.hasRemaining())
+				_channel.write(src, pos + src.position() - start);
 		}
 		catch (final IOException e) {
 			throw new RuntimeException(e);
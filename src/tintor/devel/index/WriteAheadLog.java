@@ -0,0 +1,193 @@
+package tintor.devel.index;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only redo log of puts and page images.
+ * Records are buffered and made durable in batches by commit(), which costs one sequential fsync.
+ * Every record ends with CRC32 of its content, so a torn tail is detected and dropped on replay.
+ *
+ * Checkpoint protocol: page images of all dirty pages, then checkpoint record, commit,
+ * write pages in place, sync, truncate log. If log contains checkpoint record, its page images are
+ * complete and replaying them repairs any page torn by crash; otherwise file is at the previous
+ * checkpoint and puts are replayed on top of it.
+ */
+public final class WriteAheadLog {
+	private static final byte Put = 1, Page = 2, Checkpoint = 3;
+
+	public interface Replay {
+		void put(int key, int value);
+
+		void page(long position, ByteBuffer page);
+	}
+
+	private final Storage _storage;
+	private ByteBuffer _buffer = ByteBuffer.allocateDirect(1 << 16);
+	private long _end;
+	private final CRC32 _crc = new CRC32();
+
+	public long records, commits;
+
+	public WriteAheadLog(final File file) {
+		_storage = new Storage(file, "rw");
+		_end = _storage.size();
+	}
+
+	/** Bytes in log, including uncommitted records. */
+	public long size() {
+		return _end + _buffer.position();
+	}
+
+	public void put(final int key, final int value) {
+		reserve(13);
+		final int start = _buffer.position();
+		_buffer.put(Put);
+		_buffer.putInt(key);
+		_buffer.putInt(value);
+		seal(start);
+	}
+
+	public void page(final long position, final ByteBuffer page) {
+		reserve(17 + page.remaining());
+		final int start = _buffer.position();
+		_buffer.put(Page);
+		_buffer.putLong(position);
+		_buffer.putInt(page.remaining());
+		_buffer.put(page);
+		seal(start);
+	}
+
+	public void checkpoint() {
+		reserve(5);
+		final int start = _buffer.position();
+		_buffer.put(Checkpoint);
+		seal(start);
+	}
+
+	/** Makes all records appended so far durable. */
+	public void commit() {
+		write();
+		_storage.sync();
+		commits += 1;
+	}
+
+	/** Discards all records, called once checkpoint is durable in data file. */
+	public void truncate() {
+		_buffer.clear();
+		_end = 0;
+		_storage.truncate(0);
+		_storage.sync();
+	}
+
+	public void close() {
+		commit();
+		_storage.close();
+	}
+
+	/**
+	 * Reads committed records. If log ends with a complete checkpoint, only its page images are passed to replay,
+	 * otherwise only puts. Torn tail is cut off, so new records are appended after the last valid one.
+	 * Returns true if checkpoint was found.
+	 */
+	public boolean replay(final Replay replay) {
+		final long size = _storage.size();
+		if (size > Integer.MAX_VALUE) throw new IllegalStateException("log too large");
+		final ByteBuffer log = ByteBuffer.allocate((int) size);
+		_storage.read(log, 0);
+		// a short read would look like a torn tail and committed records would be cut off
+		if (log.limit() != size) throw new IllegalStateException("log read " + log.limit() + " of " + size + " bytes");
+
+		// find valid prefix and last checkpoint
+		int valid = 0, checkpoint = -1;
+		while (true) {
+			final int end = recordEnd(log, valid);
+			if (end < 0) break;
+			if (log.get(valid) == Checkpoint) checkpoint = valid;
+			valid = end;
+		}
+
+		for (int p = 0; p < valid; p = recordEnd(log, p)) {
+			final byte type = log.get(p);
+			if (checkpoint >= 0 && p < checkpoint && type == Page) {
+				final ByteBuffer page = log.duplicate();
+				page.limit(p + 13 + log.getInt(p + 9));
+				page.position(p + 13);
+				replay.page(log.getLong(p + 1), page.slice());
+			}
+			if (checkpoint < 0 && type == Put) replay.put(log.getInt(p + 1), log.getInt(p + 5));
+		}
+
+		_buffer.clear();
+		_end = valid;
+		if (valid < size) {
+			_storage.truncate(valid);
+			_storage.sync();
+		}
+		return checkpoint >= 0;
+	}
+
+	// returns end of valid record at p, or -1
+	private int recordEnd(final ByteBuffer log, final int p) {
+		final int limit = log.limit();
+		if (p + 5 > limit) return -1;
+
+		int length;
+		switch (log.get(p)) {
+		case Put:
+			length = 9;
+			break;
+		case Page:
+			if (p + 13 > limit) return -1;
+			length = 13 + log.getInt(p + 9);
+			if (length < 13) return -1;
+			break;
+		case Checkpoint:
+			length = 1;
+			break;
+		default:
+			return -1;
+		}
+		if ((long) p + length + 4 > limit) return -1;
+
+		return crc(log, p, p + length) == log.getInt(p + length) ? p + length + 4 : -1;
+	}
+
+	private void reserve(final int bytes) {
+		if (_buffer.remaining() >= bytes) return;
+		write();
+		if (_buffer.capacity() < bytes) _buffer = ByteBuffer.allocateDirect(Math.max(bytes, _buffer.capacity() * 2));
+	}
+
+	private void seal(final int start) {
+		_buffer.putInt(crc(_buffer, start, _buffer.position()));
+		records += 1;
+	}
+
+	// CRC32 of bytes [from, to) of buffer, computed over a duplicate so buffer position is kept
+	private int crc(final ByteBuffer buffer, final int from, final int to) {
+		final ByteBuffer bytes = buffer.duplicate();
+		bytes.limit(to);
+		bytes.position(from);
+		_crc.reset();
+		_crc.update(bytes);
+		return (int) _crc.getValue();
+	}
+
+	private void write() {
+		if (_buffer.position() == 0) return;
+		_buffer.flip();
+		final int bytes = _buffer.remaining();
+		while (_buffer.hasRemaining())
+			_storage.write(_buffer, _end + bytes - _buffer.remaining());
+		_end += bytes;
+		_buffer.clear();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("records=%d commits=%d (%.1f per commit) size=%d", records, commits,
+				commits == 0 ? 0.0 : (double) records / commits, size());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,284 @@
+package tintor.devel.software_transactional_memmory;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import tintor.util.Metrics;
+
+// Based on:
+// "Transactional Locking II", Dave Dice, Ori Shalev and Nir Shavit, 2006
+
+/**
+ * Optimistic STM with global version clock and versioned lock per Value.
+ *
+ * Transaction samples clock at start (read version). Every read checks that value is unlocked and not newer than
+ * read version, so transaction never sees inconsistent state, and records value in read set. Writes go to redo log.
+ * Commit locks write set, increments clock, validates read set and writes back with new version. Read only
+ * transaction commits without locking anything.
+ *
+ * Conflicting transaction is rolled back and run again after randomized exponential backoff. Transaction which
+ * keeps conflicting (long one, among many short ones) becomes serial: new transactions wait for it to finish before
+ * they start, so it eventually commits. Nested atomicaly()
+ * joins enclosing transaction, so transactions compose. retry() rolls back and waits until one of values read has
+ * changed.
+ */
+final class Manager {
+	static final Metrics metrics = new Metrics();
+	static final Metrics.Counter commits = metrics.counter("commits"), conflicts = metrics.counter("conflicts"),
+			retries = metrics.counter("retries");
+
+	static final AtomicLong clock = new AtomicLong();
+	// held by starving transaction, which others let finish first
+	private static final ReentrantLock serial = new ReentrantLock();
+	private static final int Starving = 8;
+
+	private static final ThreadLocal<Transaction> current = new ThreadLocal<Transaction>() {
+		@Override
+		protected Transaction initialValue() {
+			return new Transaction();
+		}
+	};
+
+	static void atomicaly(final Runnable runnable) {
+		final Transaction tx = current.get();
+		if (tx.depth > 0) {
+			tx.depth++;
+			try {
+				runnable.run();
+			}
+			finally {
+				tx.depth--;
+			}
+			return;
+		}
+
+		try {
+			run(tx, runnable);
+		}
+		finally {
+			if (serial.isHeldByCurrentThread()) serial.unlock();
+		}
+	}
+
+	private static void run(final Transaction tx, final Runnable runnable) {
+		int attempt = 0;
+		while (true) {
+			awaitSerial();
+			tx.begin();
+			try {
+				runnable.run();
+			}
+			catch (final Conflict e) {
+				tx.end();
+				tx.conflicts.increment();
+				backoff(++attempt);
+				continue;
+			}
+			catch (final Retry e) {
+				// others must be able to run while we wait for them
+				if (serial.isHeldByCurrentThread()) serial.unlock();
+				try {
+					tx.await();
+				}
+				finally {
+					tx.end();
+				}
+				tx.retries.increment();
+				attempt = 0;
+				continue;
+			}
+			catch (final RuntimeException e) {
+				tx.end();
+				throw e;
+			}
+			catch (final Error e) {
+				tx.end();
+				throw e;
+			}
+
+			final boolean committed = tx.commit();
+			tx.end();
+			if (committed) {
+				tx.commits.increment();
+				return;
+			}
+			tx.conflicts.increment();
+			backoff(++attempt);
+		}
+	}
+
+	/** Rolls back current transaction and runs it again once some value it has read changes. */
+	static void retry() {
+		current("retry");
+		throw Retry.Instance;
+	}
+
+	static Transaction current(final String op) {
+		final Transaction tx = current.get();
+		if (tx.depth == 0) throw new RuntimeException("value can be " + op + " only in transaction");
+		return tx;
+	}
+
+	private static void awaitSerial() {
+		if (serial.isLocked() && !serial.isHeldByCurrentThread()) {
+			serial.lock();
+			serial.unlock();
+		}
+	}
+
+	private static void backoff(final int attempt) {
+		if (serial.isHeldByCurrentThread()) return;
+		if (attempt >= Starving) {
+			serial.lock();
+			return;
+		}
+		if (attempt < 4) {
+			Thread.yield();
+			return;
+		}
+		LockSupport.parkNanos(ThreadLocalRandom.current().nextInt(1 << Math.min(attempt + 6, 20)));
+	}
+
+	// thrown to roll back, without stack trace
+	static final class Conflict extends Error {
+		private static final long serialVersionUID = 1L;
+		static final Conflict Instance = new Conflict();
+
+		@Override
+		public Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	static final class Retry extends Error {
+		private static final long serialVersionUID = 1L;
+		static final Retry Instance = new Retry();
+
+		@Override
+		public Throwable fillInStackTrace() {
+			return this;
+		}
+	}
+
+	static final class Transaction {
+		int depth;
+		private long readVersion;
+
+		private Value[] reads = new Value[16];
+		private int readCount;
+
+		// redo log
+		private Value[] writes = new Value[16];
+		private int[] values = new int[16];
+		private int writeCount;
+		// union of Value.bit of writes, to skip redo log lookup on most reads
+		private long filter;
+
+		final Metrics.Cell commits = Manager.commits.local(), conflicts = Manager.conflicts.local(),
+				retries = Manager.retries.local();
+
+		void begin() {
+			depth = 1;
+			readVersion = clock.get();
+		}
+
+		void end() {
+			depth = 0;
+			for (int i = 0; i < readCount; i++)
+				reads[i] = null;
+			for (int i = 0; i < writeCount; i++)
+				writes[i] = null;
+			readCount = writeCount = 0;
+			filter = 0;
+		}
+
+		int read(final Value v) {
+			if ((filter & v.bit) != 0) {
+				final int i = find(v);
+				if (i >= 0) return values[i];
+			}
+
+			final long l = v.lock;
+			final int x = v.value;
+			if (l != v.lock || (l & 1) != 0 || l >>> 1 > readVersion) throw Conflict.Instance;
+
+			if (readCount == reads.length) reads = Arrays.copyOf(reads, readCount * 2);
+			reads[readCount++] = v;
+			return x;
+		}
+
+		void write(final Value v, final int x) {
+			if ((filter & v.bit) != 0) {
+				final int i = find(v);
+				if (i >= 0) {
+					values[i] = x;
+					return;
+				}
+			}
+
+			if (writeCount == writes.length) {
+				writes = Arrays.copyOf(writes, writeCount * 2);
+				values = Arrays.copyOf(values, writeCount * 2);
+			}
+			writes[writeCount] = v;
+			values[writeCount++] = x;
+			filter |= v.bit;
+		}
+
+		boolean commit() {
+			if (writeCount == 0) return true;
+
+			for (int i = 0; i < writeCount; i++)
+				if (!writes[i].tryLock()) {
+					unlock(i);
+					return false;
+				}
+
+			final long writeVersion = clock.incrementAndGet();
+			// if nobody committed since we started, read set can't have changed
+			if (writeVersion != readVersion + 1) for (int i = 0; i < readCount; i++) {
+				final Value v = reads[i];
+				final long l = v.lock;
+				if (l >>> 1 > readVersion || (l & 1) != 0 && ((filter & v.bit) == 0 || find(v) < 0)) {
+					unlock(writeCount);
+					return false;
+				}
+			}
+
+			for (int i = 0; i < writeCount; i++) {
+				writes[i].value = values[i];
+				writes[i].lock = writeVersion << 1;
+			}
+			return true;
+		}
+
+		// waits until some value in read set is locked or has version newer than read version
+		void await() {
+			if (readCount == 0) throw new IllegalStateException("retry without reading anything");
+			for (int spin = 0;; spin++) {
+				for (int i = 0; i < readCount; i++) {
+					final long l = reads[i].lock;
+					if ((l & 1) != 0 || l >>> 1 > readVersion) return;
+				}
+				if (spin < 16)
+					Thread.yield();
+				else
+					LockSupport.parkNanos(1000L << Math.min(spin - 16, 10));
+			}
+		}
+
+		private int find(final Value v) {
+			for (int i = 0; i < writeCount; i++)
+				if (writes[i] == v) return i;
+			return -1;
+		}
+
+		private void unlock(final int count) {
+			for (int i = 0; i < count; i++)
+				writes[i].unlock();
+		}
+	}
+}
\ No newline at end of file
@@ -39,10 +39,17 @@ public class TransactionalMemory {
 		end.await();
 
 		// check consistency
-		int sum = 0;
-		for (final Value v : values)
-			sum += v.read();
-		System.out.println(sum);
+		final int[] sum = new int[1];
+		Manager.atomicaly(new Runnable() {
+			@Override
+			public void run() {
+				sum[0] = 0;
+				for (final Value v : values)
+					sum[0] += v.read();
+			}
+		});
+		System.out.println(sum[0]);
+		System.out.printf("commits=%d conflicts=%d\n", Manager.commits.sum(), Manager.conflicts.sum());
 	}
 
 	static void transfer(final Value from, final Value to, final int amount) {
@@ -59,42 +66,4 @@ public class TransactionalMemory {
 			}
 		});
 	}
-}
-
-class Value {
-	private int value;
-
-	Value(final int value) {
-		this.value = value;
-	}
-
-	int read() {
-		if (!Manager.atomic.get()) throw new RuntimeException("value can be read only in transaction");
-		return value;
-	}
-
-	void write(final int value) {
-		if (!Manager.atomic.get()) throw new RuntimeException("value can be writtend only in transaction");
-		this.value = value;
-	}
-}
-
-class Manager {
-	static final ThreadLocal<Boolean> atomic = new ThreadLocal<Boolean>() {
-		@Override
-		protected Boolean initialValue() {
-			return false;
-		}
-	};
-
-	static void atomicaly(final Runnable runnable) {
-		if (atomic.get()) throw new RuntimeException("nested transactions not allowed");
-		atomic.set(true);
-		runnable.run();
-		atomic.set(false);
-	}
-
-	static void retry() {
-
-	}
 }
\ No newline at end of file
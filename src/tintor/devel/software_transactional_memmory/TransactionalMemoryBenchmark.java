@@ -0,0 +1,137 @@
+package tintor.devel.software_transactional_memmory;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Throughput of random account transfers with STM and with single global lock, for 1 to availableProcessors
+ * threads. Fewer accounts means more conflicts.
+ * Usage: TransactionalMemoryBenchmark [accounts [transfers per thread]]
+ */
+public class TransactionalMemoryBenchmark {
+	public static void main(final String[] args) throws InterruptedException {
+		final int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		final int transfers = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+		// warm up
+		run(1, transfers, new Stm(accounts));
+		run(1, transfers, new GlobalLock(accounts));
+
+		for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+			final long conflicts = Manager.conflicts.sum();
+			final double stm = run(threads, transfers, new Stm(accounts));
+			final double lock = run(threads, transfers, new GlobalLock(accounts));
+			System.out.printf("threads=%d stm=%.0f/ms (%d conflicts) lock=%.0f/ms\n", threads, stm,
+					Manager.conflicts.sum() - conflicts, lock);
+		}
+	}
+
+	interface Bank {
+		void transfer(int from, int to, int amount);
+
+		int total();
+
+		int accounts();
+	}
+
+	// returns transfers per ms
+	static double run(final int threads, final int transfers, final Bank bank) throws InterruptedException {
+		final CountDownLatch begin = new CountDownLatch(1);
+		final CountDownLatch end = new CountDownLatch(threads);
+		final int accounts = bank.accounts();
+
+		for (int i = 0; i < threads; i++) {
+			final int seed = i;
+			new Thread() {
+				@Override
+				public void run() {
+					final Random rand = new Random(seed);
+					try {
+						begin.await();
+					}
+					catch (final InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+					for (int j = 0; j < transfers; j++)
+						bank.transfer(rand.nextInt(accounts), rand.nextInt(accounts), rand.nextInt(100));
+					end.countDown();
+				}
+			}.start();
+		}
+
+		final long time = System.nanoTime();
+		begin.countDown();
+		end.await();
+		final long elapsed = System.nanoTime() - time;
+		if (bank.total() != 0) throw new RuntimeException("total " + bank.total());
+		return (double) threads * transfers / (elapsed / 1e6);
+	}
+
+	static class Stm implements Bank {
+		final Value[] values;
+
+		Stm(final int accounts) {
+			values = new Value[accounts];
+			for (int i = 0; i < accounts; i++)
+				values[i] = new Value(0);
+		}
+
+		@Override
+		public void transfer(final int from, final int to, final int amount) {
+			final Value a = values[from], b = values[to];
+			Manager.atomicaly(new Runnable() {
+				@Override
+				public void run() {
+					a.write(a.read() - amount);
+					b.write(b.read() + amount);
+				}
+			});
+		}
+
+		@Override
+		public int total() {
+			final int[] sum = new int[1];
+			Manager.atomicaly(new Runnable() {
+				@Override
+				public void run() {
+					sum[0] = 0;
+					for (final Value v : values)
+						sum[0] += v.read();
+				}
+			});
+			return sum[0];
+		}
+
+		@Override
+		public int accounts() {
+			return values.length;
+		}
+	}
+
+	static class GlobalLock implements Bank {
+		final int[] values;
+
+		GlobalLock(final int accounts) {
+			values = new int[accounts];
+		}
+
+		@Override
+		public synchronized void transfer(final int from, final int to, final int amount) {
+			values[from] -= amount;
+			values[to] += amount;
+		}
+
+		@Override
+		public synchronized int total() {
+			int sum = 0;
+			for (final int v : values)
+				sum += v;
+			return sum;
+		}
+
+		@Override
+		public int accounts() {
+			return values.length;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,124 @@
+package tintor.devel.software_transactional_memmory;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransactionalMemoryTest {
+	// concurrent transfers keep total at zero, and read only transactions never see a transfer half done
+	@Test public void transfers() throws Exception {
+		final Value[] values = new Value[4];
+		for (int i = 0; i < values.length; i++)
+			values[i] = new Value(0);
+		final AtomicBoolean inconsistent = new AtomicBoolean();
+
+		final Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final int seed = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					final Random rand = new Random(seed);
+					for (int j = 0; j < 20000; j++) {
+						TransactionalMemory.transfer(values[rand.nextInt(values.length)],
+								values[rand.nextInt(values.length)], rand.nextInt(100));
+						if (j % 16 == 0 && sum(values) != 0) inconsistent.set(true);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (final Thread t : threads)
+			t.join();
+
+		Assert.assertFalse(inconsistent.get());
+		Assert.assertEquals(0, sum(values));
+	}
+
+	@Test public void nested() {
+		final Value a = new Value(10), b = new Value(0);
+		Manager.atomicaly(new Runnable() {
+			@Override
+			public void run() {
+				TransactionalMemory.transfer(a, b, 3);
+				TransactionalMemory.transfer(a, b, 4);
+				// writes of inner transactions are visible, but not committed yet
+				Assert.assertEquals(3, a.read());
+			}
+		});
+		Assert.assertEquals(7, read(b));
+	}
+
+	@Test public void rollback() {
+		final Value a = new Value(1);
+		try {
+			Manager.atomicaly(new Runnable() {
+				@Override
+				public void run() {
+					a.write(2);
+					throw new IllegalStateException();
+				}
+			});
+			Assert.fail();
+		}
+		catch (final IllegalStateException e) {
+		}
+		Assert.assertEquals(1, read(a));
+	}
+
+	@Test public void retry() throws Exception {
+		final Value a = new Value(0);
+		final Thread consumer = new Thread() {
+			@Override
+			public void run() {
+				Manager.atomicaly(new Runnable() {
+					@Override
+					public void run() {
+						if (a.read() == 0) Manager.retry();
+						a.write(a.read() - 1);
+					}
+				});
+			}
+		};
+		consumer.start();
+		Thread.sleep(10);
+		Manager.atomicaly(new Runnable() {
+			@Override
+			public void run() {
+				a.write(a.read() + 1);
+			}
+		});
+		consumer.join();
+		Assert.assertEquals(0, read(a));
+	}
+
+	@Test(expected = RuntimeException.class) public void outside() {
+		new Value(0).read();
+	}
+
+	static int read(final Value v) {
+		final int[] x = new int[1];
+		Manager.atomicaly(new Runnable() {
+			@Override
+			public void run() {
+				x[0] = v.read();
+			}
+		});
+		return x[0];
+	}
+
+	static int sum(final Value[] values) {
+		final int[] sum = new int[1];
+		Manager.atomicaly(new Runnable() {
+			@Override
+			public void run() {
+				sum[0] = 0;
+				for (final Value v : values)
+					sum[0] += v.read();
+			}
+		});
+		return sum[0];
+	}
+}
\ No newline at end of file
@@ -0,0 +1,39 @@
+package tintor.devel.software_transactional_memmory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Transactional int cell. Lock word holds version of last commit that wrote the value, shifted left by one, and lock
+ * bit which is set by committing transaction while it writes back.
+ */
+final class Value {
+	private static final AtomicLongFieldUpdater<Value> Lock = AtomicLongFieldUpdater.newUpdater(Value.class, "lock");
+	private static final AtomicInteger Ids = new AtomicInteger();
+
+	volatile long lock;
+	volatile int value;
+	// bit in transaction write set filter
+	final long bit = 1L << (Ids.getAndIncrement() * 0x9E3779B9 >>> 26);
+
+	Value(final int value) {
+		this.value = value;
+	}
+
+	int read() {
+		return Manager.current("read").read(this);
+	}
+
+	void write(final int value) {
+		Manager.current("written").write(this, value);
+	}
+
+	boolean tryLock() {
+		final long l = lock;
+		return (l & 1) == 0 && Lock.compareAndSet(this, l, l | 1);
+	}
+
+	void unlock() {
+		lock &= ~1L;
+	}
+}
\ No newline at end of file
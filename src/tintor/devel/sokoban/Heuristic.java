@@ -1,11 +1,19 @@
 package tintor.devel.sokoban;
 
+import java.util.Arrays;
+import java.util.List;
+
 import tintor.devel.deadlockgen.Cell;
 import tintor.devel.deadlockgen.Key;
+import tintor.devel.sokoban.cell.PushTable;
 
 public abstract class Heuristic {
 	public abstract int estimate(Key key);
 
+	/** Called before successors of key are estimated, so that heuristic can reuse work done for key. */
+	public void expanding(final Key key) {
+	}
+
 	public static final Heuristic ClosestGoals = new Heuristic() {
 		@Override public int estimate(Key key) {
 			int e = 0;
@@ -17,71 +25,312 @@ public abstract class Heuristic {
 		}
 	};
 
+	/**
+	 * Minimal total pushes over all assignments of boxes to distinct goals (exact, by Hungarian method with
+	 * potentials and shortest augmenting paths, over int table of push distances).
+	 *
+	 * expanding(key) solves key from scratch in O(boxes^2 * goals) and keeps the solution. Successor of that key
+	 * differs from it by one box, so its estimate only moves that box's row: row potential is reset to keep duals
+	 * feasible, and one augmenting path is found in O(boxes * goals). Other keys are solved from scratch.
+	 *
+	 * Push distances are copied from PushTable of level, which is only read, so all heuristics of level share one.
+	 */
 	public static class MatchingGoals extends Heuristic {
-		public final Cell[] matches;
+		static final int Infinity = 1 << 20;
+
 		public final Cell[] goals;
+		// push distance from cell (by id) to goal (by index), or Infinity
+		final int[][] distance;
 
-		public MatchingGoals(final Key level) {
+		// rows are boxes, columns are goals; arrays are 1-based, with column 0 as augmenting path root
+		final int rows, columns;
+		final int[] u, v, match;
+		private final int[] way, minv;
+		private final boolean[] used;
+		final int[] rowCell;
+
+		// solution of key passed to expanding(): row -> cell id, column -> row, potentials, and row of each cell id
+		private Key _base;
+		private final int[] _baseRowCell, _baseMatch, _baseU, _baseV, _baseRowOf;
+		// cells of key being estimated are marked with current stamp
+		private final int[] _mark;
+		private int _stamp;
+
+		public MatchingGoals(final Key level, final PushTable pushes) {
 			goals = Util.goals(level.agent).toArray(new Cell[0]);
-			matches = new Cell[goals.length];
+			final List<Cell> cells = Util.cellList(level.agent);
+			int ids = 0;
+			for (final Cell c : cells)
+				ids = Math.max(ids, c.id + 1);
+
+			distance = new int[ids][goals.length];
+			for (final Cell c : cells)
+				for (int g = 0; g < goals.length; g++) {
+					final int d = pushes.pushes(c, goals[g]);
+					distance[c.id][g] = d == PushTable.Unreachable ? Infinity : d;
+				}
+
+			rows = level.boxes();
+			columns = goals.length;
+			u = new int[rows + 1];
+			v = new int[columns + 1];
+			match = new int[columns + 1];
+			way = new int[columns + 1];
+			minv = new int[columns + 1];
+			used = new boolean[columns + 1];
+			rowCell = new int[rows + 1];
+
+			_baseRowCell = new int[rows + 1];
+			_baseMatch = new int[columns + 1];
+			_baseU = new int[rows + 1];
+			_baseV = new int[columns + 1];
+			_baseRowOf = new int[ids];
+			_mark = new int[ids];
+		}
+
+		@Override public void expanding(final Key key) {
+			if (_base != null) for (int i = 1; i <= rows; i++)
+				_baseRowOf[_baseRowCell[i]] = 0;
+			_base = null;
+
+			solve(key);
+			_base = key;
+			System.arraycopy(rowCell, 0, _baseRowCell, 0, rows + 1);
+			System.arraycopy(match, 0, _baseMatch, 0, columns + 1);
+			System.arraycopy(u, 0, _baseU, 0, rows + 1);
+			System.arraycopy(v, 0, _baseV, 0, columns + 1);
+			for (int i = 1; i <= rows; i++)
+				_baseRowOf[rowCell[i]] = i;
 		}
 
 		@Override public int estimate(final Key key) {
-			assert key.boxes() == matches.length;
-
-			// initial mapping
-			System.arraycopy(goals, 0, matches, 0, matches.length);
-
-			// swaps
-			boolean more = true;
-			while (more) {
-				more = false;
-				for (int a = 0; a < matches.length; a++)
-					for (int b = a + 1; b < matches.length; b++) {
-						int delta = 0, deltaInf = 0;
-
-						final Integer ab = key.box(a).pushes(matches[b]);
-						if (ab == null)
-							deltaInf = 1;
-						else
-							delta = ab;
-
-						final Integer ba = key.box(b).pushes(matches[a]);
-						if (ba == null)
-							deltaInf += 1;
-						else
-							delta += ba;
-
-						if (deltaInf == 2) continue;
-
-						final Integer aa = key.box(a).pushes(matches[a]);
-						if (aa == null)
-							deltaInf -= 1;
-						else
-							delta -= aa;
-
-						final Integer bb = key.box(b).pushes(matches[b]);
-						if (bb == null)
-							deltaInf -= 1;
-						else
-							delta -= bb;
-
-						if (deltaInf < 0 || deltaInf == 0 && delta < 0) {
-							final Cell c = matches[a];
-							matches[a] = matches[b];
-							matches[b] = c;
-							more = true;
+			assert key.boxes() == rows && rows <= columns;
+			return successor(key) ? result() : solve(key);
+		}
+
+		// incremental update from base if key differs from it by one box
+		private boolean successor(final Key key) {
+			// with more goals than boxes freeing a goal could break optimality of potentials
+			if (_base == null || rows != columns) return false;
+			_stamp++;
+			int moved = 0, cell = -1;
+			for (int i = 0; i < rows; i++) {
+				final int id = key.box(i).id;
+				_mark[id] = _stamp;
+				if (_baseRowOf[id] != 0) continue;
+				if (++moved > 1) return false;
+				cell = id;
+			}
+			if (moved == 0) {
+				restore();
+				return true;
+			}
+
+			// row of base box which is not in key
+			int row = 0;
+			for (int i = 1; i <= rows; i++)
+				if (_mark[_baseRowCell[i]] != _stamp) {
+					row = i;
+					break;
+				}
+
+			restore();
+			rowCell[row] = cell;
+			for (int j = 1; j <= columns; j++)
+				if (match[j] == row) {
+					match[j] = 0;
+					break;
+				}
+			// tight again for some column, feasible for all
+			int m = Integer.MAX_VALUE;
+			for (int j = 1; j <= columns; j++)
+				m = Math.min(m, distance[cell][j - 1] - v[j]);
+			u[row] = m;
+			augment(row);
+			return true;
+		}
+
+		private void restore() {
+			System.arraycopy(_baseRowCell, 0, rowCell, 0, rows + 1);
+			System.arraycopy(_baseMatch, 0, match, 0, columns + 1);
+			System.arraycopy(_baseU, 0, u, 0, rows + 1);
+			System.arraycopy(_baseV, 0, v, 0, columns + 1);
+		}
+
+		private int solve(final Key key) {
+			Arrays.fill(u, 0);
+			Arrays.fill(v, 0);
+			Arrays.fill(match, 0);
+			for (int i = 1; i <= rows; i++) {
+				rowCell[i] = key.box(i - 1).id;
+				augment(i);
+			}
+			return result();
+		}
+
+		private int result() {
+			int e = 0;
+			for (int j = 1; j <= columns; j++)
+				if (match[j] != 0) {
+					final int d = distance[rowCell[match[j]]][j - 1];
+					if (d == Infinity) return Integer.MAX_VALUE;
+					e += d;
+				}
+			return e;
+		}
+
+		// assigns row by shortest augmenting path in reduced costs, keeping potentials feasible
+		private void augment(final int row) {
+			match[0] = row;
+			int j0 = 0;
+			Arrays.fill(minv, Integer.MAX_VALUE);
+			Arrays.fill(used, false);
+			do {
+				used[j0] = true;
+				final int i0 = match[j0];
+				final int[] cost = distance[rowCell[i0]];
+				int delta = Integer.MAX_VALUE, j1 = 0;
+				for (int j = 1; j <= columns; j++)
+					if (!used[j]) {
+						final int cur = cost[j - 1] - u[i0] - v[j];
+						if (cur < minv[j]) {
+							minv[j] = cur;
+							way[j] = j0;
+						}
+						if (minv[j] < delta) {
+							delta = minv[j];
+							j1 = j;
 						}
 					}
+				for (int j = 0; j <= columns; j++)
+					if (used[j]) {
+						u[match[j]] += delta;
+						v[j] -= delta;
+					} else
+						minv[j] -= delta;
+				j0 = j1;
+			} while (match[j0] != 0);
+
+			do {
+				final int j1 = way[j0];
+				match[j0] = match[j1];
+				j0 = j1;
+			} while (j0 != 0);
+		}
+	}
+
+	/**
+	 * MatchingGoals plus penalties from PatternDatabase. Boxes that end on goals of different groups are disjoint, and
+	 * pushes of boxes S ending on group G are at least their database distance. They are also at least the sum of
+	 * potentials of S and G from the matching of key (potentials are feasible for every pair of box and goal), and
+	 * those sums over all groups add up to the matching. So for every group the least excess of database distance over
+	 * potentials, among sets of boxes of its size which can reach it, adds to estimate without overestimating. Needs
+	 * as many goals as boxes.
+	 *
+	 * Boxes matched to group are tried first, as they usually have no excess and end the search over sets.
+	 */
+	public static class PatternGoals extends MatchingGoals {
+		private final PatternDatabase patterns;
+		// goal indexes of every group
+		private final int[][] groups;
+		// boxes which can reach group, ascending by cell id, and their row potentials
+		private final int[] boxes, boxU, index, cells;
+		// row potential by cell id
+		private final int[] potential;
+
+		public PatternGoals(final Key level, final PushTable pushes, final PatternDatabase patterns) {
+			super(level, pushes);
+			if (goals.length != level.boxes()) throw new IllegalArgumentException("goals must match boxes");
+			this.patterns = patterns;
+			groups = new int[patterns.groups()][];
+			for (int i = 0; i < groups.length; i++) {
+				final int[] group = patterns.group(i);
+				groups[i] = new int[group.length];
+				for (int j = 0; j < group.length; j++)
+					for (int g = 0; g < goals.length; g++)
+						if (goals[g].id == group[j]) groups[i][j] = g;
 			}
+			boxes = new int[goals.length];
+			boxU = new int[goals.length];
+			index = new int[goals.length];
+			cells = new int[goals.length];
+			potential = new int[distance.length];
+		}
 
-			int e = 0;
-			for (int i = 0; i < matches.length; i++) {
-				final Integer d = key.box(i).pushes(matches[i]);
-				if (d == null) return Integer.MAX_VALUE;
-				e += d;
+		@Override public int estimate(final Key key) {
+			int e = super.estimate(key);
+			if (e == Integer.MAX_VALUE) return e;
+
+			for (int i = 1; i <= rows; i++)
+				potential[rowCell[i]] = u[i];
+			for (int i = 0; i < groups.length; i++) {
+				final int p = penalty(key, i);
+				if (p == Integer.MAX_VALUE) return p;
+				e += p;
 			}
 			return e;
 		}
+
+		// least excess over sets of boxes, or MAX_VALUE if no set of boxes can be brought to group
+		private int penalty(final Key key, final int group) {
+			final int[] goals = groups[group];
+			final int m = goals.length;
+			int groupV = 0;
+			for (final int g : goals)
+				groupV += v[g + 1];
+
+			// boxes matched to group
+			int matchedU = 0;
+			for (int j = 0; j < m; j++) {
+				final int row = match[goals[j] + 1];
+				cells[j] = rowCell[row];
+				matchedU += u[row];
+			}
+			Arrays.sort(cells, 0, m);
+			final int matched = patterns.distance(group, cells);
+			int best = Integer.MAX_VALUE;
+			if (matched != PatternDatabase.Unreachable) {
+				best = Math.max(0, matched - matchedU - groupV);
+				if (best == 0) return 0;
+			}
+
+			int n = 0;
+			for (int i = 0; i < key.boxes(); i++) {
+				final int cell = key.box(i).id;
+				for (final int g : goals)
+					if (distance[cell][g] < Infinity) {
+						boxes[n++] = cell;
+						break;
+					}
+			}
+			if (n < m) return Integer.MAX_VALUE;
+			Arrays.sort(boxes, 0, n);
+			for (int i = 0; i < n; i++)
+				boxU[i] = potential[boxes[i]];
+
+			for (int i = 0; i < m; i++)
+				index[i] = i;
+			while (true) {
+				int sumU = 0;
+				for (int i = 0; i < m; i++) {
+					cells[i] = boxes[index[i]];
+					sumU += boxU[index[i]];
+				}
+				final int d = patterns.distance(group, cells);
+				if (d != PatternDatabase.Unreachable) {
+					best = Math.min(best, Math.max(0, d - sumU - groupV));
+					if (best == 0) return 0;
+				}
+
+				// next m-subset of n in lexicographic order
+				int i = m - 1;
+				while (i >= 0 && index[i] == n - m + i)
+					i--;
+				if (i < 0) return best;
+				index[i]++;
+				for (int j = i + 1; j < m; j++)
+					index[j] = index[j - 1] + 1;
+			}
+		}
 	}
 }
\ No newline at end of file
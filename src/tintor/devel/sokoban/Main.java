@@ -1,6 +1,7 @@
 package tintor.devel.sokoban;
 
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
@@ -26,7 +27,10 @@ public class Main {
 		final Key level = Optimizer.optimize(Loader.load(name));
 		System.out.println(level);
 
-		Monitor.start();
+		// Main [k pattern-database-file]
+		if (args.length == 2) Solver.patterns = PatternDatabase.load(level, Integer.parseInt(args[0]), new File(args[1]));
+
+		Monitor.start(new File(consoleFile + ".csv"));
 		final Key result = Solver.astar(level);
 		Monitor.stop();
 
@@ -1,37 +1,60 @@
 package tintor.devel.sokoban;
 
+import java.io.File;
 import java.util.Locale;
 
 import tintor.Timer;
 import tintor.devel.deadlockgen.Key;
 import tintor.devel.deadlockgen.MemoryKeySet;
-import tintor.devel.heap.Heap;
+import tintor.devel.heap.BucketQueue;
+import tintor.util.Metrics;
 
+/**
+ * Solver threads update counters and histograms through their own Metrics cells (see Metrics.Counter.local()),
+ * so totals and rates are exact for any number of workers.
+ */
 public class Monitor {
 	static String _state = "#";
-	static int _keys, _branches, _cells;
 
-	static int _hash_deadlocks, _fastBlock_deadlocks, _frozenBoxes_deadlocks, _macro_deadlocks;
+	static final Metrics metrics = new Metrics();
+	static final Metrics.Counter keys = metrics.counter("keys"), branches = metrics.counter("branches"),
+			cells = metrics.counter("cells");
+	static final Metrics.Counter hashDeadlocks = metrics.counter("hashDeadlocks"),
+			fastBlockDeadlocks = metrics.counter("fastBlockDeadlocks"),
+			frozenBoxesDeadlocks = metrics.counter("frozenBoxesDeadlocks"),
+			macroDeadlocks = metrics.counter("macroDeadlocks");
+	// keys cut by transposition table in ida
+	static final Metrics.Counter transpositions = metrics.counter("transpositions");
+	// pushes per expanded key, estimate of every new key, queue size sampled every 1024 keys
+	static final Metrics.Histogram branching = metrics.histogram("branching"), heuristic = metrics
+			.histogram("heuristic"), queue = metrics.histogram("queue");
 
 	static MemoryKeySet _set;
-	static Heap<Key> _queue;
+	static BucketQueue<Key> _queue;
 	static Key _lastKey;
 
-	private static int _lastKeys, _lastBranches, _lastCells;
+	private static long _lastKeys, _lastBranches, _lastCells;
 	private static final Timer _timer = new Timer();
 	private static final StringBuilder _b = new StringBuilder();
 
 	private static Thread _thread;
+	private static Metrics.Writer _writer;
 
 	public static void start() {
+		start(null);
+	}
+
+	/** Also appends snapshot of metrics to file (CSV, or JSON lines if name ends with .json) every 5 seconds. */
+	public static void start(final File file) {
 		Locale.setDefault(Locale.US);
 
 		_queue = null;
 		_lastKey = null;
 		_set = null;
 
-		_keys = _branches = _cells = 0;
-		_hash_deadlocks = _fastBlock_deadlocks = _frozenBoxes_deadlocks = _macro_deadlocks = 0;
+		metrics.reset();
+		_lastKeys = _lastBranches = _lastCells = 0;
+		if (file != null) _writer = metrics.start(file, 5000);
 
 		_timer.restart();
 		_thread = new Thread() {
@@ -60,6 +83,11 @@ public class Monitor {
 			throw new RuntimeException(e);
 		}
 		_thread = null;
+
+		if (_writer != null) {
+			_writer.finish();
+			_writer = null;
+		}
 	}
 
 	static String time() {
@@ -69,14 +97,18 @@ public class Monitor {
 	static long _lastSetTime, _lastQueueTime, _lastDeadlockTime;
 
 	static void output() {
-		int deltaKeys = _keys - _lastKeys;
-		final int deltaBranches = _branches - _lastBranches;
-		final int deltaCells = _cells - _lastCells;
-		_lastKeys = _keys;
-		_lastBranches = _branches;
-		_lastCells = _cells;
+		final long keyCount = keys.sum(), branchCount = branches.sum(), cellCount = cells.sum();
+		long deltaKeys = keyCount - _lastKeys;
+		final long deltaBranches = branchCount - _lastBranches;
+		final long deltaCells = cellCount - _lastCells;
+		_lastKeys = keyCount;
+		_lastBranches = branchCount;
+		_lastCells = cellCount;
 		if (deltaKeys == 0) deltaKeys = 1;
 
+		final long hash = hashDeadlocks.sum(), fastBlock = fastBlockDeadlocks.sum();
+		final long frozenBoxes = frozenBoxesDeadlocks.sum(), macro = macroDeadlocks.sum();
+
 		_b.setLength(0);
 		final double deltaSeconds = Timer.seconds(_timer.restart());
 
@@ -87,7 +119,7 @@ public class Monitor {
 
 		// Keys
 		_b.append(" keys=");
-		format(_keys);
+		format(keyCount);
 
 		_b.append(" k/s=");
 		format(Math.round(deltaKeys / deltaSeconds));
@@ -97,25 +129,25 @@ public class Monitor {
 
 		// Branches
 		_b.append(" branch=");
-		format("%.1f(%.1f)", deltaBranches / (double) deltaKeys, _branches / (double) _keys);
+		format("%.1f(%.1f)", deltaBranches / (double) deltaKeys, branchCount / (double) Math.max(keyCount, 1));
 
 		// Deadlocks
 		_b.append(" deadlocks[");
-		if (_fastBlock_deadlocks > 0) {
+		if (fastBlock > 0) {
 			_b.append("fast2x2=");
-			format(_fastBlock_deadlocks);
+			format(fastBlock);
 		}
-		if (_frozenBoxes_deadlocks > 0) {
+		if (frozenBoxes > 0) {
 			_b.append(" frozenBoxes=");
-			format(_frozenBoxes_deadlocks);
+			format(frozenBoxes);
 		}
-		if (_hash_deadlocks > 0) {
+		if (hash > 0) {
 			_b.append(" hash=");
-			format(_hash_deadlocks);
+			format(hash);
 		}
-		if (_macro_deadlocks > 0) {
+		if (macro > 0) {
 			_b.append(" macro=");
-			format(_macro_deadlocks);
+			format(macro);
 		}
 		_b.append(']');
 		final double deltaDeadlockSeconds = (tintor.devel.deadlockgen.time - _lastDeadlockTime) * 1e-9;
@@ -123,17 +155,19 @@ public class Monitor {
 		format("%.0f%%", 1e2 * deltaDeadlockSeconds / deltaSeconds);
 
 		// Queue
-		final Heap<Key> q = _queue; // Atomic
+		final BucketQueue<Key> q = _queue; // Atomic
 		if (q != null) {
-			final double deltaQueueSeconds = (q.timer.time - _lastQueueTime) * 1e-9;
-			_lastQueueTime = q.timer.time;
-
 			_b.append(" queue=");
 			format(q.size());
 			_b.append('(');
 			format(q.capacity());
 			_b.append(')');
-			format("%.0f%%", 1e2 * deltaQueueSeconds / deltaSeconds);
+			// only timed queue measures its time
+			if (q.timer != null) {
+				final double deltaQueueSeconds = (q.timer.time - _lastQueueTime) * 1e-9;
+				_lastQueueTime = q.timer.time;
+				format("%.0f%%", 1e2 * deltaQueueSeconds / deltaSeconds);
+			}
 		}
 
 		// Set
@@ -159,7 +193,7 @@ public class Monitor {
 		// Deadlock / Set ratio
 		if (s != null) {
 			_b.append(" deadlock/set=");
-			final int deadlocks = _hash_deadlocks + _fastBlock_deadlocks + _frozenBoxes_deadlocks + _macro_deadlocks;
+			final long deadlocks = hash + fastBlock + frozenBoxes + macro;
 			format("%.2f", (double) deadlocks / s.size());
 		}
 
@@ -0,0 +1,211 @@
+package tintor.devel.sokoban;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import tintor.devel.deadlockgen.Cell;
+import tintor.devel.deadlockgen.CellSearch;
+import tintor.devel.deadlockgen.Key;
+import tintor.devel.heap.BucketQueue;
+import tintor.devel.sokoban.cell.PushTable;
+import tintor.util.Metrics;
+
+/**
+ * Hash distributed A* (HDA*). Every key is owned by one worker, chosen by key hash.
+ * Worker expands keys from its own queue and sends generated keys to their owners, which do duplicate detection in
+ * their own closed sets and estimate them. Nothing is shared between workers except inboxes.
+ *
+ * Keys arrive in any order, so owner keeps the fewest pushes with which it has reached every key, and queues key
+ * again (even if already expanded) when it arrives with fewer.
+ *
+ * First goal found only bounds the search: keys with total >= bound are dropped, and search ends when no worker is
+ * active and no key is in flight. _work counts both, so it reaches zero exactly once.
+ */
+public class ParallelSolver {
+	private final Worker[] _workers;
+	private final AtomicInteger _work;
+
+	private volatile int _bound = Integer.MAX_VALUE;
+	private Key _best;
+	private volatile Throwable _failure;
+
+	private ParallelSolver(final Key level, final int threads) {
+		_workers = new Worker[threads];
+		final PushTable pushes = new PushTable(level);
+		for (int i = 0; i < threads; i++)
+			_workers[i] = new Worker(level, pushes, i);
+		_work = new AtomicInteger(threads);
+	}
+
+	public static Key astar(final Key level, final int threads) {
+		final ParallelSolver solver = new ParallelSolver(level, threads);
+		Monitor._queue = solver._workers[0].queue;
+
+		solver._work.incrementAndGet();
+		solver.owner(level).inbox.add(level);
+		for (final Worker w : solver._workers)
+			w.start();
+		try {
+			for (final Worker w : solver._workers)
+				w.join();
+		}
+		catch (final InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (solver._failure != null) throw new RuntimeException(solver._failure);
+		return solver._best;
+	}
+
+	private Worker owner(final Key key) {
+		final int h = key.hashCode() * 0x9E3779B9;
+		return _workers[(h >>> 1) % _workers.length];
+	}
+
+	private synchronized void goal(final Key key) {
+		if (key.total < _bound) {
+			_bound = key.total;
+			_best = key;
+		}
+	}
+
+	private class Worker extends Thread {
+		final BucketQueue<Key> queue = new BucketQueue<Key>();
+		// owned keys by themselves, with fewest pushes seen; deadlocks have total -1
+		final HashMap<Key, Key> reached = new HashMap<Key, Key>();
+		final ConcurrentLinkedQueue<Key> inbox = new ConcurrentLinkedQueue<Key>();
+
+		// heuristics have scratch state, so every worker has its own (over shared PushTable)
+		final Heuristic heuristic;
+		final CellSearch cells = new CellSearch();
+
+		// cells of this thread, created by run()
+		Metrics.Cell keys, branches, cellCount, hashDeadlocks;
+		Metrics.Buckets branching, estimates, queueSize;
+
+		Worker(final Key level, final PushTable pushes, final int id) {
+			super("solver-" + id);
+			setDaemon(true);
+			heuristic = Solver.heuristic(level, pushes);
+		}
+
+		@Override public void run() {
+			keys = Monitor.keys.local();
+			branches = Monitor.branches.local();
+			cellCount = Monitor.cells.local();
+			hashDeadlocks = Monitor.hashDeadlocks.local();
+			branching = Monitor.branching.local();
+			estimates = Monitor.heuristic.local();
+			queueSize = Monitor.queue.local();
+			try {
+				while (true) {
+					receive();
+					final Key key = next();
+					if (key == null) {
+						if (!idle()) break;
+						continue;
+					}
+
+					if (key.isGoal())
+						goal(key);
+					else
+						expand(key);
+
+					Monitor._lastKey = key;
+					keys.increment();
+					if ((keys.get() & 1023) == 0) queueSize.add(queue.size());
+				}
+			}
+			catch (final Throwable e) {
+				_failure = e;
+			}
+		}
+
+		private void receive() {
+			for (Key k = inbox.poll(); k != null; k = inbox.poll()) {
+				_work.decrementAndGet();
+				accept(k);
+			}
+		}
+
+		// called by owner of key
+		void accept(final Key key) {
+			final Key old = reached.get(key);
+			if (old != null && (old.total < 0 || old.distance <= key.distance)) return;
+			reached.put(key, key);
+
+			final int h;
+			if (old != null)
+				h = old.total - old.distance;
+			else {
+				h = heuristic.estimate(key);
+				if (h == Integer.MAX_VALUE) {
+					hashDeadlocks.increment();
+					key.total = -1;
+					return;
+				}
+				estimates.add(h);
+			}
+			key.total = key.distance;
+			key.total += h;
+			if (key.total < _bound) queue.offer(key, key.total, h);
+		}
+
+		private Key next() {
+			while (queue.size() > 0) {
+				final Key key = queue.poll();
+				if (key.total >= _bound) {
+					// all queued keys are at least as bad
+					queue.clear();
+					return null;
+				}
+				// else it was reached again with fewer pushes, and that copy is queued
+				if (reached.get(key) == key) return key;
+			}
+			return null;
+		}
+
+		private void expand(final Key key) {
+			heuristic.expanding(key);
+			int pushes = 0;
+			cells.reset(key.agent);
+			for (final Cell a : cells) {
+				for (Cell.Edge e = a.edges(); e != null; e = e.next)
+					if (key.hasBox(e.cell)) {
+						final Key newKey = key.pushBox(e.cell, e.dir);
+						if (newKey != null) {
+							pushes++;
+							send(newKey);
+						}
+					} else
+						cells.add(e.cell);
+				cellCount.increment();
+			}
+			branches.add(pushes);
+			branching.add(pushes);
+		}
+
+		private void send(final Key key) {
+			final Worker owner = owner(key);
+			if (owner == this) {
+				accept(key);
+				return;
+			}
+			_work.incrementAndGet();
+			owner.inbox.add(key);
+		}
+
+		// waits for keys from other workers, returns false when search is over
+		private boolean idle() {
+			_work.decrementAndGet();
+			while (inbox.isEmpty()) {
+				if (_work.get() == 0 || _failure != null) return false;
+				LockSupport.parkNanos(50000);
+			}
+			_work.incrementAndGet();
+			return true;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,396 @@
+package tintor.devel.sokoban;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+import tintor.devel.deadlockgen.Cell;
+import tintor.devel.deadlockgen.Dir;
+import tintor.devel.deadlockgen.Key;
+import tintor.devel.sokoban.cell.Loader;
+import tintor.devel.sokoban.cell.Optimizer;
+
+/**
+ * Pattern database: goals of level are split into disjoint groups of up to k goals that are close to each other, and
+ * for every group and every set of as many cells as there are goals in it, table holds minimal number of pushes to
+ * bring boxes from those cells onto goals of group, with all other boxes removed from level and agent anywhere.
+ *
+ * Tables are computed offline by retrograde search: from boxes on goals of group and agent in every free region,
+ * boxes are pulled (uniform cost search, cost of pull is length of edge, so compressed tunnels count in full) and
+ * every set of cells gets distance of first state with it. Set of cells is indexed by its rank in combinatorial number
+ * system, distances are stored as one byte each (Unreachable for sets that can't be brought to group), and whole file
+ * is mapped into memory, so lookups only read mapped buffer and can be done from many threads.
+ *
+ * Cells are identified by id, so database must be used with level optimized the same way as the one it was built
+ * for. map() checks number of cells and goals of every group. Header holds k, and load() builds file again if it was
+ * built with another k or by another version.
+ */
+public final class PatternDatabase {
+	public static final int Unreachable = 255;
+	private static final long Version = 2;
+	private static final int MaxGroup = 5, CellBits = 10;
+
+	private final int[][] _groups;
+	private final ByteBuffer[] _tables;
+	private final int[][] _binomial;
+
+	private PatternDatabase(final int cells, final int[][] groups, final ByteBuffer[] tables) {
+		_groups = groups;
+		_tables = tables;
+		_binomial = binomial(cells, MaxGroup);
+	}
+
+	public int groups() {
+		return _groups.length;
+	}
+
+	/** Goal cell ids of group, ascending. */
+	public int[] group(final int group) {
+		return _groups[group].clone();
+	}
+
+	/** Minimal pushes to bring boxes from first cells (ids, ascending, as many as goals in group) onto goals of group. */
+	public int distance(final int group, final int[] cells) {
+		return _tables[group].get(rank(cells, _groups[group].length, _binomial)) & 0xFF;
+	}
+
+	/** Writes database for optimized level with goals split into groups of up to k. */
+	public static void build(final Key level, final int k, final File file) throws IOException {
+		if (k < 1 || k > MaxGroup) throw new IllegalArgumentException("group size must be 1 to " + MaxGroup);
+		final Graph graph = new Graph(level);
+		if (graph.cells > 1 << CellBits) throw new IllegalArgumentException("too many cells " + graph.cells);
+		final int[][] groups = group(graph, k);
+		final int[][] binomial = binomial(graph.cells, MaxGroup);
+		if ((long) binomial[graph.cells][k] * graph.cells >= 1L << 36)
+			throw new IllegalArgumentException("too many patterns for group size " + k);
+
+		final byte[][] tables = new byte[groups.length][];
+		for (int i = 0; i < groups.length; i++)
+			tables[i] = retrograde(graph, groups[i], binomial);
+
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeLong(Version);
+			out.writeLong(k);
+			out.writeLong(graph.cells);
+			out.writeLong(groups.length);
+			for (final int[] g : groups) {
+				out.writeLong(g.length);
+				for (final int goal : g)
+					out.writeLong(goal);
+			}
+			for (final byte[] t : tables)
+				out.write(t);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/** Maps database written by build() for level. */
+	public static PatternDatabase map(final Key level, final File file) throws IOException {
+		final Graph graph = new Graph(level);
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if (buffer.getLong() != Version) throw new IOException("bad pattern database " + file);
+			final long k = buffer.getLong();
+			if (k < 1 || k > MaxGroup) throw new IOException("bad pattern database " + file);
+			final int cells = (int) buffer.getLong();
+			if (cells != graph.cells) throw new IOException("pattern database " + file + " is for another level");
+			final int[][] groups = new int[(int) buffer.getLong()][];
+			for (int i = 0; i < groups.length; i++) {
+				final long size = buffer.getLong();
+				if (size < 1 || size > k) throw new IOException("bad pattern database " + file);
+				groups[i] = new int[(int) size];
+				for (int j = 0; j < groups[i].length; j++) {
+					final int goal = (int) buffer.getLong();
+					if (goal < 0 || goal >= cells || !graph.cell[goal].goal)
+						throw new IOException("pattern database " + file + " is for another level");
+					groups[i][j] = goal;
+				}
+			}
+
+			final int[][] binomial = binomial(cells, MaxGroup);
+			final ByteBuffer[] tables = new ByteBuffer[groups.length];
+			for (int i = 0; i < groups.length; i++) {
+				final int size = binomial[cells][groups[i].length];
+				if (buffer.remaining() < size) throw new IOException("truncated pattern database " + file);
+				final ByteBuffer t = buffer.slice();
+				t.limit(size);
+				tables[i] = t;
+				buffer.position(buffer.position() + size);
+			}
+			return new PatternDatabase(cells, groups, tables);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/** Builds database file (if it is missing, or was built with another k or version) and maps it. */
+	public static PatternDatabase load(final Key level, final int k, final File file) throws IOException {
+		if (!file.exists() || !header(file, k)) build(level, k, file);
+		return map(level, file);
+	}
+
+	// true if file starts with current version and group size k
+	private static boolean header(final File file, final int k) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return raf.length() >= 16 && raf.readLong() == Version && raf.readLong() == k;
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/** Usage: PatternDatabase level k file */
+	public static void main(final String[] args) throws IOException {
+		final Key level = Optimizer.optimize(Loader.load(args[0]));
+		final int k = Integer.parseInt(args[1]);
+		final File file = new File(args[2]);
+
+		long time = System.currentTimeMillis();
+		build(level, k, file);
+		time = System.currentTimeMillis() - time;
+
+		final PatternDatabase db = map(level, file);
+		System.out.printf("%d groups, %d bytes, %d ms\n", db.groups(), file.length(), time);
+	}
+
+	// cells by id, with neighbour and edge length in every direction (-1 if none)
+	private static final class Graph {
+		final int cells;
+		final Cell[] cell;
+		final int[][] next, length;
+
+		Graph(final Key level) {
+			final List<Cell> list = Util.cellList(level.agent);
+			int n = 0;
+			for (final Cell c : list)
+				n = Math.max(n, c.id + 1);
+			cells = n;
+			cell = new Cell[n];
+			next = new int[n][Dir.values().length];
+			length = new int[n][Dir.values().length];
+			for (final Cell c : list) {
+				cell[c.id] = c;
+				Arrays.fill(next[c.id], -1);
+				for (Cell.Edge e = c.edges(); e != null; e = e.next) {
+					next[c.id][e.dir.ordinal()] = e.cell.id;
+					length[c.id][e.dir.ordinal()] = Math.abs(e.cell.x - c.x) + Math.abs(e.cell.y - c.y);
+				}
+			}
+		}
+	}
+
+	// greedy: lowest ungrouped goal together with k - 1 ungrouped goals closest to it by walking
+	private static int[][] group(final Graph graph, final int k) {
+		int goals = 0;
+		for (final Cell c : graph.cell)
+			if (c != null && c.goal) goals++;
+
+		final int[][] groups = new int[(goals + k - 1) / k][];
+		final boolean[] grouped = new boolean[graph.cells];
+		final int[] queue = new int[graph.cells];
+		final boolean[] seen = new boolean[graph.cells];
+		int seed = 0;
+		for (int i = 0; i < groups.length; i++) {
+			while (graph.cell[seed] == null || !graph.cell[seed].goal || grouped[seed])
+				seed++;
+			final int[] g = new int[Math.min(k, goals - i * k)];
+			int size = 0, head = 0, tail = 0;
+			Arrays.fill(seen, false);
+			queue[tail++] = seed;
+			seen[seed] = true;
+			while (size < g.length) {
+				final int a = queue[head++];
+				if (graph.cell[a].goal && !grouped[a]) {
+					grouped[a] = true;
+					g[size++] = a;
+				}
+				for (final int b : graph.next[a])
+					if (b >= 0 && !seen[b]) {
+						seen[b] = true;
+						queue[tail++] = b;
+					}
+			}
+			Arrays.sort(g);
+			groups[i] = g;
+		}
+		return groups;
+	}
+
+	// state is sorted box ids followed by smallest id of agent region, CellBits each, packed into long
+	private static byte[] retrograde(final Graph graph, final int[] goals, final int[][] binomial) {
+		final int n = graph.cells, m = goals.length;
+		final byte[] table = new byte[binomial[n][m]];
+		Arrays.fill(table, (byte) Unreachable);
+		final long[] settled = new long[(int) (((long) table.length * n + 63) >>> 6)];
+		final Frontier frontier = new Frontier();
+		final Region region = new Region(graph);
+
+		final int[] boxes = goals.clone(), moved = new int[m];
+		region.boxes(boxes, m);
+		for (int a = 0; a < n; a++)
+			if (graph.cell[a] != null && !region.box(a) && !region.reached(a))
+				frontier.add(0, pack(boxes, m, region.fill(a)));
+
+		for (long state; (state = frontier.poll()) >= 0;) {
+			unpack(state, boxes, m);
+			final int agent = (int) (state & (1 << CellBits) - 1);
+			final int rank = rank(boxes, m, binomial);
+			final long bit = (long) rank * n + agent;
+			if ((settled[(int) (bit >>> 6)] & 1L << bit) != 0) continue;
+			settled[(int) (bit >>> 6)] |= 1L << bit;
+			if (table[rank] == (byte) Unreachable) table[rank] = (byte) Math.min(frontier.distance, Unreachable - 1);
+
+			region.boxes(boxes, m);
+			region.fill(agent);
+			for (int i = 0; i < m; i++) {
+				final int b = boxes[i];
+				for (int d = 0; d < graph.next[b].length; d++) {
+					// agent at a pulls box from b to a and steps back to c
+					final int a = graph.next[b][d];
+					if (a < 0 || !region.reached(a)) continue;
+					final int c = graph.next[a][d];
+					if (c < 0 || region.box(c)) continue;
+
+					System.arraycopy(boxes, 0, moved, 0, m);
+					moved[i] = a;
+					Arrays.sort(moved);
+					frontier.add(frontier.distance + graph.length[b][d], pack(moved, m, region.other(moved, m, c)));
+				}
+			}
+		}
+		return table;
+	}
+
+	// cells reachable by agent, with stamps instead of clearing
+	private static final class Region {
+		final Graph graph;
+		final int[] box, reached, stack, otherBox, otherReached;
+		int stamp, otherStamp;
+
+		Region(final Graph graph) {
+			this.graph = graph;
+			box = new int[graph.cells];
+			reached = new int[graph.cells];
+			stack = new int[graph.cells];
+			otherBox = new int[graph.cells];
+			otherReached = new int[graph.cells];
+		}
+
+		void boxes(final int[] boxes, final int m) {
+			stamp++;
+			for (int i = 0; i < m; i++)
+				box[boxes[i]] = stamp;
+		}
+
+		boolean box(final int a) {
+			return box[a] == stamp;
+		}
+
+		boolean reached(final int a) {
+			return reached[a] == stamp;
+		}
+
+		// marks cells reachable from start around current boxes and returns smallest
+		int fill(final int start) {
+			return flood(start, box, reached, stamp);
+		}
+
+		// smallest cell reachable from start with other boxes, leaving current region intact
+		int other(final int[] boxes, final int m, final int start) {
+			otherStamp++;
+			for (int i = 0; i < m; i++)
+				otherBox[boxes[i]] = otherStamp;
+			return flood(start, otherBox, otherReached, otherStamp);
+		}
+
+		private int flood(final int start, final int[] box, final int[] reached, final int stamp) {
+			int min = start, size = 0;
+			reached[start] = stamp;
+			stack[size++] = start;
+			while (size > 0) {
+				final int a = stack[--size];
+				if (a < min) min = a;
+				for (final int b : graph.next[a])
+					if (b >= 0 && box[b] != stamp && reached[b] != stamp) {
+						reached[b] = stamp;
+						stack[size++] = b;
+					}
+			}
+			return min;
+		}
+	}
+
+	// states by distance, one growing stack per distance
+	private static final class Frontier {
+		long[][] stacks = new long[16][];
+		int[] sizes = new int[16];
+		int distance;
+
+		void add(final int d, final long state) {
+			if (d >= stacks.length) {
+				stacks = Arrays.copyOf(stacks, Math.max(d + 1, stacks.length * 2));
+				sizes = Arrays.copyOf(sizes, stacks.length);
+			}
+			long[] s = stacks[d];
+			if (s == null) s = stacks[d] = new long[256];
+			if (sizes[d] == s.length) s = stacks[d] = Arrays.copyOf(s, s.length * 2);
+			s[sizes[d]++] = state;
+		}
+
+		// next state in order of distance, or -1
+		long poll() {
+			while (distance < stacks.length && sizes[distance] == 0) {
+				stacks[distance] = null;
+				distance++;
+			}
+			return distance < stacks.length ? stacks[distance][--sizes[distance]] : -1;
+		}
+	}
+
+	private static long pack(final int[] boxes, final int m, final int agent) {
+		long s = 0;
+		for (int i = 0; i < m; i++)
+			s = s << CellBits | boxes[i];
+		return s << CellBits | agent;
+	}
+
+	private static void unpack(long state, final int[] boxes, final int m) {
+		for (int i = m - 1; i >= 0; i--) {
+			state >>>= CellBits;
+			boxes[i] = (int) (state & (1 << CellBits) - 1);
+		}
+	}
+
+	// rank of ascending ids among all m-subsets of ids
+	private static int rank(final int[] cells, final int m, final int[][] binomial) {
+		int r = 0;
+		for (int i = 0; i < m; i++)
+			r += binomial[cells[i]][i + 1];
+		return r;
+	}
+
+	private static int[][] binomial(final int n, final int k) {
+		final int[][] c = new int[n + 1][k + 1];
+		for (int i = 0; i <= n; i++) {
+			c[i][0] = 1;
+			for (int j = 1; j <= Math.min(i, k); j++) {
+				final long x = (long) c[i - 1][j - 1] + c[i - 1][j];
+				c[i][j] = (int) Math.min(x, Integer.MAX_VALUE);
+			}
+		}
+		return c;
+	}
+}
\ No newline at end of file
@@ -1,19 +1,40 @@
 package tintor.devel.sokoban;
 
-import java.util.ArrayDeque;
+import java.util.Arrays;
 
 import tintor.devel.deadlockgen.Cell;
 import tintor.devel.deadlockgen.CellSearch;
 import tintor.devel.deadlockgen.Key;
 import tintor.devel.deadlockgen.MemoryKeySet;
-import tintor.devel.heap.Heap;
+import tintor.devel.heap.BucketQueue;
+import tintor.devel.sokoban.cell.PushTable;
 import tintor.util.Block;
+import tintor.util.Metrics;
 
 // TODO eliminate stupid moves
 // TODO expert rules for pushing into goal rooms
 // TODO greedy and goal driven search 
 
 public class Solver {
+	/** If set, solvers add its penalties to matching estimate. */
+	public static PatternDatabase patterns;
+
+	static Heuristic heuristic(final Key level, final PushTable pushes) {
+		return patterns != null ? new Heuristic.PatternGoals(level, pushes, patterns) : new Heuristic.MatchingGoals(
+				level, pushes);
+	}
+
+	/** Runs ParallelSolver on threads workers, or astar(level) if threads is 1. */
+	public static Key astar(final Key level, final int threads) {
+		if (threads <= 1) return astar(level);
+		if (Util.goals(level.agent).size() < level.boxes()) {
+			System.out.println("not enough goals!");
+			System.out.println(level);
+			return null;
+		}
+		return ParallelSolver.astar(level, threads);
+	}
+
 	public static Key astar(final Key level) {
 		// trivial tests
 		if (Util.goals(level.agent).size() < level.boxes()) {
@@ -36,88 +57,183 @@ public class Solver {
 
 		// key search
 		final MemoryKeySet reached = new MemoryKeySet();
-		//final KeyQueue queue = new KeyQueue(); // priority queue
-		final Heap<Key> queue = new Heap<Key>(tintor.devel.deadlockgen.comparator, 1000); // priority queue
+		// by total, ties by estimate (closer to goal first)
+		final BucketQueue<Key> queue = new BucketQueue<Key>();
 		Monitor._queue = queue;
 		Monitor._set = reached;
 
-		final Heuristic heuristic = new Heuristic.MatchingGoals(level);
+		final Heuristic heuristic = heuristic(level, new PushTable(level));
 
 		// cell search
 		final CellSearch cells = new CellSearch();
 
+		// monitor
+		final Metrics.Cell keyCount = Monitor.keys.local(), branchCount = Monitor.branches.local();
+		final Metrics.Cell cellCount = Monitor.cells.local(), hashDeadlocks = Monitor.hashDeadlocks.local();
+		final Metrics.Buckets branching = Monitor.branching.local(), estimates = Monitor.heuristic.local();
+		final Metrics.Buckets queueSize = Monitor.queue.local();
+
 		// go!
 		reached.add(level);
-		queue.offer(level);
+		queue.offer(level, level.total, 0);
 		while (queue.size() > 0) {
 			final Key key = queue.poll();
 
 			if (key.isGoal()) return key;
 
+			heuristic.expanding(key);
+			int pushes = 0;
 			cells.reset(key.agent);
 			for (final Cell a : cells) {
 				for (Cell.Edge e = a.edges(); e != null; e = e.next)
 					if (key.hasBox(e.cell)) {
 						final Key newKey = key.pushBox(e.cell, e.dir);
 						if (newKey != null) {
-							Monitor._branches++;
+							pushes++;
 							if (reached.add(newKey)) {
 								final int h = heuristic.estimate(newKey);
 								if (h != Integer.MAX_VALUE) {
+									estimates.add(h);
 									newKey.total = (short) (newKey.distance + h);
-									queue.offer(newKey);
+									queue.offer(newKey, newKey.total, h);
 								} else
-									Monitor._hash_deadlocks++;
+									hashDeadlocks.increment();
 							}
 						}
 					} else
 						cells.add(e.cell);
-				Monitor._cells++;
+				cellCount.increment();
 			}
+			branchCount.add(pushes);
+			branching.add(pushes);
 
 			Monitor._lastKey = key;
-			Monitor._keys++;
+			keyCount.increment();
+			if ((keyCount.get() & 1023) == 0) queueSize.add(queue.size());
 		}
 		return null;
 	}
 
+	/** Transposition table of ida() has 2^idaTableBits slots, 8 bytes each. */
+	public static int idaTableBits = 22;
+
+	/**
+	 * IDA*: depth first search cut at f = pushes + estimate above limit, starting with limit = estimate of level and
+	 * raising it to smallest f that was cut, until solution is found. Successors are searched in order of estimate,
+	 * and TranspositionTable cuts keys already reached with fewer pushes, or with as many in the same iteration.
+	 */
 	public static Key ida(final Key level) {
-		final Heuristic heuristic = new Heuristic.MatchingGoals(level);
-		final Keys keys = new Keys();
+		if (Util.goals(level.agent).size() < level.boxes()) {
+			System.out.println("not enough goals!");
+			System.out.println(level);
+			return null;
+		}
 
-		int limit = heuristic.estimate(level);
-		boolean cutoff = false;
-		do {
+		final Ida ida = new Ida(level);
+		int limit = ida.heuristic.estimate(level);
+		while (limit != Integer.MAX_VALUE) {
 			System.out.println("limit = " + limit);
+			ida.limit = limit;
+			ida.next = Integer.MAX_VALUE;
+			ida.iteration++;
+			final Key result = ida.search(level, 0);
+			if (result != null) return result;
+			limit = ida.next;
+		}
+		return null;
+	}
 
-			final ArrayDeque<Key> deque = new ArrayDeque<Key>();
-			deque.add(level);
-			while (deque.size() > 0) {
-				keys.key = deque.pollFirst();
-				if (keys.key.isGoal()) return keys.key;
-
-				for (final Key k : keys) {
-					final int h = heuristic.estimate(k);
-					if (h == Integer.MAX_VALUE) continue;
-
-					k.total = (short) (keys.key.total + h);
-					if (k.total > limit)
-						cutoff = true;
-					else
-						deque.addFirst(k);
-				}
+	private static final class Ida {
+		final Heuristic heuristic;
+		final Keys keys = new Keys();
+		final TranspositionTable table = new TranspositionTable(idaTableBits);
+		int limit, next, iteration;
+
+		// successors and their estimates, by depth
+		Key[][] successors = new Key[64][];
+		int[][] estimates = new int[64][];
+
+		final Metrics.Cell keyCount = Monitor.keys.local(), branchCount = Monitor.branches.local();
+		final Metrics.Cell hashDeadlocks = Monitor.hashDeadlocks.local(), transpositions = Monitor.transpositions
+				.local();
+
+		Ida(final Key level) {
+			heuristic = heuristic(level, new PushTable(level));
+		}
+
+		// returns goal key under key, or null (and lowers next to smallest f above limit)
+		Key search(final Key key, final int depth) {
+			if (key.isGoal()) return key;
+			if (!table.visit(key, key.distance, iteration)) {
+				transpositions.increment();
+				return null;
 			}
 
-			limit += 1;
-		} while (cutoff);
+			if (depth == successors.length) {
+				successors = Arrays.copyOf(successors, depth * 2);
+				estimates = Arrays.copyOf(estimates, depth * 2);
+			}
+			Key[] children = successors[depth];
+			int[] h = estimates[depth];
+			if (children == null) {
+				children = successors[depth] = new Key[16];
+				h = estimates[depth] = new int[16];
+			}
 
-		return null;
+			// collect successors within limit, sorted by estimate
+			heuristic.expanding(key);
+			keys.key = key;
+			int n = 0;
+			for (final Key k : keys) {
+				final int e = heuristic.estimate(k);
+				if (e == Integer.MAX_VALUE) {
+					hashDeadlocks.increment();
+					continue;
+				}
+				final int f = k.distance + e;
+				if (f > limit) {
+					if (f < next) next = f;
+					continue;
+				}
+				k.total = (short) f;
+				if (n == children.length) {
+					children = successors[depth] = Arrays.copyOf(children, n * 2);
+					h = estimates[depth] = Arrays.copyOf(h, n * 2);
+				}
+				int i = n++;
+				for (; i > 0 && h[i - 1] > e; i--) {
+					children[i] = children[i - 1];
+					h[i] = h[i - 1];
+				}
+				children[i] = k;
+				h[i] = e;
+			}
+			keyCount.increment();
+			branchCount.add(n);
+
+			for (int i = 0; i < n; i++) {
+				final Key k = children[i];
+				children[i] = null;
+				final Key result = search(k, depth + 1);
+				if (result != null) {
+					for (int j = i + 1; j < n; j++)
+						children[j] = null;
+					return result;
+				}
+			}
+			return null;
+		}
 	}
 
 	static class Keys extends Block<Key> {
 		public Key key;
 		final CellSearch cells = new CellSearch();
 
+		// all successors of a key usually fit, so one handoff per expanded key
+		Keys() {
+			super(64);
+		}
+
 		@Override protected void run() {
 			cells.reset(key.agent);
 			for (final Cell a : cells)
@@ -0,0 +1,41 @@
+package tintor.devel.sokoban;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import tintor.devel.deadlockgen.Key;
+
+/**
+ * Fixed size, lossy table of least pushes (g) with which keys were reached, for IDA*. Slot is chosen by key hash and
+ * holds that hash, iteration and g packed into one long, so it is read and written without locks. Key overwrites
+ * whatever was in its slot, which only loses pruning. Keys with equal hash are taken as the same key, so in the rare
+ * case of full hash collision a key can be cut that should have been searched.
+ */
+public final class TranspositionTable {
+	private final AtomicLongArray _slots;
+	private final int _shift;
+
+	/** Table of 2^bits slots, 8 bytes each. */
+	public TranspositionTable(final int bits) {
+		if (bits < 1 || bits > 30) throw new IllegalArgumentException();
+		_slots = new AtomicLongArray(1 << bits);
+		_shift = 32 - bits;
+	}
+
+	/**
+	 * Returns false if key was already reached with fewer pushes, or with as many in the same iteration (so its
+	 * subtree is searched with the same bound). Otherwise records g for key and returns true.
+	 */
+	public boolean visit(final Key key, final int g, final int iteration) {
+		if (g < 0 || g >= 0xFFFF) throw new IllegalArgumentException();
+		final int hash = key.hashCode();
+		final int i = hash * 0x9E3779B9 >>> _shift;
+		final long slot = _slots.get(i);
+		if (slot != 0 && (int) (slot >>> 32) == hash) {
+			final int g0 = ((int) slot & 0xFFFF) - 1;
+			if (g0 < g || g0 == g && ((int) slot >>> 16) == (iteration & 0xFFFF)) return false;
+		}
+		// g + 1, so that empty slot is never mistaken for key reached with no pushes
+		_slots.lazySet(i, (long) hash << 32 | ((iteration & 0xFFFF) << 16 | g + 1) & 0xFFFFFFFFL);
+		return true;
+	}
+}
\ No newline at end of file
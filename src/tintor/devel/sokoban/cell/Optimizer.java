@@ -69,43 +69,18 @@ public class Optimizer {
 		return level;
 	}
 
-	// FIXME bugy!
-	// TODO optimize very slow! O(cells^2) => O(goals*cells)
+	/** Sets goalPushes and pushes (to goals and holes only) of every cell from PushTable. */
 	public static void calculateMinimalPushes(final Key level) {
-		final List<Cell> cells = Util.cellList(level.agent);
-		for (final Cell a : cells)
-			a.goalPushes = -1;
-
-		final Search<Cell> cellSearch = new Search<Cell>();
-		final Search<Key> keySearch = new Search<Key>();
-		for (final Cell start : cells) {
-			start.pushes.clear();
-			keySearch.addLast(new Key(start, start));
-
-			for (final Key keyA : keySearch) {
-				if (!start.pushes.containsKey(keyA.box(0))) start.pushes.put(keyA.box(0), (int) keyA.distance);
-
-				cellSearch.addFirst(keyA.agent);
-				for (final Cell cell : cellSearch)
-					for (Cell.Edge e = cell.edges(); e != null; e = e.next)
-						if (keyA.hasBox(e.cell)) {
-							final Key keyB = keyA.pushBox(e.cell, e.dir);
-							if (keyB != null) keySearch.addLast(keyB);
-						} else
-							cellSearch.addFirst(e.cell);
-				cellSearch.clear();
+		final PushTable table = new PushTable(level);
+		final Cell[] goals = table.goals();
+		for (final Cell a : Util.cellList(level.agent)) {
+			a.goalPushes = table.goalPushes(a);
+			a.pushes.clear();
+			for (final Cell g : goals) {
+				final int p = table.pushes(a, g);
+				if (p != PushTable.Unreachable) a.pushes.put(g, p);
 			}
-			keySearch.clear();
 		}
-
-		for (final Cell a : cells)
-			a.goalPushes = Integer.MAX_VALUE;
-
-		for (final Cell g : cells)
-			if (g.goal || g.hole) for (final Cell a : cells) {
-				final Integer p = a.pushes.get(g);
-				if (p != null && p < a.goalPushes) a.goalPushes = p;
-			}
 	}
 
 	private static void markArticulations(final Cell root) {
@@ -0,0 +1,190 @@
+package tintor.devel.sokoban.cell;
+
+import java.util.Arrays;
+import java.util.List;
+
+import tintor.devel.deadlockgen.Cell;
+import tintor.devel.deadlockgen.Dir;
+import tintor.devel.deadlockgen.Key;
+import tintor.devel.sokoban.Util;
+
+/**
+ * Minimal pushes of single box from every cell to every goal (and hole), with no other boxes and agent anywhere.
+ * Dense table by goal and cell id, filled by one reverse search per goal, so O(goals * cells) in total.
+ *
+ * Search state is box cell and side of box where agent is. Pull moves box to agent's cell and agent one step further,
+ * and costs length of edge (so it works on compressed tunnels too). Agent can walk from one side of box to another
+ * without pushing iff edges from box to those sides are in the same biconnected component, which is computed once.
+ *
+ * Table is not changed after constructor, so one table of level can be read by many threads.
+ */
+public final class PushTable {
+	public static final int Unreachable = Integer.MAX_VALUE;
+	private static final int Sides = Dir.values().length;
+
+	private final Cell[] _goals;
+	// goal index by cell id, or -1
+	private final int[] _goalIndex;
+	// _distance[goal][cell id]
+	private final int[][] _distance;
+	private final int[] _goalPushes;
+
+	// graph by cell id: neighbour and edge length for every side, -1 if none
+	private final int _cells;
+	private final int[] _next, _length, _component;
+
+	public PushTable(final Key level) {
+		final List<Cell> list = Util.cellList(level.agent);
+		int n = 0, goals = 0;
+		for (final Cell c : list) {
+			n = Math.max(n, c.id + 1);
+			if (c.goal || c.hole) goals++;
+		}
+		_cells = n;
+		_next = new int[n * Sides];
+		_length = new int[n * Sides];
+		Arrays.fill(_next, -1);
+		_goals = new Cell[goals];
+		_goalIndex = new int[n];
+		Arrays.fill(_goalIndex, -1);
+		goals = 0;
+		for (final Cell c : list) {
+			for (Cell.Edge e = c.edges(); e != null; e = e.next) {
+				_next[c.id * Sides + e.dir.ordinal()] = e.cell.id;
+				_length[c.id * Sides + e.dir.ordinal()] = Math.abs(e.cell.x - c.x) + Math.abs(e.cell.y - c.y);
+			}
+			if (c.goal || c.hole) {
+				_goalIndex[c.id] = goals;
+				_goals[goals++] = c;
+			}
+		}
+
+		_component = new int[n * Sides];
+		components(level.agent.id);
+
+		_distance = new int[goals][];
+		_goalPushes = new int[n];
+		Arrays.fill(_goalPushes, Unreachable);
+		final Search search = new Search();
+		for (int g = 0; g < goals; g++) {
+			_distance[g] = search.run(_goals[g].id);
+			for (int a = 0; a < n; a++)
+				_goalPushes[a] = Math.min(_goalPushes[a], _distance[g][a]);
+		}
+	}
+
+	/** Goals and holes, in order of cell list. */
+	public Cell[] goals() {
+		return _goals.clone();
+	}
+
+	/** Pushes from cell to goal (or hole), or Unreachable. */
+	public int pushes(final Cell cell, final Cell goal) {
+		final int g = _goalIndex[goal.id];
+		if (g < 0) throw new IllegalArgumentException("not a goal");
+		return _distance[g][cell.id];
+	}
+
+	/** Pushes from cell to closest goal (or hole), or Unreachable. */
+	public int goalPushes(final Cell cell) {
+		return _goalPushes[cell.id];
+	}
+
+	// labels every edge (cell * Sides + side) with its biconnected component, by iterative Tarjan
+	private void components(final int root) {
+		final int[] order = new int[_cells], low = new int[_cells], parent = new int[_cells], side = new int[_cells];
+		final int[] cells = new int[_cells], edges = new int[_cells * Sides];
+		int counter = 0, depth = 0, top = 0, component = 0;
+
+		order[root] = ++counter;
+		low[root] = counter;
+		parent[root] = -1;
+		cells[depth++] = root;
+		while (depth > 0) {
+			final int a = cells[depth - 1];
+			if (side[a] < Sides) {
+				final int e = a * Sides + side[a]++, b = _next[e];
+				if (b < 0 || b == parent[a]) continue;
+				if (order[b] == 0) {
+					edges[top++] = e;
+					order[b] = low[b] = ++counter;
+					parent[b] = a;
+					cells[depth++] = b;
+				} else if (order[b] < order[a]) {
+					edges[top++] = e;
+					low[a] = Math.min(low[a], order[b]);
+				}
+				continue;
+			}
+
+			depth--;
+			final int p = parent[a];
+			if (p < 0) continue;
+			low[p] = Math.min(low[p], low[a]);
+			if (low[a] >= order[p]) {
+				// edges above and including tree edge p-a form a component
+				component++;
+				int e;
+				do {
+					e = edges[--top];
+					label(e, component);
+				} while (_next[e] != a || e / Sides != p);
+			}
+		}
+	}
+
+	private void label(final int e, final int component) {
+		_component[e] = component;
+		final int a = e / Sides, b = _next[e];
+		for (int s = 0; s < Sides; s++)
+			if (_next[b * Sides + s] == a) _component[b * Sides + s] = component;
+	}
+
+	// uniform cost search over (box, side) states, with one stack per distance
+	private final class Search {
+		final int[] distance = new int[_cells * Sides];
+		int[][] stacks = new int[16][];
+		int[] sizes = new int[16];
+
+		int[] run(final int goal) {
+			Arrays.fill(distance, Unreachable);
+			for (int s = 0; s < Sides; s++)
+				if (_next[goal * Sides + s] >= 0) add(goal * Sides + s, 0);
+
+			for (int d = 0; d < stacks.length; d++)
+				while (sizes[d] > 0) {
+					final int state = stacks[d][--sizes[d]];
+					if (distance[state] < d) continue;
+					final int b = state / Sides, s = state % Sides;
+					final int a = _next[state];
+					final int c = _next[a * Sides + s];
+					// pull box from b to a, agent steps to c
+					if (c >= 0) add(a * Sides + s, d + _length[state]);
+					// walk around box to other sides
+					for (int t = 0; t < Sides; t++)
+						if (t != s && _next[b * Sides + t] >= 0 && _component[b * Sides + t] == _component[state])
+							add(b * Sides + t, d);
+				}
+
+			final int[] result = new int[_cells];
+			Arrays.fill(result, Unreachable);
+			for (int state = 0; state < distance.length; state++)
+				result[state / Sides] = Math.min(result[state / Sides], distance[state]);
+			result[goal] = 0;
+			return result;
+		}
+
+		void add(final int state, final int d) {
+			if (d >= distance[state]) return;
+			distance[state] = d;
+			if (d >= stacks.length) {
+				stacks = Arrays.copyOf(stacks, Math.max(d + 1, stacks.length * 2));
+				sizes = Arrays.copyOf(sizes, stacks.length);
+			}
+			int[] stack = stacks[d];
+			if (stack == null) stack = stacks[d] = new int[64];
+			if (sizes[d] == stack.length) stack = stacks[d] = Arrays.copyOf(stack, stack.length * 2);
+			stack[sizes[d]++] = state;
+		}
+	}
+}
\ No newline at end of file
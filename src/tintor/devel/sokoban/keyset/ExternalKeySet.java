@@ -1,25 +1,82 @@
 package tintor.devel.sokoban.keyset;
 
-import java.nio.charset.Charset;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import tintor.devel.deadlockgen.Cell;
 import tintor.devel.deadlockgen.Key;
-import tintor.external.ExternalSet;
+import tintor.devel.sokoban.Util;
 
+/**
+ * KeySet which keeps only a bounded hash table of recent keys in memory and spills older ones to sorted runs on disk.
+ *
+ * Key is packed into fixed-width record: bitset of box cells followed by agent cell id + 1 (so record is never zero).
+ * Every run has Bloom filter and first record of every disk block in memory, so membership test of a new key reads
+ * at most one block per run, and only from runs whose filter matches. Runs are merged into one when there are too
+ * many of them.
+ */
 public class ExternalKeySet implements KeySet {
-	private final ExternalSet _e;
-	private final Charset _c = Charset.forName("ascii");
+	private static final int BlockBytes = 4096, MaxRuns = 8, BloomBitsPerKey = 10, BloomHashes = 7;
 
-	public ExternalKeySet(final Key level) {
-		_e = ExternalSet.create("keyset", level.toBytes().length);
-	}
+	private final int _words, _agentShift;
+	private final File _dir;
+	private int _size, _runId;
+
+	// front: open addressing table of records, load at most 1/2
+	private final long[] _table;
+	private final int _slots;
+	private int _frontCount;
+
+	private final List<Run> _runs = new ArrayList<Run>();
+	private final long[] _record, _probe;
+	private final ByteBuffer _block = ByteBuffer.allocate(BlockBytes);
+
+	public long diskReads, bloomFalsePositives;
 
-	private int _size = 0;
+	/** frontKeys is capacity of in-memory table, runs are stored in dir. */
+	public ExternalKeySet(final Key level, final File dir, final int frontKeys) {
+		int count = 0;
+		for (final Cell c : Util.cellList(level.agent))
+			count = Math.max(count, c.id() + 1);
+
+		_agentShift = count;
+		_words = (count + 32 - Integer.numberOfLeadingZeros(count + 1) + 63) / 64;
+		_dir = dir;
+		dir.mkdirs();
+
+		int slots = 16;
+		while (slots < frontKeys * 2)
+			slots *= 2;
+		_slots = slots;
+		_table = new long[slots * _words];
+		_record = new long[_words];
+		_probe = new long[_words];
+	}
 
 	public boolean add(final Key a) {
-		if (!_e.add(new String(a.toBytes(), _c))) return false;
+		encode(a, _record);
+		final int slot = find(_record);
+		if (slot >= 0) return false;
+		for (final Run run : _runs)
+			if (run.contains(_record)) return false;
+
+		System.arraycopy(_record, 0, _table, ~slot * _words, _words);
+		_frontCount += 1;
 		_size += 1;
+		if (_frontCount * 2 >= _slots) spill();
 		return true;
-
 	}
 
 	public int size() {
@@ -27,6 +84,282 @@ public class ExternalKeySet implements KeySet {
 	}
 
 	public int arraysize() {
-		return -1;
+		return _slots;
+	}
+
+	public int runs() {
+		return _runs.size();
+	}
+
+	/** Deletes all runs. */
+	public void close() {
+		for (final Run run : _runs)
+			run.delete();
+		_runs.clear();
+	}
+
+	private void encode(final Key key, final long[] record) {
+		Arrays.fill(record, 0);
+		for (int i = 0; i < key.boxes(); i++) {
+			final int id = key.box(i).id();
+			record[id >>> 6] |= 1L << id;
+		}
+		final long agent = key.agent.id() + 1;
+		record[_agentShift >>> 6] |= agent << _agentShift;
+		if ((_agentShift & 63) != 0 && (_agentShift >>> 6) + 1 < _words)
+			record[(_agentShift >>> 6) + 1] |= agent >>> 64 - (_agentShift & 63);
+	}
+
+	// === Front
+
+	private static long hash(final long[] a, final int offset, final int words) {
+		long h = 0;
+		for (int i = 0; i < words; i++) {
+			h = (h ^ a[offset + i]) * 0x9E3779B97F4A7C15L;
+			h ^= h >>> 29;
+		}
+		return h;
+	}
+
+	// returns slot of record, or ~(empty slot)
+	private int find(final long[] record) {
+		int slot = (int) hash(record, 0, _words) & _slots - 1;
+		while (true) {
+			final int offset = slot * _words;
+			if (_table[offset] == 0 && empty(offset)) return ~slot;
+			if (equal(_table, offset, record, 0, _words)) return slot;
+			slot = slot + 1 & _slots - 1;
+		}
+	}
+
+	private boolean empty(final int offset) {
+		for (int i = 0; i < _words; i++)
+			if (_table[offset + i] != 0) return false;
+		return true;
+	}
+
+	private static boolean equal(final long[] a, final int ia, final long[] b, final int ib, final int words) {
+		for (int i = 0; i < words; i++)
+			if (a[ia + i] != b[ib + i]) return false;
+		return true;
+	}
+
+	private static int compare(final long[] a, final int ia, final long[] b, final int ib, final int words) {
+		for (int i = words - 1; i >= 0; i--)
+			if (a[ia + i] != b[ib + i]) return a[ia + i] < b[ib + i] ? -1 : 1;
+		return 0;
+	}
+
+	// writes front as new sorted run, merges runs if there are too many
+	private void spill() {
+		int count = 0;
+		for (int slot = 0; slot < _slots; slot++)
+			if (!empty(slot * _words)) {
+				System.arraycopy(_table, slot * _words, _table, count * _words, _words);
+				count += 1;
+			}
+		sort(_table, 0, count - 1);
+
+		final Run run = new Run(new File(_dir, "run" + _runId++), count);
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run.file),
+					1 << 16));
+			for (int i = 0; i < count; i++)
+				run.append(out, _table, i * _words);
+			out.close();
+		}
+		catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+		Arrays.fill(_table, 0);
+		_frontCount = 0;
+		_runs.add(run);
+
+		if (_runs.size() > MaxRuns) merge();
+	}
+
+	private void merge() {
+		int count = 0;
+		for (final Run r : _runs)
+			count += r.count;
+		final Run run = new Run(new File(_dir, "run" + _runId++), count);
+
+		try {
+			final DataInputStream[] in = new DataInputStream[_runs.size()];
+			final long[] heads = new long[in.length * _words];
+			final int[] left = new int[in.length];
+			for (int i = 0; i < in.length; i++) {
+				in[i] = new DataInputStream(new BufferedInputStream(new FileInputStream(_runs.get(i).file), 1 << 16));
+				left[i] = _runs.get(i).count;
+				read(in[i], heads, i * _words, left[i]);
+			}
+
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run.file),
+					1 << 16));
+			while (true) {
+				int min = -1;
+				for (int i = 0; i < in.length; i++)
+					if (left[i] > 0 && (min < 0 || compare(heads, i * _words, heads, min * _words, _words) < 0)) min = i;
+				if (min < 0) break;
+				run.append(out, heads, min * _words);
+				left[min] -= 1;
+				read(in[min], heads, min * _words, left[min]);
+			}
+			out.close();
+			for (final DataInputStream s : in)
+				s.close();
+		}
+		catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		for (final Run r : _runs)
+			r.delete();
+		_runs.clear();
+		_runs.add(run);
+	}
+
+	private void read(final DataInputStream in, final long[] a, final int offset, final int left) throws IOException {
+		if (left == 0) return;
+		for (int i = 0; i < _words; i++)
+			a[offset + i] = in.readLong();
+	}
+
+	private void sort(final long[] a, int lo, int hi) {
+		while (hi - lo > 16) {
+			final int mid = (lo + hi) >>> 1;
+			if (compare(a, mid * _words, a, lo * _words, _words) < 0) swap(a, mid, lo);
+			if (compare(a, hi * _words, a, lo * _words, _words) < 0) swap(a, hi, lo);
+			if (compare(a, hi * _words, a, mid * _words, _words) < 0) swap(a, hi, mid);
+			System.arraycopy(a, mid * _words, _probe, 0, _words);
+
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (compare(a, i * _words, _probe, 0, _words) < 0)
+					i++;
+				while (compare(a, j * _words, _probe, 0, _words) > 0)
+					j--;
+				if (i <= j) swap(a, i++, j--);
+			}
+			// recurse into smaller part
+			if (j - lo < hi - i) {
+				sort(a, lo, j);
+				lo = i;
+			}
+			else {
+				sort(a, i, hi);
+				hi = j;
+			}
+		}
+		for (int i = lo + 1; i <= hi; i++)
+			for (int j = i; j > lo && compare(a, j * _words, a, (j - 1) * _words, _words) < 0; j--)
+				swap(a, j, j - 1);
+	}
+
+	private void swap(final long[] a, final int x, final int y) {
+		for (int i = 0; i < _words; i++) {
+			final long t = a[x * _words + i];
+			a[x * _words + i] = a[y * _words + i];
+			a[y * _words + i] = t;
+		}
+	}
+
+	// === Runs
+
+	private class Run {
+		final File file;
+		final int count, perBlock;
+		// first record of every block
+		final long[] fences;
+		final long[] bloom;
+		private int _appended;
+		private RandomAccessFile _raf;
+
+		Run(final File file, final int count) {
+			this.file = file;
+			this.count = count;
+			perBlock = Math.max(1, BlockBytes / (_words * 8));
+			fences = new long[(count + perBlock - 1) / perBlock * _words];
+			bloom = new long[Math.max(1, (int) ((long) count * BloomBitsPerKey / 64))];
+		}
+
+		void append(final DataOutputStream out, final long[] a, final int offset) throws IOException {
+			for (int i = 0; i < _words; i++)
+				out.writeLong(a[offset + i]);
+			if (_appended % perBlock == 0) System.arraycopy(a, offset, fences, _appended / perBlock * _words, _words);
+
+			final long h = hash(a, offset, _words);
+			final long bits = bloom.length * 64L;
+			for (int i = 0; i < BloomHashes; i++) {
+				final long b = ((h + i * (h >>> 32 | 1)) & Long.MAX_VALUE) % bits;
+				bloom[(int) (b >>> 6)] |= 1L << b;
+			}
+			_appended += 1;
+		}
+
+		boolean contains(final long[] record) {
+			final long h = hash(record, 0, _words);
+			final long bits = bloom.length * 64L;
+			for (int i = 0; i < BloomHashes; i++) {
+				final long b = ((h + i * (h >>> 32 | 1)) & Long.MAX_VALUE) % bits;
+				if ((bloom[(int) (b >>> 6)] >>> b & 1) == 0) return false;
+			}
+
+			// last block whose first record <= record
+			int lo = 0, hi = fences.length / _words - 1;
+			while (lo < hi) {
+				final int m = (lo + hi + 1) >>> 1;
+				if (compare(fences, m * _words, record, 0, _words) <= 0)
+					lo = m;
+				else
+					hi = m - 1;
+			}
+			if (compare(fences, lo * _words, record, 0, _words) > 0) {
+				bloomFalsePositives += 1;
+				return false;
+			}
+
+			final int records = Math.min(perBlock, count - lo * perBlock);
+			final LongBuffer block = readBlock((long) lo * perBlock * _words * 8, records * _words * 8);
+			int l = 0, r = records - 1;
+			while (l <= r) {
+				final int m = (l + r) >>> 1;
+				int c = 0;
+				for (int i = _words - 1; i >= 0 && c == 0; i--) {
+					final long v = block.get(m * _words + i);
+					if (v != record[i]) c = v < record[i] ? -1 : 1;
+				}
+				if (c == 0) return true;
+				if (c < 0)
+					l = m + 1;
+				else
+					r = m - 1;
+			}
+			bloomFalsePositives += 1;
+			return false;
+		}
+
+		private LongBuffer readBlock(final long position, final int bytes) {
+			diskReads += 1;
+			try {
+				if (_raf == null) _raf = new RandomAccessFile(file, "r");
+				_raf.seek(position);
+				_raf.readFully(_block.array(), 0, bytes);
+			}
+			catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+			return _block.asLongBuffer();
+		}
+
+		void delete() {
+			try {
+				if (_raf != null) _raf.close();
+			}
+			catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+			file.delete();
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package tintor.devel.work_stealing_deque;
+
+/**
+ * Parallel binary divide and conquer on TaskPool.
+ * Problem is split into left and right halves down to cutoff depth (or until small() says it is not worth it), and
+ * below that it is solved with plain sequential recursion. Left half is forked and right half computed in place, so
+ * an idle worker steals the biggest pending piece and join() helps instead of blocking a thread.
+ * Default cutoff gives about 16 pieces per thread, which is enough to balance an uneven tree without paying for a
+ * task per node.
+ */
+public abstract class Recursion<P, R> {
+	private final TaskPool _pool;
+	private final int _cutoff;
+
+	protected Recursion(final TaskPool pool) {
+		this(pool, cutoff(pool.threads()));
+	}
+
+	protected Recursion(final TaskPool pool, final int cutoff) {
+		if (cutoff < 0) throw new IllegalArgumentException();
+		_pool = pool;
+		_cutoff = cutoff;
+	}
+
+	/** Depth at which problem is split into at least 16 pieces per thread. */
+	public static int cutoff(final int threads) {
+		return 32 - Integer.numberOfLeadingZeros(threads - 1) + 4;
+	}
+
+	protected abstract R sequential(P problem);
+
+	protected abstract P left(P problem);
+
+	protected abstract P right(P problem);
+
+	protected abstract R combine(P problem, R left, R right);
+
+	/** True if problem should not be split further even above cutoff depth. */
+	protected boolean small(final P problem) {
+		return false;
+	}
+
+	public final R compute(final P problem) {
+		return _pool.invoke(new Step(problem, 0));
+	}
+
+	private final class Step extends Task<R> {
+		final P problem;
+		final int depth;
+
+		Step(final P problem, final int depth) {
+			this.problem = problem;
+			this.depth = depth;
+		}
+
+		@Override protected R compute() {
+			if (depth >= _cutoff || small(problem)) return sequential(problem);
+			final Step left = new Step(left(problem), depth + 1);
+			left.fork();
+			final R right = new Step(right(problem), depth + 1).compute();
+			return combine(problem, left.join(), right);
+		}
+	}
+}
\ No newline at end of file
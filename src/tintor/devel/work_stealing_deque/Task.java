@@ -0,0 +1,64 @@
+package tintor.devel.work_stealing_deque;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Unit of work for TaskPool. fork() pushes task to deque of the current worker, where it is either popped back
+ * by join() or stolen by an idle worker. join() never blocks while there is work: it runs tasks from its own deque
+ * and steals from others until the joined task is done.
+ */
+public abstract class Task<V> {
+	private static final int Pending = 0, Done = 1, Failed = 2;
+
+	private volatile int _status;
+	private V _result;
+	private Throwable _failure;
+	// thread outside of pool waiting in TaskPool.invoke()
+	volatile Thread waiter;
+
+	protected abstract V compute();
+
+	/** Schedules task on the current worker. Must be called from a task running in a TaskPool. */
+	public final Task<V> fork() {
+		TaskPool.worker().push(this);
+		return this;
+	}
+
+	/** Waits for forked task, helping with other tasks meanwhile. */
+	public final V join() {
+		if (_status == Pending) TaskPool.worker().help(this);
+		return result();
+	}
+
+	/** Computes task in the current thread. */
+	public final V invoke() {
+		run();
+		return result();
+	}
+
+	public final boolean isDone() {
+		return _status != Pending;
+	}
+
+	final void run() {
+		try {
+			_result = compute();
+			_status = Done;
+		}
+		catch (final Throwable e) {
+			_failure = e;
+			_status = Failed;
+		}
+		final Thread w = waiter;
+		if (w != null) LockSupport.unpark(w);
+	}
+
+	final V result() {
+		if (_status == Failed) {
+			if (_failure instanceof RuntimeException) throw (RuntimeException) _failure;
+			if (_failure instanceof Error) throw (Error) _failure;
+			throw new RuntimeException(_failure);
+		}
+		return _result;
+	}
+}
\ No newline at end of file
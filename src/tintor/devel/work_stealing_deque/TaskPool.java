@@ -0,0 +1,168 @@
+package tintor.devel.work_stealing_deque;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fork/join pool of worker threads, each with its own WorkStealingDeque.
+ * Worker runs tasks from bottom of its own deque (newest first, depth first), and when it runs out it steals from
+ * top of other deques (oldest first, so biggest pieces of work move between threads). Tasks from outside of pool
+ * come through a shared queue. Idle worker spins, then parks with timeout; fork() unparks a parked worker.
+ */
+public final class TaskPool {
+	private static final ThreadLocal<Worker> Current = new ThreadLocal<Worker>();
+	private static final int Spins = 64;
+	private static final long ParkNanos = 1000000;
+
+	private final Worker[] _workers;
+	private final ConcurrentLinkedQueue<Task<?>> _submissions = new ConcurrentLinkedQueue<Task<?>>();
+	private final AtomicInteger _parked = new AtomicInteger();
+	private volatile boolean _shutdown;
+
+	public TaskPool(final int threads) {
+		if (threads < 1) throw new IllegalArgumentException();
+		_workers = new Worker[threads];
+		for (int i = 0; i < threads; i++)
+			_workers[i] = new Worker(i);
+		for (final Worker w : _workers)
+			w.start();
+	}
+
+	public int threads() {
+		return _workers.length;
+	}
+
+	/** Runs task in pool and returns its result. */
+	public <V> V invoke(final Task<V> task) {
+		final Worker w = Current.get();
+		if (w != null && w.pool() == this) return task.invoke();
+
+		task.waiter = Thread.currentThread();
+		_submissions.add(task);
+		wakeOne();
+		while (!task.isDone())
+			LockSupport.park(this);
+		return task.result();
+	}
+
+	/** Stops workers once they finish their current tasks. */
+	public void shutdown() {
+		_shutdown = true;
+		for (final Worker w : _workers)
+			LockSupport.unpark(w);
+	}
+
+	/** Total number of tasks taken from other workers. */
+	public long steals() {
+		long s = 0;
+		for (final Worker w : _workers)
+			s += w.steals;
+		return s;
+	}
+
+	static Worker worker() {
+		final Worker w = Current.get();
+		if (w == null) throw new IllegalStateException("not in TaskPool worker");
+		return w;
+	}
+
+	private void wakeOne() {
+		if (_parked.get() == 0) return;
+		for (final Worker w : _workers)
+			if (w.parked) {
+				w.parked = false;
+				LockSupport.unpark(w);
+				return;
+			}
+	}
+
+	final class Worker extends Thread {
+		private final WorkStealingDeque<Task<?>> _deque = new WorkStealingDeque<Task<?>>();
+		private int _seed;
+		volatile boolean parked;
+		volatile long steals;
+
+		Worker(final int id) {
+			super("task-pool-" + id);
+			setDaemon(true);
+			_seed = id * 0x9E3779B9 + 1;
+		}
+
+		TaskPool pool() {
+			return TaskPool.this;
+		}
+
+		void push(final Task<?> task) {
+			_deque.push(task);
+			wakeOne();
+		}
+
+		@Override public void run() {
+			Current.set(this);
+			int idle = 0;
+			while (!_shutdown) {
+				Task<?> t = _deque.pop();
+				if (t == null) t = scan();
+				if (t != null) {
+					t.run();
+					idle = 0;
+				} else
+					idle = idle(idle);
+			}
+		}
+
+		// runs other tasks until task is done
+		void help(final Task<?> task) {
+			while (!task.isDone()) {
+				Task<?> t = _deque.pop();
+				if (t == null) t = scan();
+				if (t != null)
+					t.run();
+				else
+					Thread.yield();
+			}
+		}
+
+		// steals from other workers starting at random one, then takes submission
+		private Task<?> scan() {
+			final int n = _workers.length;
+			if (n > 1) {
+				_seed ^= _seed << 13;
+				_seed ^= _seed >>> 17;
+				_seed ^= _seed << 5;
+				final int start = (_seed >>> 1) % n;
+				for (int i = 0; i < n; i++) {
+					final Worker v = _workers[(start + i) % n];
+					if (v == this) continue;
+					final Task<?> t = v._deque.steal();
+					if (t != null) {
+						steals++;
+						return t;
+					}
+				}
+			}
+			return _submissions.poll();
+		}
+
+		private int idle(final int idle) {
+			if (idle < Spins) {
+				Thread.yield();
+				return idle + 1;
+			}
+			parked = true;
+			_parked.incrementAndGet();
+			final Task<?> t = scan();
+			if (t != null) {
+				parked = false;
+				_parked.decrementAndGet();
+				t.run();
+				return 0;
+			}
+			LockSupport.parkNanos(this, ParkNanos);
+			parked = false;
+			_parked.decrementAndGet();
+			return idle;
+		}
+	}
+}
\ No newline at end of file
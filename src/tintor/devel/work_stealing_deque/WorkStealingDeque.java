@@ -1,214 +1,126 @@
 package tintor.devel.work_stealing_deque;
 
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
-class WorkStealingDeque {
-}
-
-class LinkedDynamicDeque<T> {
-	/** Can be safely called only from owner thread. */
-	public void PushBottom(final T data) {
-		final Node curr = bottom;
-		curr.data = data; // Write data in current bottom
-		bottom = curr.prev = new Node(curr); // Allocate and link a new node
-	}
-
-	/** Steals items from top of the deque. Can be safely called from different threads. */
-	@SuppressWarnings("unchecked")
-	public T PopTop() {
-		final Top currTop = top.get(); // Read Top
-		final Node currBottom = bottom; // Read Bottom
-
-		// Emptiness test
-		if (currBottom == currTop.node || currBottom == currTop.node.next) {
-			if (currTop == top.get()) return null; // EMPTY
-			return null; // ABORT;
-		}
-
-		final Object value = currTop.node.data; // Read value
-		if (!top.compareAndSet(currTop, new Top(currTop.tag + 1, currTop.node.prev))) return null; // ABORT
-
-		// TODO free currTop.node if needed
-		return (T) value;
-	}
-
-	/** Can be safely called only from owner thread. */
-	@SuppressWarnings("unchecked")
-	public T PopBottom() {
-		final Node oldBottom = bottom; // Read Bottom Data
-		final Node newBottom = oldBottom.next;
-		bottom = newBottom;
-
-		final Top currTop = top.get(); // Read Top
-
-		// Case 1: if Top has crossed Bottom
-		if (oldBottom == currTop.node) {
-			// Return bottom to its old position:
-			bottom = oldBottom;
-			return null; // EMPTY
-		}
-
-		final Object retVal = newBottom.data; // Read data to be popped
-
-		// Case 2: When popping the last entry in the deque (i.e. deque is empty after the update of bottom).
-		if (newBottom == currTop.node) {
-			// Try to update Tops tag so no concurrent PopTop operation will also pop the same entry:
-			final Top newTopVal = new Top(currTop.tag + 1, currTop.node);
-			if (top.compareAndSet(currTop, newTopVal)) // TODO free old node if needed
-				return (T) retVal;
-			// CAS failed (i.e. a concurrent PopTop operation already popped the last entry):
-			bottom = oldBottom;
-			return null; // EMPTY
-		}
-
-		// Case 3: Regular case (i.e. there was at least one entry in the deque after bottoms update):
-		// TODO free old node if needed
-		return (T) retVal;
-	}
-
-	private volatile Node bottom = new Node(null);
-	private final AtomicReference<Top> top = new AtomicReference<Top>(new Top(0, bottom));
-
-	private static class Node {
-		volatile Object data;
-		volatile Node prev;
-		final Node next;
-
-		Node(final Node next) {
-			this.next = next;
-		}
-	}
-
-	private static class Top {
-		final int tag;
-		final Node node;
-
-		Top(final int tag, final Node node) {
-			this.tag = tag;
-			this.node = node;
-		}
-	}
-}
-
 // Based on:
-// "A Dynamic-Sized Nonblocking Work Stealing Deque", Danny Hendler, Yossi Lev, Mark Moir, and Nir Shavit, 2005
-class LinkedArrayDynamicDeque<T> {
-	public LinkedArrayDynamicDeque(final int nodeSize) {
-		this.nodeSize = nodeSize;
-		bottom = new Bottom(new Node(nodeSize), nodeSize - 1);
-		top = new AtomicReference<Top>(new Top(0, bottom.node, 0));
-	}
+// "Dynamic Circular Work-Stealing Deque", David Chase and Yossi Lev, 2005
+// (successor of "A Dynamic-Sized Nonblocking Work Stealing Deque", Hendler, Lev, Moir and Shavit, 2005)
+
+/**
+ * Owner pushes and pops at bottom, other threads steal from top.
+ *
+ * top and bottom are absolute indices which only grow (top) or move by one (bottom), so there is no ABA and no
+ * allocation per operation. Elements live in circular segment of 2^bits slots. Segment grows when full and shrinks
+ * when less than 1/8 full; replaced segments are cleared and kept by owner for reuse, one per size. Every install
+ * wraps the array in a new Segment, and thief checks that the segment it read from is still installed before it
+ * takes the element, so a recycled array is never read as current.
+ */
+public final class WorkStealingDeque<T> {
+	private static final int MinBits = 5, MaxBits = 30;
+
+	@SuppressWarnings("rawtypes") private static final AtomicLongFieldUpdater<WorkStealingDeque> Top = AtomicLongFieldUpdater
+			.newUpdater(WorkStealingDeque.class, "top");
+
+	private volatile long top, bottom;
+	private volatile Segment segment = new Segment(new AtomicReferenceArray<Object>(1 << MinBits), MinBits);
+
+	// owner only: unused arrays by bits
+	private final AtomicReferenceArray<?>[] _spare = new AtomicReferenceArray<?>[MaxBits + 1];
+
+	private static final class Segment {
+		final AtomicReferenceArray<Object> array;
+		final int bits, mask;
 
-	public void PushBottom(final T data) {
-		final Bottom curr = bottom;
-		curr.node.array.set(curr.index, data); // Write data in current bottom cell
-		if (curr.index != 0)
-			bottom = new Bottom(curr.node, curr.index - 1); // Update Bottom
-		else { // Allocate and link a new node:
-			final Node newNode = new Node(nodeSize);
-			newNode.next = curr.node;
-			curr.node.prev = newNode;
-			bottom = new Bottom(newNode, nodeSize - 1); // Update Bottom
+		Segment(final AtomicReferenceArray<Object> array, final int bits) {
+			this.array = array;
+			this.bits = bits;
+			mask = (1 << bits) - 1;
 		}
 	}
 
-	private boolean EmptinessTest(final Bottom b, final Top t) {
-		if (b.node == t.node && (b.index == t.index || b.index == t.index + 1)) return true;
-		if (b.node == t.node.next && b.index == 0 && t.index == nodeSize - 1) return true;
-		return false;
+	/** Only owner may call this. */
+	public void push(final T x) {
+		final long b = bottom, t = top;
+		Segment s = segment;
+		if (b - t >= s.mask) s = resize(s, s.bits + 1, t, b);
+		s.array.lazySet((int) b & s.mask, x);
+		bottom = b + 1;
 	}
 
+	/** Only owner may call this. Returns null if deque is empty. */
 	@SuppressWarnings("unchecked")
-	public T PopTop() {
-		final Top currTop = top.get(); // Read Top
-		final Bottom currBottom = bottom; // Read Bottom
-
-		if (EmptinessTest(currBottom, currTop)) {
-			if (currTop == top.get()) return null; // EMPTY
-			return null; // ABORT;
+	public T pop() {
+		final long b = bottom - 1;
+		final Segment s = segment;
+		bottom = b;
+		final long t = top;
+
+		final long size = b - t;
+		if (size < 0) {
+			bottom = t;
+			return null;
 		}
 
-		// currTop.index != 0: stay at current node
-		// currTop.index == 0: move to next node and update tag
-		final Top newTopVal = currTop.index != 0 ? new Top(currTop.tag, currTop.node, currTop.index - 1)
-				: new Top(currTop.tag + 1, currTop.node.prev, nodeSize - 1);
-
-		final Object retVal = currTop.node.array.get(currTop.index); // Read value
-		if (!top.compareAndSet(currTop, newTopVal)) return null; // ABORT
+		final int i = (int) b & s.mask;
+		final Object x = s.array.get(i);
+		if (size > 0) {
+			s.array.lazySet(i, null);
+			if (size < s.mask >> 3 && s.bits > MinBits) resize(s, s.bits - 1, t, b);
+			return (T) x;
+		}
 
-		// TODO free old node if needed
-		return (T) retVal;
+		// last element, race with thieves
+		final boolean won = Top.compareAndSet(this, t, t + 1);
+		bottom = t + 1;
+		if (!won) return null;
+		s.array.lazySet(i, null);
+		return (T) x;
 	}
 
+	/** Can be called from any thread. Returns null if deque is empty or if another thread took the element. */
 	@SuppressWarnings("unchecked")
-	public T PopBottom() {
-		final Bottom oldBot = bottom; // Read Bottom Data
-
-		final Bottom newBot = oldBot.index != nodeSize - 1 ? new Bottom(oldBot.node, oldBot.index + 1)
-				: new Bottom(oldBot.node.next, 0);
-		bottom = newBot;
-
-		final Top currTop = top.get(); // Read Top
-
-		// Case 1: if Top has crossed Bottom
-		if (oldBot.node == currTop.node && oldBot.index == currTop.index) {
-			// Return bottom to its old position:
-			bottom = new Bottom(oldBot.node, oldBot.index);
-			return null; // EMPTY
-		}
-
-		final Object retVal = newBot.node.array.get(newBot.index); // Read data to be popped
-
-		// Case 2: When popping the last entry in the deque (i.e. deque is empty after the update of bottom).
-		if (newBot.node == currTop.node && newBot.index == currTop.index) {
-			// Try to update Tops tag so no concurrent PopTop operation will also pop the same entry:
-			final Top newTopVal = new Top(currTop.tag + 1, currTop.node, currTop.index);
-			if (top.compareAndSet(currTop, newTopVal)) // TODO free old node if needed
-				return (T) retVal;
-			// if CAS failed (i.e. a concurrent PopTop operation already popped the last entry):
-			// Return bottom to its old position:
-			bottom = oldBot;
-			return null; // EMPTY
-		}
-
-		// Case 3: Regular case (i.e. there was at least one entry in the deque after bottoms update):
-		// TODO free old node if needed
-		return (T) retVal;
+	public T steal() {
+		final long t = top, b = bottom;
+		if (t >= b) return null;
+
+		final Segment s = segment;
+		final Object x = s.array.get((int) t & s.mask);
+		if (s != segment || !Top.compareAndSet(this, t, t + 1)) return null;
+		return (T) x;
 	}
 
-	private final int nodeSize;
-	private volatile Bottom bottom;
-	private final AtomicReference<Top> top;
-
-	private static class Bottom {
-		final Node node;
-		final int index;
-
-		Bottom(final Node node, final int index) {
-			this.node = node;
-			this.index = index;
-		}
+	/** Approximate when called by non-owner. */
+	public int size() {
+		return (int) Math.max(0, bottom - top);
 	}
 
-	private static class Top {
-		final int tag;
-		final Node node;
-		final int index;
-
-		Top(final int tag, final Node node, final int index) {
-			this.tag = tag;
-			this.node = node;
-			this.index = index;
-		}
+	public boolean isEmpty() {
+		return bottom <= top;
 	}
 
-	private static class Node {
-		final AtomicReferenceArray<Object> array;
-		volatile Node prev, next;
+	public int capacity() {
+		return segment.mask + 1;
+	}
 
-		Node(final int arraySize) {
-			array = new AtomicReferenceArray<Object>(arraySize);
-		}
+	@SuppressWarnings("unchecked")
+	private Segment resize(final Segment old, final int bits, final long t, final long b) {
+		if (bits > MaxBits) throw new IllegalStateException("deque is full");
+		AtomicReferenceArray<Object> array = (AtomicReferenceArray<Object>) _spare[bits];
+		if (array == null)
+			array = new AtomicReferenceArray<Object>(1 << bits);
+		else
+			_spare[bits] = null;
+
+		final Segment s = new Segment(array, bits);
+		for (long i = t; i < b; i++)
+			array.lazySet((int) i & s.mask, old.array.get((int) i & old.mask));
+		segment = s;
+
+		// thieves still reading old array will see that segment changed
+		for (int i = 0; i <= old.mask; i++)
+			old.array.lazySet(i, null);
+		_spare[old.bits] = old.array;
+		return s;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,118 @@
+package tintor.devel.work_stealing_deque;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WorkStealingDequeTest {
+	@Test public void owner() {
+		final WorkStealingDeque<Integer> deque = new WorkStealingDeque<Integer>();
+		Assert.assertNull(deque.pop());
+		for (int i = 0; i < 1000; i++)
+			deque.push(i);
+		Assert.assertTrue(deque.capacity() >= 1000);
+		Assert.assertEquals(Integer.valueOf(0), deque.steal());
+		for (int i = 999; i >= 1; i--)
+			Assert.assertEquals(Integer.valueOf(i), deque.pop());
+		Assert.assertNull(deque.pop());
+		Assert.assertNull(deque.steal());
+		Assert.assertTrue(deque.capacity() < 1000);
+	}
+
+	// every pushed element is taken exactly once, while segment grows and shrinks under thieves
+	@Test public void thieves() throws Exception {
+		final int count = 2000000;
+		final WorkStealingDeque<Integer> deque = new WorkStealingDeque<Integer>();
+		final AtomicIntegerArray taken = new AtomicIntegerArray(count);
+		final Thread[] thieves = new Thread[3];
+		final AtomicBoolean done = new AtomicBoolean();
+
+		for (int i = 0; i < thieves.length; i++) {
+			thieves[i] = new Thread() {
+				@Override public void run() {
+					while (true) {
+						final Integer x = deque.steal();
+						if (x != null)
+							taken.incrementAndGet(x);
+						else if (done.get() && deque.isEmpty()) break;
+					}
+				}
+			};
+			thieves[i].start();
+		}
+
+		int next = 0;
+		while (next < count) {
+			// bursts of pushes, then pops, so that segment changes size often
+			final int burst = Math.min(count - next, (next >> 3 & 1023) + 1);
+			for (int i = 0; i < burst; i++)
+				deque.push(next++);
+			for (int i = 0; i < burst / 2; i++) {
+				final Integer x = deque.pop();
+				if (x != null) taken.incrementAndGet(x);
+			}
+		}
+		for (Integer x = deque.pop(); x != null; x = deque.pop())
+			taken.incrementAndGet(x);
+		done.set(true);
+		for (final Thread t : thieves)
+			t.join();
+
+		for (int i = 0; i < count; i++)
+			Assert.assertEquals("element " + i, 1, taken.get(i));
+	}
+
+	@Test public void pool() {
+		final TaskPool pool = new TaskPool(3);
+		Assert.assertEquals(Integer.valueOf(1 << 16), pool.invoke(new Leaves(16)));
+		pool.shutdown();
+	}
+
+	@Test public void recursion() {
+		final TaskPool pool = new TaskPool(3);
+		// sum of [0, 1000000) by halving ranges
+		final Recursion<long[], Long> sum = new Recursion<long[], Long>(pool) {
+			@Override protected Long sequential(final long[] range) {
+				long s = 0;
+				for (long i = range[0]; i < range[1]; i++)
+					s += i;
+				return s;
+			}
+
+			@Override protected boolean small(final long[] range) {
+				return range[1] - range[0] < 1000;
+			}
+
+			@Override protected long[] left(final long[] range) {
+				return new long[] { range[0], (range[0] + range[1]) / 2 };
+			}
+
+			@Override protected long[] right(final long[] range) {
+				return new long[] { (range[0] + range[1]) / 2, range[1] };
+			}
+
+			@Override protected Long combine(final long[] range, final Long left, final Long right) {
+				return left + right;
+			}
+		};
+		Assert.assertEquals(Long.valueOf(999999L * 1000000 / 2), sum.compute(new long[] { 0, 1000000 }));
+		pool.shutdown();
+	}
+
+	static class Leaves extends Task<Integer> {
+		final int depth;
+
+		Leaves(final int depth) {
+			this.depth = depth;
+		}
+
+		@Override protected Integer compute() {
+			if (depth == 0) return 1;
+			final Leaves a = new Leaves(depth - 1);
+			a.fork();
+			return new Leaves(depth - 1).invoke() + a.join();
+		}
+	}
+}
\ No newline at end of file
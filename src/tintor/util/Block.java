@@ -1,7 +1,19 @@
 package tintor.util;
 
 import java.util.Iterator;
-
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generator: run() calls yield() for each element, and elements come out of iterator() as they are yielded.
+ *
+ * run() executes in a producer thread which is kept between iterator() calls and exits after a second of being idle.
+ * Producer and consumer hand over a buffer of up to batch elements through a volatile turn flag, spinning briefly (on
+ * multicore) and then parking, with no monitors. Batch 1 is a single-slot handoff, so producer never runs ahead of
+ * consumer by more than one element; bigger batches cost two handoffs per batch instead of per element.
+ *
+ * Starting a new iteration before previous one is exhausted abandons it: yield() throws out of run().
+ */
 public abstract class Block<T> implements Iterable<T> {
 	public static void main(final String[] args) {
 		for (final String a : new Block<String>() {
@@ -16,63 +28,79 @@ public abstract class Block<T> implements Iterable<T> {
 			System.out.println("[" + a + "]");
 	}
 
-	abstract protected void run();
+	private static final int Spins = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 10 : 0;
+	// settable for tests
+	static long idleNanos = 1000000000L;
 
-	protected final void yield(final T a) {
-		next = a;
+	private final Object[] _buffer;
+	// written by one side before it passes turn, read by the other side after it gets turn
+	private int _count, _position;
+	private boolean _running, _abandon;
+	private Throwable _failure;
 
-		main = true;
-		Block.this.notifyAll();
-		while (main)
-			block();
-	}
+	private volatile boolean _producerTurn;
+	private volatile Thread _producer, _consumer;
 
-	transient boolean main = true;
-	T next;
-	boolean more;
-
-	public synchronized Iterator<T> iterator() {
-		new Thread() {
-			@Override
-			public void run() {
-				synchronized (Block.this) {
-					Block.this.run();
-
-					more = false;
-					next = null;
+	protected Block() {
+		this(1);
+	}
 
-					main = true;
-					Block.this.notifyAll();
-				}
-			}
-		}.start();
+	/** Producer hands over elements in batches of given size. */
+	protected Block(final int batch) {
+		if (batch < 1) throw new IllegalArgumentException();
+		_buffer = new Object[batch];
+	}
 
-		more = true;
-		next = null;
+	abstract protected void run();
 
-		main = false;
-		while (!main)
-			block();
+	protected final void yield(final T a) {
+		if (_count == _buffer.length) {
+			pass(false);
+			if (_abandon) throw Abandon.Instance;
+			_count = 0;
+		}
+		_buffer[_count++] = a;
+	}
 
+	public Iterator<T> iterator() {
+		_consumer = Thread.currentThread();
+		if (_running) {
+			_abandon = true;
+			pass(true);
+			_abandon = false;
+		}
+		_count = _position = 0;
+		_failure = null;
+		_running = true;
+		pass(true);
 		return iterator;
 	}
 
 	private final Iterator<T> iterator = new Iterator<T>() {
 		@Override
 		public boolean hasNext() {
-			return more;
+			if (_position < _count) return true;
+			if (!_running) {
+				// elements yielded before failure come out first
+				if (_failure == null) return false;
+				final Throwable e = _failure;
+				_failure = null;
+				if (e instanceof RuntimeException) throw (RuntimeException) e;
+				if (e instanceof Error) throw (Error) e;
+				throw new RuntimeException(e);
+			}
+			for (int i = 0; i < _count; i++)
+				_buffer[i] = null;
+			_count = _position = 0;
+			pass(true);
+			return _position < _count;
 		}
 
 		@Override
+		@SuppressWarnings("unchecked")
 		public T next() {
-			final T a = next;
-			synchronized (Block.this) {
-				main = false;
-				Block.this.notifyAll();
-				while (!main)
-					block();
-			}
-			return a;
+			if (!hasNext()) throw new NoSuchElementException();
+			return (T) _buffer[_position++];
 		}
 
 		@Override
@@ -81,10 +109,96 @@ public abstract class Block<T> implements Iterable<T> {
 		}
 	};
 
-	void block() {
-		try {
-			wait();
-		} catch (final InterruptedException e) {
+	// gives turn to the other side and waits until it comes back
+	private void pass(final boolean toProducer) {
+		if (toProducer) {
+			_producerTurn = true;
+			final Thread p = _producer;
+			if (p != null)
+				LockSupport.unpark(p);
+			else
+				startProducer();
+			await(false);
+		} else {
+			_producerTurn = false;
+			LockSupport.unpark(_consumer);
+			await(true);
+		}
+	}
+
+	private void await(final boolean producerTurn) {
+		for (int i = 0; i < Spins; i++)
+			if (_producerTurn == producerTurn) return;
+		while (_producerTurn != producerTurn)
+			LockSupport.park(this);
+	}
+
+	private synchronized void startProducer() {
+		if (_producer != null) return;
+		final Thread p = new Producer();
+		_producer = p;
+		p.start();
+	}
+
+	private final class Producer extends Thread {
+		Producer() {
+			super("block");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (awaitWork()) {
+				try {
+					Block.this.run();
+				}
+				catch (final Abandon e) {
+				}
+				catch (final Throwable e) {
+					_failure = e;
+				}
+				_running = false;
+				_producerTurn = false;
+				LockSupport.unpark(_consumer);
+			}
+		}
+
+		// returns false if idle for too long
+		private boolean awaitWork() {
+			final long deadline = System.nanoTime() + idleNanos;
+			while (!_producerTurn) {
+				final long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) return retire();
+				LockSupport.parkNanos(this, remaining);
+			}
+			return true;
+		}
+
+		// Consumer may have read _producer before it was cleared and unparked this thread instead of starting a new
+		// one. Consumer sets turn before it reads _producer, so turn still being unset after _producer is cleared means
+		// consumer will see null and start a new producer.
+		private boolean retire() {
+			synchronized (Block.this) {
+				if (_producerTurn) return true;
+				_producer = null;
+			}
+			if (!_producerTurn) return false;
+			synchronized (Block.this) {
+				// unless consumer already started a new one
+				if (_producer != null) return false;
+				_producer = this;
+				return true;
+			}
+		}
+	}
+
+	private static final class Abandon extends Error {
+		private static final long serialVersionUID = 1L;
+		static final Abandon Instance = new Abandon();
+
+		@Override
+		public Throwable fillInStackTrace() {
+			return this;
 		}
 	}
 }
\ No newline at end of file
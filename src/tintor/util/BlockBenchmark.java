@@ -0,0 +1,47 @@
+package tintor.util;
+
+/**
+ * Cost of Block per element (one long iteration) and per iteration (many short ones, like successor generation in
+ * Solver.Keys), for single element handoff and batches.
+ * Usage: BlockBenchmark [elements]
+ */
+public class BlockBenchmark {
+	public static void main(final String[] args) {
+		final int elements = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		for (int round = 0; round < 3; round++) {
+			for (final int batch : new int[] { 1, 16, 64 }) {
+				final double perElement = iterate(new Numbers(batch, elements), 1) / elements;
+				final double perIteration = iterate(new Numbers(batch, 8), elements / 8) / (elements / 8);
+				System.out.printf("batch=%d %.0fns/element %.0fns/iteration(8 elements)\n", batch, perElement,
+						perIteration);
+			}
+			System.out.println();
+		}
+	}
+
+	// returns nanoseconds
+	static double iterate(final Numbers block, final int iterations) {
+		final long time = System.nanoTime();
+		long sum = 0;
+		for (int i = 0; i < iterations; i++)
+			for (final Integer a : block)
+				sum += a;
+		final long elapsed = System.nanoTime() - time;
+		if (sum != (long) iterations * block.count * (block.count - 1) / 2) throw new RuntimeException();
+		return elapsed;
+	}
+
+	static class Numbers extends Block<Integer> {
+		final int count;
+
+		Numbers(final int batch, final int count) {
+			super(batch);
+			this.count = count;
+		}
+
+		@Override protected void run() {
+			for (int i = 0; i < count; i++)
+				yield(i);
+		}
+	}
+}
\ No newline at end of file
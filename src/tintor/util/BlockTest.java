@@ -0,0 +1,92 @@
+package tintor.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BlockTest {
+	static class Range extends Block<Integer> {
+		int count;
+
+		Range(final int batch, final int count) {
+			super(batch);
+			this.count = count;
+		}
+
+		@Override protected void run() {
+			for (int i = 0; i < count; i++)
+				yield(i);
+		}
+	}
+
+	static List<Integer> list(final Iterable<Integer> block) {
+		final List<Integer> list = new ArrayList<Integer>();
+		for (final Integer a : block)
+			list.add(a);
+		return list;
+	}
+
+	@Test public void elements() {
+		for (final int batch : new int[] { 1, 2, 3, 64 }) {
+			final Range range = new Range(batch, 0);
+			Assert.assertEquals(Arrays.asList(), list(range));
+			range.count = 5;
+			Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4), list(range));
+			range.count = 6;
+			Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), list(range));
+		}
+	}
+
+	// abandoned iteration doesn't leak into the next one
+	@Test public void abandon() {
+		for (final int batch : new int[] { 1, 4 }) {
+			final Range range = new Range(batch, 100);
+			for (final Integer a : range)
+				if (a == 10) break;
+			range.count = 3;
+			Assert.assertEquals(Arrays.asList(0, 1, 2), list(range));
+		}
+	}
+
+	@Test public void failure() {
+		final Block<Integer> block = new Block<Integer>() {
+			@Override protected void run() {
+				yield(1);
+				throw new IllegalStateException();
+			}
+		};
+		for (int i = 0; i < 2; i++) {
+			final Iterator<Integer> it = block.iterator();
+			Assert.assertEquals(1, it.next().intValue());
+			try {
+				it.hasNext();
+				Assert.fail();
+			}
+			catch (final IllegalStateException e) {
+			}
+		}
+	}
+
+	// consumer comes back around the time idle producer retires
+	@Test(timeout = 60000) public void idle() {
+		final long idleNanos = Block.idleNanos;
+		Block.idleNanos = 100000;
+		try {
+			final Random random = new Random(1);
+			final Range range = new Range(1, 1);
+			for (int i = 0; i < 20000; i++) {
+				Assert.assertEquals(Arrays.asList(0), list(range));
+				LockSupport.parkNanos(random.nextInt(200000));
+			}
+		}
+		finally {
+			Block.idleNanos = idleNanos;
+		}
+	}
+}
\ No newline at end of file
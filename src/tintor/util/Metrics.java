@@ -0,0 +1,297 @@
+package tintor.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Named counters and histograms which many threads update without contention, and a writer which periodically
+ * appends their snapshot to a CSV or JSON lines file.
+ *
+ * Every thread updates its own Cell, obtained once with local() outside of the hot loop. Cell has single writer,
+ * so update is plain read plus ordered write (lazySet), no CAS and no lock; cells are padded to separate cache
+ * lines. Reader sums all cells, so it never loses an update, it can only miss ones which are not visible yet.
+ */
+public final class Metrics {
+	private final List<Counter> _counters = new CopyOnWriteArrayList<Counter>();
+	private final List<Histogram> _histograms = new CopyOnWriteArrayList<Histogram>();
+
+	public Counter counter(final String name) {
+		final Counter c = new Counter(name);
+		_counters.add(c);
+		return c;
+	}
+
+	public Histogram histogram(final String name) {
+		final Histogram h = new Histogram(name);
+		_histograms.add(h);
+		return h;
+	}
+
+	/** Sets all counters and histograms to zero. Should be called when no thread is updating them. */
+	public void reset() {
+		for (final Counter c : _counters)
+			c.reset();
+		for (final Histogram h : _histograms)
+			h.reset();
+	}
+
+	// === Counter
+
+	public static final class Counter {
+		public final String name;
+		private final List<Cell> _cells = new CopyOnWriteArrayList<Cell>();
+		private final ThreadLocal<Cell> _local = new ThreadLocal<Cell>() {
+			@Override protected Cell initialValue() {
+				final Cell c = new Cell();
+				_cells.add(c);
+				return c;
+			}
+		};
+
+		Counter(final String name) {
+			this.name = name;
+		}
+
+		/** Cell of the calling thread. */
+		public Cell local() {
+			return _local.get();
+		}
+
+		public long sum() {
+			long s = 0;
+			for (final Cell c : _cells)
+				s += c.get();
+			return s;
+		}
+
+		void reset() {
+			for (final Cell c : _cells)
+				c.set(0);
+		}
+	}
+
+	public static final class Cell {
+		// value is in the middle, 64 bytes away from any other object
+		private static final int V = 8;
+		private final AtomicLongArray _a = new AtomicLongArray(2 * V + 1);
+
+		Cell() {
+		}
+
+		/** Only the owner thread may call this. */
+		public void add(final long a) {
+			_a.lazySet(V, _a.get(V) + a);
+		}
+
+		public void increment() {
+			_a.lazySet(V, _a.get(V) + 1);
+		}
+
+		public long get() {
+			return _a.get(V);
+		}
+
+		void set(final long a) {
+			_a.set(V, a);
+		}
+	}
+
+	// === Histogram
+
+	/** Counts of non-negative values in power of two buckets: bucket b holds values in [2^(b-1), 2^b). */
+	public static final class Histogram {
+		public final String name;
+		private final List<Buckets> _cells = new CopyOnWriteArrayList<Buckets>();
+		private final ThreadLocal<Buckets> _local = new ThreadLocal<Buckets>() {
+			@Override protected Buckets initialValue() {
+				final Buckets b = new Buckets();
+				_cells.add(b);
+				return b;
+			}
+		};
+
+		Histogram(final String name) {
+			this.name = name;
+		}
+
+		/** Buckets of the calling thread. */
+		public Buckets local() {
+			return _local.get();
+		}
+
+		/** Sum of all buckets: counts[0..64], then count, sum and max. */
+		public long[] snapshot() {
+			final long[] s = new long[Buckets.Size];
+			for (final Buckets b : _cells)
+				for (int i = 0; i < Buckets.Size; i++) {
+					final long a = b._a.get(Buckets.Pad + i);
+					s[i] = i == Buckets.Max ? Math.max(s[i], a) : s[i] + a;
+				}
+			return s;
+		}
+
+		void reset() {
+			for (final Buckets b : _cells)
+				for (int i = 0; i < Buckets.Size; i++)
+					b._a.set(Buckets.Pad + i, 0);
+		}
+
+		/** Upper bound of the bucket which contains quantile q of values. */
+		public static long quantile(final long[] snapshot, final double q) {
+			final long count = snapshot[Buckets.Count];
+			if (count == 0) return 0;
+			long seen = 0;
+			for (int b = 0; b < 65; b++) {
+				seen += snapshot[b];
+				if (seen >= q * count) return b == 0 ? 0 : Math.min(snapshot[Buckets.Max], (1L << b) - 1);
+			}
+			return snapshot[Buckets.Max];
+		}
+	}
+
+	public static final class Buckets {
+		static final int Count = 65, Sum = 66, Max = 67, Size = 68, Pad = 8;
+		// Pad longs on both sides, so no other object shares cache line with counts
+		private final AtomicLongArray _a = new AtomicLongArray(Size + 2 * Pad);
+
+		Buckets() {
+		}
+
+		/** Only the owner thread may call this. */
+		public void add(final long value) {
+			final int b = Pad + 64 - Long.numberOfLeadingZeros(value);
+			_a.lazySet(b, _a.get(b) + 1);
+			_a.lazySet(Pad + Count, _a.get(Pad + Count) + 1);
+			_a.lazySet(Pad + Sum, _a.get(Pad + Sum) + value);
+			if (value > _a.get(Pad + Max)) _a.lazySet(Pad + Max, value);
+		}
+	}
+
+	// === Snapshot writer
+
+	/**
+	 * Starts daemon thread which appends snapshot every period milliseconds, and once more when stopped.
+	 * File ending in .json gets one JSON object per line, any other file gets CSV with header line.
+	 * Counters are written as total and rate per second since the previous snapshot, histograms as
+	 * count, mean, p50, p90, p99 and max. Metrics must be registered before the first snapshot.
+	 */
+	public Writer start(final File file, final long period) {
+		return new Writer(file, period);
+	}
+
+	public final class Writer extends Thread {
+		private final File _file;
+		private final long _period;
+		private final boolean _json;
+		private final long _start = System.nanoTime();
+		private long _last = _start;
+		private long[] _lastCounts;
+		private PrintWriter _out;
+
+		Writer(final File file, final long period) {
+			super("metrics " + file.getName());
+			_file = file;
+			_period = period;
+			_json = file.getName().endsWith(".json");
+			setDaemon(true);
+			start();
+		}
+
+		@Override public void run() {
+			try {
+				_out = new PrintWriter(new FileWriter(_file, true));
+				try {
+					while (true) {
+						Thread.sleep(_period);
+						write();
+					}
+				} catch (final InterruptedException e) {}
+				write();
+				_out.close();
+			} catch (final IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		/** Writes last snapshot and waits for writer to finish. */
+		public void finish() {
+			interrupt();
+			try {
+				join();
+			} catch (final InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private void write() {
+			final long now = System.nanoTime();
+			final double seconds = (now - _last) * 1e-9;
+			_last = now;
+
+			final List<String> names = new ArrayList<String>();
+			final List<String> values = new ArrayList<String>();
+			names.add("time");
+			values.add(format((now - _start) * 1e-9));
+
+			final List<Counter> counters = new ArrayList<Counter>(_counters);
+			if (_lastCounts == null) _lastCounts = new long[counters.size()];
+			for (int i = 0; i < _lastCounts.length; i++) {
+				final Counter c = counters.get(i);
+				final long sum = c.sum();
+				names.add(c.name);
+				values.add(Long.toString(sum));
+				names.add(c.name + "/s");
+				values.add(format((sum - _lastCounts[i]) / seconds));
+				_lastCounts[i] = sum;
+			}
+
+			for (final Histogram h : _histograms) {
+				final long[] s = h.snapshot();
+				final long count = s[Buckets.Count];
+				names.add(h.name + ".count");
+				values.add(Long.toString(count));
+				names.add(h.name + ".mean");
+				values.add(format(count == 0 ? 0 : (double) s[Buckets.Sum] / count));
+				names.add(h.name + ".p50");
+				values.add(Long.toString(Histogram.quantile(s, 0.5)));
+				names.add(h.name + ".p90");
+				values.add(Long.toString(Histogram.quantile(s, 0.9)));
+				names.add(h.name + ".p99");
+				values.add(Long.toString(Histogram.quantile(s, 0.99)));
+				names.add(h.name + ".max");
+				values.add(Long.toString(s[Buckets.Max]));
+			}
+
+			final StringBuilder b = new StringBuilder();
+			if (_json) {
+				b.append('{');
+				for (int i = 0; i < names.size(); i++) {
+					if (i > 0) b.append(',');
+					b.append('"').append(names.get(i)).append("\":").append(values.get(i));
+				}
+				b.append('}');
+			} else {
+				if (_file.length() == 0) {
+					for (int i = 0; i < names.size(); i++)
+						b.append(i > 0 ? "," : "").append(names.get(i));
+					b.append('\n');
+				}
+				for (int i = 0; i < values.size(); i++)
+					b.append(i > 0 ? "," : "").append(values.get(i));
+			}
+			_out.println(b);
+			_out.flush();
+		}
+
+		private String format(final double a) {
+			return String.format(Locale.US, "%.3f", a);
+		}
+	}
+}
\ No newline at end of file
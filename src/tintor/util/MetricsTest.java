@@ -0,0 +1,65 @@
+package tintor.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsTest {
+	@Test public void counters() throws Exception {
+		final Metrics metrics = new Metrics();
+		final Metrics.Counter counter = metrics.counter("c");
+		final Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override public void run() {
+					final Metrics.Cell cell = counter.local();
+					for (int j = 0; j < 1000000; j++)
+						cell.increment();
+				}
+			};
+			threads[i].start();
+		}
+		for (final Thread t : threads)
+			t.join();
+		Assert.assertEquals(4000000, counter.sum());
+
+		metrics.reset();
+		Assert.assertEquals(0, counter.sum());
+	}
+
+	@Test public void histogram() {
+		final Metrics.Histogram h = new Metrics().histogram("h");
+		final Metrics.Buckets b = h.local();
+		for (int i = 0; i < 100; i++)
+			b.add(i);
+		final long[] s = h.snapshot();
+		Assert.assertEquals(99, Metrics.Histogram.quantile(s, 1));
+		Assert.assertEquals(63, Metrics.Histogram.quantile(s, 0.5));
+		Assert.assertEquals(0, Metrics.Histogram.quantile(s, 0));
+	}
+
+	@Test public void csv() throws Exception {
+		final File file = File.createTempFile("metrics", ".csv");
+		file.delete();
+		final Metrics metrics = new Metrics();
+		metrics.counter("keys").local().add(10);
+		metrics.histogram("queue").local().add(5);
+
+		final Metrics.Writer writer = metrics.start(file, 1000000);
+		writer.finish();
+
+		final BufferedReader in = new BufferedReader(new FileReader(file));
+		Assert.assertEquals("time,keys,keys/s,queue.count,queue.mean,queue.p50,queue.p90,queue.p99,queue.max",
+				in.readLine());
+		final String[] row = in.readLine().split(",");
+		Assert.assertEquals("10", row[1]);
+		Assert.assertEquals("1", row[3]);
+		Assert.assertEquals("5", row[8]);
+		Assert.assertNull(in.readLine());
+		in.close();
+		file.delete();
+	}
+}
\ No newline at end of file